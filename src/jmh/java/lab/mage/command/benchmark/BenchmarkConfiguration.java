@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import lab.mage.command.internal.CommandExecutor;
+import lab.mage.command.journal.CommandJournal;
+import lab.mage.command.journal.InMemoryCommandJournal;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ComponentScan(
+    basePackages = {
+        "lab.mage.command.codec",
+        "lab.mage.command.gateway",
+        "lab.mage.command.internal",
+        "lab.mage.command.metrics"
+    }
+)
+public class BenchmarkConfiguration {
+
+  public BenchmarkConfiguration() {
+    super();
+  }
+
+  @Bean(name = CommandConstants.LOGGER_NAME)
+  public Logger logger() {
+    return LoggerFactory.getLogger(CommandConstants.LOGGER_NAME);
+  }
+
+  @Bean(name = CommandConstants.COMMAND_SERIALIZER)
+  public Gson gson() {
+    return new GsonBuilder().create();
+  }
+
+  @Bean
+  public CommandJournal commandJournal() {
+    return new InMemoryCommandJournal(Integer.valueOf(CommandConstants.JOURNAL_MEMORY_CAPACITY_DEFAULT));
+  }
+
+  @Bean
+  public CommandExecutor commandExecutor() {
+    return new CommandExecutor(
+        CommandConstants.EXECUTOR_PREFIX,
+        Integer.valueOf(CommandConstants.EXECUTOR_CORE_POOL_SIZE_DEFAULT),
+        Integer.valueOf(CommandConstants.EXECUTOR_MAX_POOL_SIZE_DEFAULT),
+        Integer.valueOf(CommandConstants.EXECUTOR_QUEUE_CAPACITY_DEFAULT),
+        CommandExecutor.RejectionPolicy.BLOCK,
+        Long.valueOf(CommandConstants.EXECUTOR_BLOCK_TIMEOUT_MILLIS_DEFAULT),
+        Integer.valueOf(CommandConstants.EXECUTOR_LANES_DEFAULT));
+  }
+
+  @Bean
+  public SampleAggregate sampleAggregate() {
+    return new SampleAggregate();
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.benchmark;
+
+import lab.mage.command.gateway.CommandGateway;
+import lab.mage.command.util.CommandConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(8)
+public class CommandGatewayBenchmark {
+
+  @Param({"EXECUTOR", "PIPELINE"})
+  public String engine;
+
+  @Param({"0", "2"})
+  public String lingerMillis;
+
+  private AnnotationConfigApplicationContext applicationContext;
+  private CommandGateway commandGateway;
+
+  public CommandGatewayBenchmark() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final Map<String, Object> properties = new HashMap<>();
+    properties.put(CommandConstants.DISPATCH_ENGINE_PROP, this.engine);
+    properties.put(CommandConstants.JOURNAL_LINGER_MILLIS_PROP, this.lingerMillis);
+    this.applicationContext = new AnnotationConfigApplicationContext();
+    this.applicationContext.getEnvironment().getPropertySources()
+        .addFirst(new MapPropertySource("benchmark", properties));
+    this.applicationContext.register(BenchmarkConfiguration.class);
+    this.applicationContext.refresh();
+    this.commandGateway = this.applicationContext.getBean(CommandGateway.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.applicationContext.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public String processThroughput() throws Exception {
+    return this.commandGateway.process(SampleCommand.create(), String.class).get();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public String processLatency() throws Exception {
+    return this.commandGateway.process(SampleCommand.create(), String.class).get();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public String processAsyncLatency() {
+    return this.commandGateway.processAsync(SampleCommand.create(), String.class).toCompletableFuture().join();
+  }
+}
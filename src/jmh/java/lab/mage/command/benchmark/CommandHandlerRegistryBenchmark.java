@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.benchmark;
+
+import lab.mage.command.internal.CommandDescriptor;
+import lab.mage.command.internal.CommandHandlerRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandHandlerRegistryBenchmark {
+
+  private AnnotationConfigApplicationContext applicationContext;
+  private CommandHandlerRegistry commandHandlerRegistry;
+  private SampleCommand sampleCommand;
+
+  public CommandHandlerRegistryBenchmark() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.applicationContext = new AnnotationConfigApplicationContext(BenchmarkConfiguration.class);
+    this.commandHandlerRegistry = this.applicationContext.getBean(CommandHandlerRegistry.class);
+    this.sampleCommand = SampleCommand.create();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.applicationContext.close();
+  }
+
+  @Benchmark
+  public CommandDescriptor findRegistered() {
+    return this.commandHandlerRegistry.find(SampleCommand.class);
+  }
+
+  @Benchmark
+  public CommandDescriptor findUnknown() {
+    return this.commandHandlerRegistry.find(String.class);
+  }
+
+  @Benchmark
+  public Object findAndInvoke() throws Throwable {
+    return this.commandHandlerRegistry.find(this.sampleCommand.getClass()).getCommandHandler()
+        .invoke(this.sampleCommand);
+  }
+}
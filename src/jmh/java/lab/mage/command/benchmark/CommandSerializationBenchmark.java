@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.benchmark;
+
+import lab.mage.command.codec.BinaryCommandCodec;
+import lab.mage.command.codec.CommandCodec;
+import lab.mage.command.codec.GsonCommandCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandSerializationBenchmark {
+
+  @Param({GsonCommandCodec.ID, BinaryCommandCodec.ID})
+  public String codec;
+
+  private CommandCodec commandCodec;
+  private SampleCommand sampleCommand;
+  private ByteBuffer payload;
+
+  public CommandSerializationBenchmark() {
+    super();
+  }
+
+  @Setup
+  public void setUp() {
+    this.commandCodec = GsonCommandCodec.ID.equals(this.codec)
+        ? new GsonCommandCodec(new BenchmarkConfiguration().gson())
+        : new BinaryCommandCodec(new BenchmarkConfiguration().gson());
+    this.sampleCommand = SampleCommand.create();
+    this.payload = this.commandCodec.encode(this.sampleCommand);
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    return this.commandCodec.encode(this.sampleCommand);
+  }
+
+  @Benchmark
+  public SampleCommand decode() {
+    return this.commandCodec.decode(this.payload, SampleCommand.class);
+  }
+}
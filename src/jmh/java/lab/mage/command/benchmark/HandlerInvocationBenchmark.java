@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.benchmark;
+
+import lab.mage.command.internal.CommandHandlerInvoker;
+import lab.mage.command.internal.CommandHandlerRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HandlerInvocationBenchmark {
+
+  private AnnotationConfigApplicationContext applicationContext;
+  private SampleAggregate sampleAggregate;
+  private SampleCommand sampleCommand;
+  private Method method;
+  private MethodHandle methodHandle;
+  private CommandHandlerInvoker commandHandlerInvoker;
+
+  public HandlerInvocationBenchmark() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    this.applicationContext = new AnnotationConfigApplicationContext(BenchmarkConfiguration.class);
+    this.sampleAggregate = this.applicationContext.getBean(SampleAggregate.class);
+    this.sampleCommand = SampleCommand.create();
+    this.method = SampleAggregate.class.getMethod("handle", SampleCommand.class);
+    this.methodHandle = MethodHandles.lookup().unreflect(this.method).bindTo(this.sampleAggregate)
+        .asType(MethodType.methodType(Object.class, Object.class));
+    this.commandHandlerInvoker = this.applicationContext.getBean(CommandHandlerRegistry.class)
+        .find(SampleCommand.class).getCommandHandler();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.applicationContext.close();
+  }
+
+  @Benchmark
+  public Object direct() {
+    return this.sampleAggregate.handle(this.sampleCommand);
+  }
+
+  @Benchmark
+  public Object reflective() throws Exception {
+    return this.method.invoke(this.sampleAggregate, this.sampleCommand);
+  }
+
+  @Benchmark
+  public Object methodHandle() throws Throwable {
+    return (Object) this.methodHandle.invokeExact((Object) this.sampleCommand);
+  }
+
+  @Benchmark
+  public Object commandHandlerInvoker() throws Throwable {
+    return this.commandHandlerInvoker.invoke(this.sampleCommand);
+  }
+}
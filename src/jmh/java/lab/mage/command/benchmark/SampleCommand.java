@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.benchmark;
+
+import java.util.Date;
+
+public final class SampleCommand {
+
+  private final String debtor;
+  private final String creditor;
+  private final String currencyCode;
+  private final Double amount;
+  private final Date valueDate;
+
+  public SampleCommand(final String debtor, final String creditor, final String currencyCode,
+                       final Double amount, final Date valueDate) {
+    super();
+    this.debtor = debtor;
+    this.creditor = creditor;
+    this.currencyCode = currencyCode;
+    this.amount = amount;
+    this.valueDate = valueDate;
+  }
+
+  public static SampleCommand create() {
+    return new SampleCommand("08154711", "08154712", "UGX", 100.00D, new Date(0L));
+  }
+
+  public String debtor() {
+    return this.debtor;
+  }
+
+  public Double amount() {
+    return this.amount;
+  }
+}
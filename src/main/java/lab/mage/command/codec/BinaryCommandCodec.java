@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.codec;
+
+import com.google.gson.Gson;
+import lab.mage.command.util.CommandConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class BinaryCommandCodec implements CommandCodec {
+
+  public static final String ID = "binary";
+
+  private final Gson gson;
+  private final ConcurrentHashMap<Class<?>, BinarySchema> binarySchemas = new ConcurrentHashMap<>();
+  private final ThreadLocal<BinaryWriter> binaryWriters = ThreadLocal.withInitial(BinaryWriter::new);
+
+  @Autowired
+  public BinaryCommandCodec(@Qualifier(CommandConstants.COMMAND_SERIALIZER) final Gson gson) {
+    super();
+    this.gson = gson;
+  }
+
+  @Override
+  public String getId() {
+    return BinaryCommandCodec.ID;
+  }
+
+  @Override
+  public ByteBuffer encode(final Object command) {
+    final BinarySchema binarySchema = this.schemaOf(command.getClass());
+    final BinaryWriter binaryWriter = this.binaryWriters.get().reset();
+    binaryWriter.writeLong(binarySchema.getFingerprint());
+    binarySchema.write(this, binaryWriter, command);
+    return binaryWriter.toByteBuffer();
+  }
+
+  @Override
+  public <C> C decode(final ByteBuffer payload, final Class<C> commandClass) {
+    final BinarySchema binarySchema = this.schemaOf(commandClass);
+    final BinaryReader binaryReader = new BinaryReader(payload);
+    if (binaryReader.readLong() != binarySchema.getFingerprint()) {
+      throw new IllegalArgumentException("Payload does not match schema of " + commandClass.getName() + "!");
+    }
+    return commandClass.cast(binarySchema.read(this, binaryReader));
+  }
+
+  BinarySchema schemaOf(final Class<?> type) {
+    final BinarySchema binarySchema = this.binarySchemas.get(type);
+    if (binarySchema != null) {
+      return binarySchema;
+    }
+    return this.binarySchemas.computeIfAbsent(type, BinarySchema::of);
+  }
+
+  Gson getGson() {
+    return this.gson;
+  }
+}
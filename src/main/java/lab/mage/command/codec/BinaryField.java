@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.codec;
+
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+
+final class BinaryField {
+
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType SETTER_TYPE = MethodType.methodType(Void.TYPE, Object.class, Object.class);
+
+  private final String name;
+  private final Class<?> type;
+  private final Type genericType;
+  private final BinaryFieldType binaryFieldType;
+  private final MethodHandle getter;
+  private final MethodHandle setter;
+
+  private BinaryField(final Field field, final MethodHandle getter, final MethodHandle setter) {
+    super();
+    this.name = field.getName();
+    this.type = field.getType();
+    this.genericType = field.getGenericType();
+    this.binaryFieldType = BinaryFieldType.of(field.getType());
+    this.getter = getter;
+    this.setter = setter;
+  }
+
+  static BinaryField of(final Field field) {
+    ReflectionUtils.makeAccessible(field);
+    try {
+      final MethodHandles.Lookup lookup = MethodHandles.lookup();
+      return new BinaryField(field,
+          lookup.unreflectGetter(field).asType(BinaryField.GETTER_TYPE),
+          lookup.unreflectSetter(field).asType(BinaryField.SETTER_TYPE));
+    } catch (final IllegalAccessException iaex) {
+      throw new IllegalArgumentException("Field " + field.getName() + " not accessible!", iaex);
+    }
+  }
+
+  String getName() {
+    return this.name;
+  }
+
+  Class<?> getType() {
+    return this.type;
+  }
+
+  Type getGenericType() {
+    return this.genericType;
+  }
+
+  void write(final BinaryCommandCodec codec, final BinaryWriter writer, final Object target) throws Throwable {
+    final Object value = (Object) this.getter.invokeExact(target);
+    if (this.type.isPrimitive()) {
+      this.binaryFieldType.write(codec, writer, this, value);
+    } else if (value == null) {
+      writer.writeByte(0);
+    } else {
+      writer.writeByte(1);
+      this.binaryFieldType.write(codec, writer, this, value);
+    }
+  }
+
+  void read(final BinaryCommandCodec codec, final BinaryReader reader, final Object target) throws Throwable {
+    if (this.type.isPrimitive() || reader.readByte() != 0) {
+      this.setter.invokeExact(target, this.binaryFieldType.read(codec, reader, this));
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.codec;
+
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.UUID;
+
+enum BinaryFieldType {
+
+  BOOLEAN {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeByte((Boolean) value ? 1 : 0);
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return reader.readByte() != 0;
+    }
+  },
+  BYTE {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeByte((Byte) value);
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return reader.readByte();
+    }
+  },
+  SHORT {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeSignedVarLong((Short) value);
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return (short) reader.readSignedVarLong();
+    }
+  },
+  CHAR {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeVarInt((Character) value);
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return (char) reader.readVarInt();
+    }
+  },
+  INT {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeSignedVarLong((Integer) value);
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return (int) reader.readSignedVarLong();
+    }
+  },
+  LONG {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeSignedVarLong((Long) value);
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return reader.readSignedVarLong();
+    }
+  },
+  FLOAT {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeInt(Float.floatToRawIntBits((Float) value));
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return Float.intBitsToFloat(reader.readInt());
+    }
+  },
+  DOUBLE {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeLong(Double.doubleToRawLongBits((Double) value));
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return Double.longBitsToDouble(reader.readLong());
+    }
+  },
+  STRING {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeString((String) value);
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return reader.readString();
+    }
+  },
+  DATE {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeSignedVarLong(((Date) value).getTime());
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return new Date(reader.readSignedVarLong());
+    }
+  },
+  UUID {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeLong(((UUID) value).getMostSignificantBits());
+      writer.writeLong(((UUID) value).getLeastSignificantBits());
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return new UUID(reader.readLong(), reader.readLong());
+    }
+  },
+  BIG_INTEGER {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeBytes(((BigInteger) value).toByteArray());
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return new BigInteger(reader.readBytes());
+    }
+  },
+  BIG_DECIMAL {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeSignedVarLong(((BigDecimal) value).scale());
+      writer.writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      final int scale = (int) reader.readSignedVarLong();
+      return new BigDecimal(new BigInteger(reader.readBytes()), scale);
+    }
+  },
+  ENUM {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      // by name, reordering or adding constants must not change journaled commands
+      writer.writeString(((Enum<?>) value).name());
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return Enum.valueOf((Class<? extends Enum>) field.getType(), reader.readString());
+    }
+  },
+  NESTED {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      codec.schemaOf(field.getType()).write(codec, writer, value);
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return codec.schemaOf(field.getType()).read(codec, reader);
+    }
+  },
+  JSON {
+    @Override
+    void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field, final Object value) {
+      writer.writeString(codec.getGson().toJson(value, field.getGenericType()));
+    }
+
+    @Override
+    Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field) {
+      return codec.getGson().fromJson(reader.readString(), field.getGenericType());
+    }
+  };
+
+  abstract void write(final BinaryCommandCodec codec, final BinaryWriter writer, final BinaryField field,
+                      final Object value);
+
+  abstract Object read(final BinaryCommandCodec codec, final BinaryReader reader, final BinaryField field);
+
+  static BinaryFieldType of(final Class<?> type) {
+    if (type == Boolean.TYPE || type == Boolean.class) {
+      return BOOLEAN;
+    } else if (type == Byte.TYPE || type == Byte.class) {
+      return BYTE;
+    } else if (type == Short.TYPE || type == Short.class) {
+      return SHORT;
+    } else if (type == Character.TYPE || type == Character.class) {
+      return CHAR;
+    } else if (type == Integer.TYPE || type == Integer.class) {
+      return INT;
+    } else if (type == Long.TYPE || type == Long.class) {
+      return LONG;
+    } else if (type == Float.TYPE || type == Float.class) {
+      return FLOAT;
+    } else if (type == Double.TYPE || type == Double.class) {
+      return DOUBLE;
+    } else if (type == String.class) {
+      return STRING;
+    } else if (type == Date.class) {
+      return DATE;
+    } else if (type == java.util.UUID.class) {
+      return UUID;
+    } else if (type == BigInteger.class) {
+      return BIG_INTEGER;
+    } else if (type == BigDecimal.class) {
+      return BIG_DECIMAL;
+    } else if (type.isEnum()) {
+      return ENUM;
+    } else if (BinaryFieldType.isBean(type)) {
+      return NESTED;
+    }
+    return JSON;
+  }
+
+  private static boolean isBean(final Class<?> type) {
+    return !type.isArray()
+        && !type.isPrimitive()
+        && !type.isInterface()
+        && !Modifier.isAbstract(type.getModifiers())
+        && !type.getName().startsWith("java.")
+        && !type.getName().startsWith("javax.");
+  }
+}
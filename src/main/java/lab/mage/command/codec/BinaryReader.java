@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+final class BinaryReader {
+
+  private final ByteBuffer buffer;
+
+  BinaryReader(final ByteBuffer buffer) {
+    super();
+    this.buffer = buffer.duplicate();
+  }
+
+  byte readByte() {
+    return this.buffer.get();
+  }
+
+  int readInt() {
+    return this.buffer.getInt();
+  }
+
+  long readLong() {
+    return this.buffer.getLong();
+  }
+
+  int readVarInt() {
+    return (int) this.readVarLong();
+  }
+
+  long readVarLong() {
+    long value = 0L;
+    int shift = 0;
+    byte current;
+    do {
+      current = this.buffer.get();
+      value |= (current & 0x7FL) << shift;
+      shift += 7;
+    } while ((current & 0x80) != 0);
+    return value;
+  }
+
+  long readSignedVarLong() {
+    final long value = this.readVarLong();
+    return (value >>> 1) ^ -(value & 1L);
+  }
+
+  byte[] readBytes() {
+    final byte[] value = new byte[this.readVarInt()];
+    this.buffer.get(value);
+    return value;
+  }
+
+  String readString() {
+    final int length = this.readVarInt();
+    final String value;
+    if (this.buffer.hasArray()) {
+      value = new String(this.buffer.array(), this.buffer.arrayOffset() + this.buffer.position(), length,
+          StandardCharsets.UTF_8);
+      this.buffer.position(this.buffer.position() + length);
+    } else {
+      final byte[] bytes = new byte[length];
+      this.buffer.get(bytes);
+      value = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return value;
+  }
+}
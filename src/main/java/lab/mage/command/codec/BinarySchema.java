@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.codec;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+final class BinarySchema {
+
+  private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+  // allocates without running a constructor, resolved reflectively as sun.misc.Unsafe is not public API
+  private static final MethodHandle ALLOCATOR = BinarySchema.allocator();
+
+  private final Class<?> type;
+  private final String signature;
+  private final long fingerprint;
+  private final BinaryField[] binaryFields;
+  private final MethodHandle constructor;
+
+  private BinarySchema(final Class<?> type, final BinaryField[] binaryFields, final MethodHandle constructor) {
+    super();
+    this.type = type;
+    this.binaryFields = binaryFields;
+    this.constructor = constructor;
+    this.signature = BinarySchema.signatureOf(type, new HashSet<>());
+    this.fingerprint = BinarySchema.fingerprintOf(this.signature);
+  }
+
+  static BinarySchema of(final Class<?> type) {
+    final List<BinaryField> binaryFields = new ArrayList<>();
+    BinarySchema.fieldsOf(type).forEach(field -> binaryFields.add(BinaryField.of(field)));
+    return new BinarySchema(type, binaryFields.toArray(new BinaryField[binaryFields.size()]),
+        BinarySchema.constructorOf(type));
+  }
+
+  long getFingerprint() {
+    return this.fingerprint;
+  }
+
+  String getSignature() {
+    return this.signature;
+  }
+
+  void write(final BinaryCommandCodec codec, final BinaryWriter writer, final Object target) {
+    try {
+      for (final BinaryField binaryField : this.binaryFields) {
+        binaryField.write(codec, writer, target);
+      }
+    } catch (final RuntimeException rex) {
+      throw rex;
+    } catch (final Throwable th) {
+      throw new IllegalArgumentException("Could not encode " + this.type.getName() + "!", th);
+    }
+  }
+
+  Object read(final BinaryCommandCodec codec, final BinaryReader reader) {
+    try {
+      final Object target = (Object) this.constructor.invokeExact();
+      for (final BinaryField binaryField : this.binaryFields) {
+        binaryField.read(codec, reader, target);
+      }
+      return target;
+    } catch (final RuntimeException rex) {
+      throw rex;
+    } catch (final Throwable th) {
+      throw new IllegalArgumentException("Could not decode " + this.type.getName() + "!", th);
+    }
+  }
+
+  // superclass fields first, each class sorted by name
+  private static List<Field> fieldsOf(final Class<?> type) {
+    final List<Class<?>> hierarchy = new ArrayList<>();
+    for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+      hierarchy.add(0, current);
+    }
+    final List<Field> fields = new ArrayList<>();
+    for (final Class<?> current : hierarchy) {
+      final List<Field> declaredFields = new ArrayList<>();
+      for (final Field field : current.getDeclaredFields()) {
+        final int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+          declaredFields.add(field);
+        }
+      }
+      declaredFields.sort(Comparator.comparing(Field::getName));
+      fields.addAll(declaredFields);
+    }
+    return fields;
+  }
+
+  // nested beans are part of the signature, a change anywhere in the tree changes the fingerprint
+  private static String signatureOf(final Class<?> type, final Set<Class<?>> visiting) {
+    if (!visiting.add(type)) {
+      return "@" + type.getName();
+    }
+    final StringBuilder signature = new StringBuilder();
+    for (final Field field : BinarySchema.fieldsOf(type)) {
+      signature.append(field.getName()).append(':').append(field.getType().getName());
+      if (BinaryFieldType.of(field.getType()) == BinaryFieldType.NESTED) {
+        signature.append('{').append(BinarySchema.signatureOf(field.getType(), visiting)).append('}');
+      }
+      signature.append(';');
+    }
+    visiting.remove(type);
+    return signature.toString();
+  }
+
+  private static long fingerprintOf(final String signature) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-256").digest(signature.getBytes(StandardCharsets.UTF_8));
+      return ByteBuffer.wrap(digest).getLong();
+    } catch (final NoSuchAlgorithmException nsaex) {
+      throw new IllegalStateException(nsaex);
+    }
+  }
+
+  private static MethodHandle constructorOf(final Class<?> type) {
+    if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+      throw new IllegalArgumentException("Could not create schema of abstract type " + type.getName() + "!");
+    }
+    try {
+      final Constructor<?> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return MethodHandles.lookup().unreflectConstructor(constructor).asType(BinarySchema.CONSTRUCTOR_TYPE);
+    } catch (final NoSuchMethodException | IllegalAccessException ex) {
+      // immutable commands only offer their all-args constructor, every field is read back anyway
+      if (BinarySchema.ALLOCATOR == null) {
+        throw new IllegalArgumentException(type.getName()
+            + " has no no-arg constructor and this JVM can not allocate it otherwise!", ex);
+      }
+      return BinarySchema.ALLOCATOR.bindTo(type).asType(BinarySchema.CONSTRUCTOR_TYPE);
+    }
+  }
+
+  private static MethodHandle allocator() {
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      final Method allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+      return MethodHandles.lookup().unreflect(allocateInstance).bindTo(theUnsafe.get(null));
+    } catch (final ReflectiveOperationException | RuntimeException ex) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+final class BinaryWriter {
+
+  private static final int INITIAL_CAPACITY = 512;
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+  private byte[] buffer = new byte[BinaryWriter.INITIAL_CAPACITY];
+  private int position;
+
+  BinaryWriter() {
+    super();
+  }
+
+  BinaryWriter reset() {
+    if (this.buffer.length > BinaryWriter.MAX_RETAINED_CAPACITY) {
+      this.buffer = new byte[BinaryWriter.INITIAL_CAPACITY];
+    }
+    this.position = 0;
+    return this;
+  }
+
+  ByteBuffer toByteBuffer() {
+    return ByteBuffer.wrap(Arrays.copyOf(this.buffer, this.position));
+  }
+
+  void writeByte(final int value) {
+    this.ensureCapacity(1);
+    this.buffer[this.position++] = (byte) value;
+  }
+
+  void writeInt(final int value) {
+    this.ensureCapacity(4);
+    this.buffer[this.position++] = (byte) (value >>> 24);
+    this.buffer[this.position++] = (byte) (value >>> 16);
+    this.buffer[this.position++] = (byte) (value >>> 8);
+    this.buffer[this.position++] = (byte) value;
+  }
+
+  void writeLong(final long value) {
+    this.writeInt((int) (value >>> 32));
+    this.writeInt((int) value);
+  }
+
+  void writeVarInt(final int value) {
+    this.writeVarLong(value & 0xFFFFFFFFL);
+  }
+
+  void writeVarLong(final long value) {
+    this.ensureCapacity(10);
+    long remaining = value;
+    while ((remaining & ~0x7FL) != 0L) {
+      this.buffer[this.position++] = (byte) ((remaining & 0x7FL) | 0x80L);
+      remaining >>>= 7;
+    }
+    this.buffer[this.position++] = (byte) remaining;
+  }
+
+  void writeSignedVarLong(final long value) {
+    this.writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  void writeBytes(final byte[] value) {
+    this.writeVarInt(value.length);
+    this.ensureCapacity(value.length);
+    System.arraycopy(value, 0, this.buffer, this.position, value.length);
+    this.position += value.length;
+  }
+
+  void writeString(final String value) {
+    this.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void ensureCapacity(final int length) {
+    if (this.position + length > this.buffer.length) {
+      this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length << 1, this.position + length));
+    }
+  }
+}
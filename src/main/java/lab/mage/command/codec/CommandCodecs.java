@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.codec;
+
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.util.CommandConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+public class CommandCodecs {
+
+  private final Map<String, CommandCodec> commandCodecs = new HashMap<>();
+  private final CommandCodec commandCodec;
+
+  @Autowired
+  public CommandCodecs(final Environment environment, final List<CommandCodec> commandCodecs) {
+    super();
+    commandCodecs.forEach(commandCodec -> this.commandCodecs.put(commandCodec.getId(), commandCodec));
+    this.commandCodec = this.find(
+        environment.getProperty(
+            CommandConstants.JOURNAL_CODEC_PROP,
+            CommandConstants.JOURNAL_CODEC_DEFAULT));
+  }
+
+  public CommandCodec getCommandCodec() {
+    return this.commandCodec;
+  }
+
+  public CommandCodec find(final String codecId) {
+    final CommandCodec commandCodec = this.commandCodecs.get(codecId);
+    if (commandCodec == null) {
+      throw new IllegalArgumentException("Unknown command codec " + codecId + "!");
+    }
+    return commandCodec;
+  }
+
+  public Object decode(final CommandSource commandSource) {
+    if (commandSource.getCommandType() == null) {
+      throw new IllegalArgumentException("Command type of " + commandSource.getCommandSourceKey().getId() + " unknown!");
+    }
+    try {
+      return this.decode(commandSource,
+          ClassUtils.forName(commandSource.getCommandType(), ClassUtils.getDefaultClassLoader()));
+    } catch (final ClassNotFoundException cnfex) {
+      throw new IllegalArgumentException("Command type " + commandSource.getCommandType() + " not found!", cnfex);
+    }
+  }
+
+  public <C> C decode(final CommandSource commandSource, final Class<C> commandClass) {
+    if (commandSource.getPayload() == null) {
+      return ((GsonCommandCodec) this.find(GsonCommandCodec.ID)).decode(commandSource.getCommand(), commandClass);
+    }
+    return this.find(commandSource.getCodec()).decode(commandSource.getPayload(), commandClass);
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.codec;
+
+import com.google.gson.Gson;
+import lab.mage.command.util.CommandConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+@Component
+public class GsonCommandCodec implements CommandCodec {
+
+  public static final String ID = "gson";
+
+  private final Gson gson;
+
+  @Autowired
+  public GsonCommandCodec(@Qualifier(CommandConstants.COMMAND_SERIALIZER) final Gson gson) {
+    super();
+    this.gson = gson;
+  }
+
+  @Override
+  public String getId() {
+    return GsonCommandCodec.ID;
+  }
+
+  @Override
+  public ByteBuffer encode(final Object command) {
+    return ByteBuffer.wrap(this.gson.toJson(command).getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public <C> C decode(final ByteBuffer payload, final Class<C> commandClass) {
+    return this.decode(StandardCharsets.UTF_8.decode(payload.duplicate()).toString(), commandClass);
+  }
+
+  public <C> C decode(final String command, final Class<C> commandClass) {
+    return this.gson.fromJson(command, commandClass);
+  }
+}
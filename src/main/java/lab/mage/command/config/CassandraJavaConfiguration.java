@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.config;
+
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.internal.CommandHandlerRegistry;
+import lab.mage.command.internal.CommandSourceKeyGenerator;
+import lab.mage.command.journal.CassandraCommandJournal;
+import lab.mage.command.journal.CommandJournal;
+import lab.mage.command.journal.MappedCommandJournal;
+import lab.mage.command.replay.CommandArchiver;
+import lab.mage.command.replay.CommandRecovery;
+import lab.mage.command.replay.CommandReplayer;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.data.cassandra.config.CassandraClusterFactoryBean;
+import org.springframework.data.cassandra.config.java.AbstractCassandraConfiguration;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.mapping.BasicCassandraMappingContext;
+import org.springframework.data.cassandra.mapping.CassandraMappingContext;
+import org.springframework.data.cassandra.repository.config.EnableCassandraRepositories;
+
+@Configuration
+@Conditional(CassandraJournalCondition.class)
+@EnableCassandraRepositories(
+    basePackages = {
+        "lab.mage.command.repository"
+    }
+)
+public class CassandraJavaConfiguration extends AbstractCassandraConfiguration {
+
+  @Autowired
+  private Environment environment;
+
+  public CassandraJavaConfiguration() {
+    super();
+  }
+
+  @Override
+  protected String getKeyspaceName() {
+    return this.environment.getProperty(
+        CommandConstants.CASSANDRA_KEYSPACE_PROP,
+        CommandConstants.CASSANDRA_KEYSPACE_DEFAULT);
+  }
+
+  @Bean
+  public CassandraClusterFactoryBean cluster() {
+    final CassandraClusterFactoryBean cluster = new CassandraClusterFactoryBean();
+    cluster.setContactPoints(
+        this.environment.getProperty(
+            CommandConstants.CASSANDRA_CONTACT_POINTS_PROP,
+            CommandConstants.CASSANDRA_CONTACT_POINTS_DEFAULT));
+    cluster.setPort(Integer.valueOf(
+        this.environment.getProperty(
+            CommandConstants.CASSANDRA_PORT_PROP,
+            CommandConstants.CASSANDRA_PORT_DEFAULT)));
+    return cluster;
+  }
+
+  @Bean
+  public CassandraMappingContext cassandraMapping() {
+    return new BasicCassandraMappingContext();
+  }
+
+  @Bean
+  public CommandJournal commandJournal(@Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                                       final CassandraOperations cassandraOperations) {
+    final CassandraCommandJournal cassandraCommandJournal =
+        new CassandraCommandJournal(this.environment, logger, cassandraOperations.getSession());
+    if (CassandraJournalCondition.backendOf(this.environment) == CommandJournal.Backend.FILE) {
+      return new MappedCommandJournal(this.environment, logger, cassandraCommandJournal);
+    }
+    return cassandraCommandJournal;
+  }
+
+  @Bean
+  @Conditional(CommandRecoveryCondition.class)
+  public CommandRecovery commandRecovery(@Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                                         final CommandJournal commandJournal,
+                                         final CommandHandlerRegistry commandHandlerRegistry,
+                                         final CommandCodecs commandCodecs,
+                                         final CommandSourceKeyGenerator commandSourceKeyGenerator) {
+    return new CommandRecovery(this.environment, logger, (CassandraCommandJournal) commandJournal,
+        commandHandlerRegistry, commandCodecs, commandSourceKeyGenerator);
+  }
+
+  @Bean
+  @Conditional(CommandArchiveCondition.class)
+  public CommandArchiver commandArchiver(@Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                                         final CommandJournal commandJournal,
+                                         final CommandSourceKeyGenerator commandSourceKeyGenerator) {
+    return new CommandArchiver(this.environment, logger, (CassandraCommandJournal) commandJournal,
+        commandSourceKeyGenerator);
+  }
+
+  @Bean
+  public CommandReplayer commandReplayer(@Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                                         final CassandraOperations cassandraOperations,
+                                         final CommandHandlerRegistry commandHandlerRegistry,
+                                         final CommandCodecs commandCodecs,
+                                         final CommandSourceKeyGenerator commandSourceKeyGenerator) {
+    return new CommandReplayer(this.environment, logger, cassandraOperations, commandHandlerRegistry, commandCodecs,
+        commandSourceKeyGenerator);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.config;
+
+import lab.mage.command.journal.CommandJournal;
+import lab.mage.command.util.CommandConstants;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+public class CassandraJournalCondition implements Condition {
+
+  public CassandraJournalCondition() {
+    super();
+  }
+
+  @Override
+  public boolean matches(final ConditionContext context, final AnnotatedTypeMetadata metadata) {
+    return CassandraJournalCondition.isCassandraRequired(context.getEnvironment());
+  }
+
+  static boolean isCassandraRequired(final Environment environment) {
+    final CommandJournal.Backend backend = CassandraJournalCondition.backendOf(environment);
+    return backend == CommandJournal.Backend.CASSANDRA
+        || (backend == CommandJournal.Backend.FILE && CassandraJournalCondition.isForwarding(environment));
+  }
+
+  static boolean isForwarding(final Environment environment) {
+    return Boolean.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_FILE_FORWARD_PROP,
+            CommandConstants.JOURNAL_FILE_FORWARD_DEFAULT));
+  }
+
+  static CommandJournal.Backend backendOf(final Environment environment) {
+    return CommandJournal.Backend.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_BACKEND_PROP,
+            CommandConstants.JOURNAL_BACKEND_DEFAULT));
+  }
+}
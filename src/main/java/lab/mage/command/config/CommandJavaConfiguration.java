@@ -17,6 +17,12 @@ package lab.mage.command.config;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import lab.mage.command.internal.CommandExecutor;
+import lab.mage.command.internal.VirtualThreads;
+import lab.mage.command.journal.CommandJournal;
+import lab.mage.command.journal.InMemoryCommandJournal;
+import lab.mage.command.journal.MappedCommandJournal;
+import lab.mage.command.journal.NoOpCommandJournal;
 import lab.mage.command.util.CommandConstants;
 import org.apache.activemq.command.ActiveMQQueue;
 import org.apache.activemq.jms.pool.PooledConnectionFactory;
@@ -28,40 +34,35 @@ import org.springframework.aop.interceptor.SimpleAsyncUncaughtExceptionHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.core.env.Environment;
-import org.springframework.data.cassandra.config.CassandraClusterFactoryBean;
-import org.springframework.data.cassandra.config.java.AbstractCassandraConfiguration;
-import org.springframework.data.cassandra.mapping.BasicCassandraMappingContext;
-import org.springframework.data.cassandra.mapping.CassandraMappingContext;
-import org.springframework.data.cassandra.repository.config.EnableCassandraRepositories;
 import org.springframework.jms.annotation.EnableJms;
 import org.springframework.jms.config.DefaultJmsListenerContainerFactory;
 import org.springframework.jms.config.JmsListenerContainerFactory;
 import org.springframework.jms.core.JmsTemplate;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
 import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 @Configuration
 @EnableAsync
 @EnableJms
-@EnableCassandraRepositories(
-    basePackages = {
-        "lab.mage.command.repository"
-    }
-)
+@Import({CassandraJavaConfiguration.class})
 @ComponentScan(
     basePackages = {
+        "lab.mage.command.codec",
         "lab.mage.command.gateway",
         "lab.mage.command.internal",
-        "lab.mage.command.repository",
+        "lab.mage.command.metrics",
+        "lab.mage.command.remote",
         "lab.mage.command.domain"
     }
 )
-public class CommandJavaConfiguration extends AbstractCassandraConfiguration implements AsyncConfigurer {
+public class CommandJavaConfiguration implements AsyncConfigurer {
 
   @Autowired
   private Environment environment;
@@ -118,51 +119,72 @@ public class CommandJavaConfiguration extends AbstractCassandraConfiguration imp
     return jmsTemplate;
   }
 
-  @Override
-  protected String getKeyspaceName() {
-    return this.environment.getProperty(
-        CommandConstants.CASSANDRA_KEYSPACE_PROP,
-        CommandConstants.CASSANDRA_KEYSPACE_DEFAULT);
+  @Bean
+  @Conditional(LocalJournalCondition.class)
+  public CommandJournal commandJournal() {
+    switch (CassandraJournalCondition.backendOf(this.environment)) {
+      case FILE:
+        return new MappedCommandJournal(this.environment, this.logger(), null);
+      case MEMORY:
+        return new InMemoryCommandJournal(Integer.valueOf(
+            this.environment.getProperty(
+                CommandConstants.JOURNAL_MEMORY_CAPACITY_PROP,
+                CommandConstants.JOURNAL_MEMORY_CAPACITY_DEFAULT)));
+      default:
+        return new NoOpCommandJournal();
+    }
   }
 
   @Bean
-  public CassandraClusterFactoryBean cluster() {
-    final CassandraClusterFactoryBean cluster = new CassandraClusterFactoryBean();
-    cluster.setContactPoints(
+  public CommandExecutor commandExecutor() {
+    final CommandExecutor.RejectionPolicy rejectionPolicy = CommandExecutor.RejectionPolicy.valueOf(
         this.environment.getProperty(
-            CommandConstants.CASSANDRA_CONTACT_POINTS_PROP,
-            CommandConstants.CASSANDRA_CONTACT_POINTS_DEFAULT));
-    cluster.setPort(Integer.valueOf(
+            CommandConstants.EXECUTOR_REJECTION_POLICY_PROP,
+            CommandConstants.EXECUTOR_REJECTION_POLICY_DEFAULT));
+    final long blockTimeoutMillis = Long.valueOf(
         this.environment.getProperty(
-            CommandConstants.CASSANDRA_PORT_PROP,
-            CommandConstants.CASSANDRA_PORT_DEFAULT)));
-    return cluster;
-  }
+            CommandConstants.EXECUTOR_BLOCK_TIMEOUT_MILLIS_PROP,
+            CommandConstants.EXECUTOR_BLOCK_TIMEOUT_MILLIS_DEFAULT));
+    final int lanes = Integer.valueOf(
+        this.environment.getProperty(
+            CommandConstants.EXECUTOR_LANES_PROP,
+            CommandConstants.EXECUTOR_LANES_DEFAULT));
 
-  @Bean
-  public CassandraMappingContext cassandraMapping() {
-    return new BasicCassandraMappingContext();
-  }
+    final CommandExecutor.Mode mode = CommandExecutor.Mode.valueOf(
+        this.environment.getProperty(
+            CommandConstants.EXECUTOR_MODE_PROP,
+            CommandConstants.EXECUTOR_MODE_DEFAULT));
+    if (mode == CommandExecutor.Mode.VIRTUAL) {
+      final ExecutorService virtualThreadExecutor =
+          VirtualThreads.newThreadPerTaskExecutor(CommandConstants.EXECUTOR_PREFIX);
+      if (virtualThreadExecutor != null) {
+        return new CommandExecutor(
+            virtualThreadExecutor,
+            Integer.valueOf(this.environment.getProperty(
+                CommandConstants.EXECUTOR_VIRTUAL_MAX_CONCURRENCY_PROP,
+                CommandConstants.EXECUTOR_VIRTUAL_MAX_CONCURRENCY_DEFAULT)),
+            rejectionPolicy, blockTimeoutMillis, lanes);
+      }
+      this.logger().warn("Virtual threads not supported by this JVM, falling back to platform threads.");
+    }
 
-  @Override
-  public Executor getAsyncExecutor() {
-    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-    executor.setCorePoolSize(
+    return new CommandExecutor(
+        CommandConstants.EXECUTOR_PREFIX,
         Integer.valueOf(this.environment.getProperty(
             CommandConstants.EXECUTOR_CORE_POOL_SIZE_PROP,
-            CommandConstants.EXECUTOR_CORE_POOL_SIZE_DEFAULT)));
-    executor.setMaxPoolSize(
+            CommandConstants.EXECUTOR_CORE_POOL_SIZE_DEFAULT)),
         Integer.valueOf(this.environment.getProperty(
             CommandConstants.EXECUTOR_MAX_POOL_SIZE_PROP,
-            CommandConstants.EXECUTOR_MAX_POOL_SIZE_DEFAULT)));
-    executor.setQueueCapacity(
+            CommandConstants.EXECUTOR_MAX_POOL_SIZE_DEFAULT)),
         Integer.valueOf(this.environment.getProperty(
             CommandConstants.EXECUTOR_QUEUE_CAPACITY_PROP,
-            CommandConstants.EXECUTOR_QUEUE_CAPACITY_DEFAULT
-        )));
-    executor.setThreadNamePrefix(CommandConstants.EXECUTOR_PREFIX);
-    executor.initialize();
-    return executor;
+            CommandConstants.EXECUTOR_QUEUE_CAPACITY_DEFAULT)),
+        rejectionPolicy, blockTimeoutMillis, lanes);
+  }
+
+  @Override
+  public Executor getAsyncExecutor() {
+    return this.commandExecutor();
   }
 
   @Override
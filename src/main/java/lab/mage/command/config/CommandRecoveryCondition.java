@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.config;
+
+import lab.mage.command.journal.CommandJournal;
+import lab.mage.command.util.CommandConstants;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+public class CommandRecoveryCondition implements Condition {
+
+  public CommandRecoveryCondition() {
+    super();
+  }
+
+  @Override
+  public boolean matches(final ConditionContext context, final AnnotatedTypeMetadata metadata) {
+    return CassandraJournalCondition.backendOf(context.getEnvironment()) == CommandJournal.Backend.CASSANDRA
+        && Boolean.valueOf(
+        context.getEnvironment().getProperty(
+            CommandConstants.JOURNAL_RECOVERY_ENABLED_PROP,
+            CommandConstants.JOURNAL_RECOVERY_ENABLED_DEFAULT));
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.domain;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public final class CommandBatchResult<T> {
+
+  private final List<T> results;
+  private final Map<Integer, Throwable> failures;
+
+  public CommandBatchResult(final List<T> results, final Map<Integer, Throwable> failures) {
+    super();
+    this.results = Collections.unmodifiableList(results);
+    this.failures = Collections.unmodifiableMap(failures);
+  }
+
+  public int size() {
+    return this.results.size();
+  }
+
+  public List<T> getResults() {
+    return this.results;
+  }
+
+  public Map<Integer, Throwable> getFailures() {
+    return this.failures;
+  }
+
+  public boolean hasFailures() {
+    return !this.failures.isEmpty();
+  }
+}
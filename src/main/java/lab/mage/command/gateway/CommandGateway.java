@@ -15,6 +15,7 @@
  */
 package lab.mage.command.gateway;
 
+import lab.mage.command.domain.CommandBatchResult;
 import lab.mage.command.domain.CommandCallback;
 import lab.mage.command.domain.CommandProcessingException;
 import lab.mage.command.internal.CommandBus;
@@ -24,6 +25,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
 @Component
 public final class CommandGateway {
 
@@ -43,8 +49,33 @@ public final class CommandGateway {
     this.commandBus.dispatch(command);
   }
 
+  public <C> boolean tryProcess(final C command, final long timeout, final TimeUnit unit) {
+    this.logger.debug("CommandGateway::try-process-async called for {}.", command.getClass().getSimpleName());
+    return this.commandBus.tryDispatch(command, timeout, unit);
+  }
+
   public <C, T> CommandCallback<T> process(final C command, Class<T> clazz) throws CommandProcessingException {
     this.logger.debug("CommandGateway::process-sync called for {}.", command.getClass().getSimpleName());
     return new CommandCallback<>(this.commandBus.dispatch(command, clazz));
   }
+
+  public <C, T> Optional<CommandCallback<T>> tryProcess(final C command, final Class<T> clazz,
+                                                        final long timeout, final TimeUnit unit) {
+    this.logger.debug("CommandGateway::try-process-sync called for {}.", command.getClass().getSimpleName());
+    return Optional.ofNullable(this.commandBus.tryDispatch(command, clazz, timeout, unit)).map(CommandCallback::new);
+  }
+
+  public <C, T> CompletionStage<T> processAsync(final C command, final Class<T> clazz) {
+    this.logger.debug("CommandGateway::process-completable called for {}.", command.getClass().getSimpleName());
+    return this.commandBus.dispatch(command, clazz);
+  }
+
+  public <C> CompletionStage<CommandBatchResult<Object>> processAll(final Collection<C> commands) {
+    return this.processAll(commands, Object.class);
+  }
+
+  public <C, T> CompletionStage<CommandBatchResult<T>> processAll(final Collection<C> commands, final Class<T> clazz) {
+    this.logger.debug("CommandGateway::process-all called for {} commands.", commands.size());
+    return this.commandBus.dispatchAll(commands, clazz);
+  }
 }
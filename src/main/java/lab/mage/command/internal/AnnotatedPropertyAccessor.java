@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+final class AnnotatedPropertyAccessor {
+
+  private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  private final MethodHandle accessor;
+
+  private AnnotatedPropertyAccessor(final MethodHandle accessor) {
+    super();
+    this.accessor = accessor;
+  }
+
+  static AnnotatedPropertyAccessor find(final Class<?> type, final Class<? extends Annotation> annotation) {
+    try {
+      for (Class<?> candidate = type; candidate != null && candidate != Object.class; candidate = candidate.getSuperclass()) {
+        for (final Field field : candidate.getDeclaredFields()) {
+          if (field.isAnnotationPresent(annotation) && !Modifier.isStatic(field.getModifiers())) {
+            ReflectionUtils.makeAccessible(field);
+            return new AnnotatedPropertyAccessor(
+                MethodHandles.lookup().unreflectGetter(field).asType(AnnotatedPropertyAccessor.ACCESSOR_TYPE));
+          }
+        }
+        for (final Method method : candidate.getDeclaredMethods()) {
+          if (method.isAnnotationPresent(annotation)
+              && method.getParameterCount() == 0
+              && method.getReturnType() != Void.TYPE
+              && !Modifier.isStatic(method.getModifiers())) {
+            ReflectionUtils.makeAccessible(method);
+            return new AnnotatedPropertyAccessor(
+                MethodHandles.lookup().unreflect(method).asType(AnnotatedPropertyAccessor.ACCESSOR_TYPE));
+          }
+        }
+      }
+      return null;
+    } catch (final IllegalAccessException iaex) {
+      throw new IllegalArgumentException("@" + annotation.getSimpleName() + " of " + type.getSimpleName()
+          + " not accessible!", iaex);
+    }
+  }
+
+  Object get(final Object target) {
+    try {
+      return this.accessor.invokeExact(target);
+    } catch (final RuntimeException | Error ex) {
+      throw ex;
+    } catch (final Throwable th) {
+      throw new IllegalStateException(th.getMessage(), th);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+public enum BucketGranularity {
+
+  HOUR(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH"), ChronoUnit.HOURS),
+  DAY(DateTimeFormatter.ISO_LOCAL_DATE, ChronoUnit.DAYS);
+
+  private final DateTimeFormatter formatter;
+  private final ChronoUnit unit;
+
+  BucketGranularity(final DateTimeFormatter formatter, final ChronoUnit unit) {
+    this.formatter = formatter;
+    this.unit = unit;
+  }
+
+  public String bucketOf(final LocalDateTime dateTime) {
+    return dateTime.format(this.formatter);
+  }
+
+  public LocalDateTime truncate(final LocalDateTime dateTime) {
+    return dateTime.truncatedTo(this.unit);
+  }
+
+  public LocalDateTime next(final LocalDateTime dateTime) {
+    return this.truncate(dateTime).plus(1L, this.unit);
+  }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import lab.mage.command.annotation.Durability;
+import lab.mage.command.domain.CommandProcessingException;
+import lab.mage.command.journal.CommandJournal;
+import lab.mage.command.metrics.CommandTypeMetrics;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+// Spreads a batch over lanes, every lane runs on one executor thread and walks its commands in
+// chunks: one partition-grouped journal append, the handlers in order and one status update for the
+// chunk. Commands with a routing key are grouped by the executor lane of their key and run on that
+// lane, so they keep their order against single dispatches for the same key; commands without one
+// are spread over a bounded number of unkeyed lanes.
+@Component
+public class CommandBatchDispatcher {
+
+  private final Logger logger;
+  private final CommandJournal commandJournal;
+  private final CommandSourceFactory commandSourceFactory;
+  private final CommandExecutor commandExecutor;
+  private final CommandDeduplicator commandDeduplicator;
+  private final int parallelism;
+  private final int batchSize;
+
+  @Autowired
+  public CommandBatchDispatcher(final Environment environment,
+                                @Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                                final CommandJournal commandJournal,
+                                final CommandSourceFactory commandSourceFactory,
+                                final CommandExecutor commandExecutor,
+                                final CommandDeduplicator commandDeduplicator) {
+    super();
+    this.logger = logger;
+    this.commandJournal = commandJournal;
+    this.commandSourceFactory = commandSourceFactory;
+    this.commandExecutor = commandExecutor;
+    this.commandDeduplicator = commandDeduplicator;
+    this.parallelism = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.BATCH_PARALLELISM_PROP,
+            CommandConstants.BATCH_PARALLELISM_DEFAULT));
+    this.batchSize = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_BATCH_SIZE_PROP,
+            CommandConstants.JOURNAL_BATCH_SIZE_DEFAULT));
+  }
+
+  void dispatch(final List<BatchedCommand> batchedCommands, final Class<?> resultClass) {
+    final int laneCount = Math.max(1, Math.min(this.parallelism, batchedCommands.size()));
+    final List<List<BatchedCommand>> lanes = new ArrayList<>(laneCount);
+    for (int i = 0; i < laneCount; i++) {
+      lanes.add(new ArrayList<>());
+    }
+    final Map<Integer, List<BatchedCommand>> keyedLanes = new LinkedHashMap<>();
+    int unkeyed = 0;
+    for (final BatchedCommand batchedCommand : batchedCommands) {
+      if (batchedCommand.routingKey != null) {
+        keyedLanes.computeIfAbsent(this.commandExecutor.laneIndexOf(batchedCommand.routingKey),
+            laneIndex -> new ArrayList<>()).add(batchedCommand);
+      } else {
+        lanes.get(unkeyed++ % laneCount).add(batchedCommand);
+      }
+    }
+
+    for (final List<BatchedCommand> lane : keyedLanes.values()) {
+      this.execute(lane, () -> this.commandExecutor.execute(lane.get(0).routingKey,
+          () -> this.process(lane, resultClass)));
+    }
+    for (final List<BatchedCommand> lane : lanes) {
+      if (!lane.isEmpty()) {
+        this.execute(lane, () -> this.commandExecutor.execute(() -> this.process(lane, resultClass)));
+      }
+    }
+  }
+
+  private void execute(final List<BatchedCommand> lane, final Runnable submission) {
+    try {
+      submission.run();
+    } catch (final RejectedExecutionException rex) {
+      lane.forEach(batchedCommand -> {
+        batchedCommand.rejected = true;
+        batchedCommand.fail(rex);
+      });
+    }
+  }
+
+  private void process(final List<BatchedCommand> lane, final Class<?> resultClass) {
+    try {
+      for (int from = 0; from < lane.size(); from += this.batchSize) {
+        this.process(lane.subList(from, Math.min(lane.size(), from + this.batchSize)), resultClass, from);
+      }
+    } catch (final Throwable th) {
+      this.logger.error(th.getMessage(), th);
+      lane.forEach(batchedCommand -> batchedCommand.fail(th));
+    }
+  }
+
+  private void process(final List<BatchedCommand> chunk, final Class<?> resultClass, final int offset) {
+    this.logger.debug("CommandBatchDispatcher::process called for {} commands at {}.", chunk.size(), offset);
+    final List<BatchedCommand> journaled = new ArrayList<>(chunk.size());
+    final List<CommandSource> commandSources = new ArrayList<>(chunk.size());
+    final List<BatchedCommand> deferring = new ArrayList<>();
+    final List<CommandSource> deferred = new ArrayList<>();
+    for (final BatchedCommand batchedCommand : chunk) {
+      if (this.commandDeduplicator.replay(batchedCommand.commandDescriptor.commandIdOf(batchedCommand.command),
+          batchedCommand.result)) {
+        continue;
+      }
+      final Durability.Level durability = batchedCommand.commandDescriptor.getDurability();
+      if (durability == Durability.Level.NONE) {
+        continue;
+      }
+      try {
+        batchedCommand.commandSource = this.commandSourceFactory.create(batchedCommand.command,
+            batchedCommand.routingKey);
+        if (durability == Durability.Level.ASYNC) {
+          deferring.add(batchedCommand);
+          deferred.add(batchedCommand.commandSource);
+        } else {
+          journaled.add(batchedCommand);
+          commandSources.add(batchedCommand.commandSource);
+        }
+      } catch (final Throwable th) {
+        batchedCommand.commandTypeMetrics().failed();
+        batchedCommand.fail(th);
+      }
+    }
+
+    final long started = System.nanoTime();
+    if (!deferred.isEmpty()) {
+      final CompletableFuture<Void> appended = this.appendDeferred(deferring, deferred, started);
+      deferring.forEach(batchedCommand -> batchedCommand.appended = appended);
+    }
+    if (!journaled.isEmpty()) {
+      try {
+        this.commandJournal.appendAll(commandSources).join();
+        final long journalNanos = System.nanoTime() - started;
+        journaled.forEach(batchedCommand -> batchedCommand.commandTypeMetrics().recordJournal(journalNanos));
+      } catch (final Throwable th) {
+        this.logger.error(th.getMessage(), th);
+        journaled.forEach(batchedCommand -> {
+          batchedCommand.commandTypeMetrics().failed();
+          batchedCommand.fail(th);
+        });
+      }
+    }
+
+    final List<BatchedCommand> handled = new ArrayList<>(chunk.size());
+    final List<BatchedCommand> processed = new ArrayList<>(journaled.size());
+    final List<BatchedCommand> processedDeferred = new ArrayList<>(deferring.size());
+    for (final BatchedCommand batchedCommand : chunk) {
+      if (batchedCommand.result.isDone()) {
+        continue;
+      }
+      final CommandTypeMetrics commandTypeMetrics = batchedCommand.commandTypeMetrics();
+      final long invoked = System.nanoTime();
+      try {
+        batchedCommand.outcome = batchedCommand.commandDescriptor.getCommandHandler().invoke(batchedCommand.command);
+        commandTypeMetrics.recordHandler(System.nanoTime() - invoked);
+        handled.add(batchedCommand);
+        if (batchedCommand.commandSource != null) {
+          (batchedCommand.appended != null ? processedDeferred : processed).add(batchedCommand);
+        }
+      } catch (final Throwable th) {
+        final long failed = System.nanoTime();
+        commandTypeMetrics.recordHandler(failed - invoked);
+        commandTypeMetrics.failed();
+        this.logger.error(th.getMessage(), th);
+        batchedCommand.fail(th);
+        if (batchedCommand.commandSource != null) {
+          final CompletableFuture<Void> status = batchedCommand.appended != null
+              ? batchedCommand.appended.thenCompose(ignored -> this.markFailed(batchedCommand, th))
+              : this.markFailed(batchedCommand, th);
+          this.track(status, failed, Collections.singletonList(batchedCommand));
+        }
+      }
+    }
+
+    if (handled.isEmpty()) {
+      return;
+    }
+    final long updated = System.nanoTime();
+    if (!processed.isEmpty()) {
+      this.track(this.markProcessed(processed), updated, processed);
+    }
+    if (!processedDeferred.isEmpty()) {
+      this.track(processedDeferred.get(0).appended.thenCompose(ignored -> this.markProcessed(processedDeferred)),
+          updated, processedDeferred);
+    }
+    // the handler succeeded and its status is on the way, a result of the wrong type only fails the caller
+    for (final BatchedCommand batchedCommand : handled) {
+      batchedCommand.commandTypeMetrics().succeeded();
+      batchedCommand.complete(resultClass);
+    }
+  }
+
+  // ASYNC commands are handed to their handlers without waiting for the append to land
+  private CompletableFuture<Void> appendDeferred(final List<BatchedCommand> deferring,
+                                                 final List<CommandSource> deferred, final long started) {
+    CompletableFuture<Void> appended;
+    try {
+      appended = this.commandJournal.appendAll(deferred);
+    } catch (final Throwable th) {
+      appended = new CompletableFuture<>();
+      appended.completeExceptionally(th);
+    }
+    return appended.whenComplete((ignored, th) -> {
+      final long journalNanos = System.nanoTime() - started;
+      deferring.forEach(batchedCommand -> batchedCommand.commandTypeMetrics().recordJournal(journalNanos));
+      if (th != null) {
+        this.logger.error("Could not journal {} command sources: {}", deferred.size(), th.getMessage());
+      }
+    });
+  }
+
+  private CompletableFuture<Void> markProcessed(final List<BatchedCommand> batchedCommands) {
+    final List<CommandSourceKey> commandSourceKeys = new ArrayList<>(batchedCommands.size());
+    batchedCommands.forEach(batchedCommand -> commandSourceKeys.add(batchedCommand.commandSource.getCommandSourceKey()));
+    try {
+      return this.commandJournal.markProcessedAll(commandSourceKeys);
+    } catch (final Throwable th) {
+      final CompletableFuture<Void> status = new CompletableFuture<>();
+      status.completeExceptionally(th);
+      return status;
+    }
+  }
+
+  private CompletableFuture<Void> markFailed(final BatchedCommand batchedCommand, final Throwable th) {
+    try {
+      return this.commandJournal.markFailed(batchedCommand.commandSource, th.getMessage());
+    } catch (final Throwable mfth) {
+      final CompletableFuture<Void> status = new CompletableFuture<>();
+      status.completeExceptionally(mfth);
+      return status;
+    }
+  }
+
+  // status updates are not awaited, the lane moves on to its next chunk while they are in flight
+  private void track(final CompletableFuture<Void> status, final long started, final List<BatchedCommand> batchedCommands) {
+    status.whenComplete((ignored, th) -> {
+      final long statusNanos = System.nanoTime() - started;
+      batchedCommands.forEach(batchedCommand -> batchedCommand.commandTypeMetrics().recordStatus(statusNanos));
+      if (th != null) {
+        this.logger.error(th.getMessage(), th);
+      }
+    });
+  }
+
+  static final class BatchedCommand {
+
+    private final CommandDescriptor commandDescriptor;
+    private final Object command;
+    private final Object routingKey;
+    private final CompletableFuture<Object> result;
+    private CommandSource commandSource;
+    private CompletableFuture<Void> appended;
+    private Object outcome;
+    private boolean rejected;
+
+    BatchedCommand(final CommandDescriptor commandDescriptor, final Object command, final Object routingKey,
+                   final CompletableFuture<Object> result) {
+      super();
+      this.commandDescriptor = commandDescriptor;
+      this.command = command;
+      this.routingKey = routingKey;
+      this.result = result;
+    }
+
+    CompletableFuture<Object> result() {
+      return this.result;
+    }
+
+    boolean isRejected() {
+      return this.rejected;
+    }
+
+    private CommandTypeMetrics commandTypeMetrics() {
+      return this.commandDescriptor.getCommandTypeMetrics();
+    }
+
+    private void complete(final Class<?> resultClass) {
+      try {
+        this.result.complete(resultClass.cast(this.outcome));
+      } catch (final ClassCastException ccex) {
+        this.fail(ccex);
+      }
+    }
+
+    private void fail(final Throwable th) {
+      this.result.completeExceptionally(new CommandProcessingException(th.getMessage(), th));
+    }
+  }
+}
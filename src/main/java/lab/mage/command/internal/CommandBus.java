@@ -15,159 +15,429 @@
  */
 package lab.mage.command.internal;
 
-import com.google.gson.Gson;
-import lab.mage.command.annotation.Aggregate;
-import lab.mage.command.annotation.CommandHandler;
+import lab.mage.command.annotation.Durability;
+import lab.mage.command.domain.CommandBatchResult;
 import lab.mage.command.domain.CommandProcessingException;
+import lab.mage.command.internal.CommandBatchDispatcher.BatchedCommand;
+import lab.mage.command.journal.CommandJournal;
+import lab.mage.command.metrics.CommandTypeMetrics;
+import lab.mage.command.remote.RemoteCommandPublisher;
 import lab.mage.command.repository.CommandSource;
-import lab.mage.command.repository.CommandSourceKey;
-import lab.mage.command.repository.CommandSourceRepository;
 import lab.mage.command.util.CommandConstants;
 import org.slf4j.Logger;
-import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.ApplicationContextAware;
-import org.springframework.core.env.Environment;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Component;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Component
-public class CommandBus implements ApplicationContextAware {
+public class CommandBus {
 
-  private final Environment environment;
   private final Logger logger;
-  private final Gson gson;
-  private final CommandSourceRepository commandSourceRepository;
-  private final ConcurrentHashMap<Class, Method> cachedCommandHandlers = new ConcurrentHashMap<>();
-  private ApplicationContext applicationContext;
+  private final CommandJournal commandJournal;
+  private final CommandSourceFactory commandSourceFactory;
+  private final CommandHandlerRegistry commandHandlerRegistry;
+  private final CommandExecutor commandExecutor;
+  private final CommandPipeline commandPipeline;
+  private final CommandDeduplicator commandDeduplicator;
+  private final CommandBatchDispatcher commandBatchDispatcher;
+  private final RemoteCommandPublisher remoteCommandPublisher;
 
   @Autowired
-  public CommandBus(final Environment environment,
-                    @Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
-                    @Qualifier(CommandConstants.COMMAND_SERIALIZER) final Gson gson,
-                    final CommandSourceRepository commandSourceRepository) {
+  public CommandBus(@Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                    final CommandJournal commandJournal,
+                    final CommandSourceFactory commandSourceFactory,
+                    final CommandHandlerRegistry commandHandlerRegistry,
+                    final CommandExecutor commandExecutor,
+                    final CommandPipeline commandPipeline,
+                    final CommandDeduplicator commandDeduplicator,
+                    final CommandBatchDispatcher commandBatchDispatcher,
+                    final Optional<RemoteCommandPublisher> remoteCommandPublisher) {
     super();
-    this.environment = environment;
     this.logger = logger;
-    this.gson = gson;
-    this.commandSourceRepository = commandSourceRepository;
+    this.commandJournal = commandJournal;
+    this.commandSourceFactory = commandSourceFactory;
+    this.commandHandlerRegistry = commandHandlerRegistry;
+    this.commandExecutor = commandExecutor;
+    this.commandPipeline = commandPipeline;
+    this.commandDeduplicator = commandDeduplicator;
+    this.commandBatchDispatcher = commandBatchDispatcher;
+    this.remoteCommandPublisher = remoteCommandPublisher.filter(RemoteCommandPublisher::isEnabled).orElse(null);
   }
 
-  @Async
   public <C> void dispatch(final C command) {
     this.logger.debug("CommandBus::dispatch-async called.");
-    final CommandSourceKey commandSourceKey = this.storeCommand(command);
-    try {
-      final Method commandHandler = this.findCommandHandler(command);
-      final Object aggregate = this.applicationContext.getBean(commandHandler.getDeclaringClass());
-      commandHandler.invoke(aggregate, command);
-      this.updateCommandSource(commandSourceKey, null);
-    } catch (final Throwable th) {
-      this.handle(th, commandSourceKey);
+    if (this.remoteCommandPublisher != null) {
+      this.remoteCommandPublisher.publish(command, this.routingKeyOf(command));
+      return;
+    }
+    final CommandDescriptor commandDescriptor = this.commandHandlerRegistry.find(command.getClass());
+    commandDescriptor.getCommandTypeMetrics().dispatched();
+    final Object routingKey = commandDescriptor.routingKeyOf(command);
+    final Object commandId = commandDescriptor.commandIdOf(command);
+    if (commandId != null) {
+      final CompletableFuture<Object> result = new CompletableFuture<>();
+      if (this.commandDeduplicator.accept(commandId, result) == null) {
+        try {
+          this.submit(commandDescriptor, command, routingKey, Object.class, result, null);
+        } catch (final RejectedExecutionException rex) {
+          this.commandDeduplicator.release(commandId, result);
+          throw rex;
+        }
+        this.record(commandId, result);
+      }
+    } else if (this.commandPipeline.isEnabled()) {
+      this.commandPipeline.publish(commandDescriptor, command, routingKey, Object.class, null, null);
+    } else if (routingKey != null) {
+      this.commandExecutor.execute(routingKey, this.task(commandDescriptor, command, routingKey));
+    } else {
+      this.commandExecutor.execute(this.task(commandDescriptor, command, null));
+    }
+  }
+
+  public <C> boolean tryDispatch(final C command, final long timeout, final TimeUnit unit) {
+    this.logger.debug("CommandBus::try-dispatch-async called.");
+    if (this.remoteCommandPublisher != null) {
+      this.remoteCommandPublisher.publish(command, this.routingKeyOf(command));
+      return true;
+    }
+    final CommandDescriptor commandDescriptor = this.commandHandlerRegistry.find(command.getClass());
+    commandDescriptor.getCommandTypeMetrics().dispatched();
+    final Object routingKey = commandDescriptor.routingKeyOf(command);
+    final Object commandId = commandDescriptor.commandIdOf(command);
+    if (commandId != null) {
+      final CompletableFuture<Object> result = new CompletableFuture<>();
+      if (this.commandDeduplicator.accept(commandId, result) != null) {
+        return true;
+      }
+      if (!this.trySubmit(commandDescriptor, command, routingKey, Object.class, result, timeout, unit)) {
+        this.commandDeduplicator.release(commandId, result);
+        return false;
+      }
+      this.record(commandId, result);
+      return true;
+    } else if (this.commandPipeline.isEnabled()) {
+      return this.commandPipeline.tryPublish(commandDescriptor, command, routingKey, Object.class, null, null,
+          timeout, unit);
+    } else if (routingKey != null) {
+      return this.commandExecutor.tryExecute(routingKey, this.task(commandDescriptor, command, routingKey),
+          timeout, unit);
+    } else {
+      return this.commandExecutor.tryExecute(this.task(commandDescriptor, command, null), timeout, unit);
     }
   }
 
-  @Async
-  public <C, T> Future<T> dispatch(final C command, final Class<T> clazz) throws CommandProcessingException {
+  public <C, T> CompletableFuture<T> dispatch(final C command, final Class<T> clazz) {
     this.logger.debug("CommandBus::dispatch-sync called.");
-    final CommandSourceKey commandSourceKey = this.storeCommand(command);
+    if (this.remoteCommandPublisher != null) {
+      return this.remoteCommandPublisher.publish(command, this.routingKeyOf(command), clazz);
+    }
+    return this.dispatchLocally(command, clazz);
+  }
+
+  public <C, T> CompletableFuture<T> dispatchLocally(final C command, final Class<T> clazz) {
+    return this.dispatchLocally(command, clazz, null);
+  }
+
+  // journaled completes once the command is journaled as its durability asks for, or needs no journal
+  // because it is a duplicate; a command failing before that completes its result instead
+  public <C, T> CompletableFuture<T> dispatchLocally(final C command, final Class<T> clazz,
+                                                     final CompletableFuture<Void> journaled) {
+    final CommandDescriptor commandDescriptor = this.commandHandlerRegistry.find(command.getClass());
+    commandDescriptor.getCommandTypeMetrics().dispatched();
+    final Object routingKey = commandDescriptor.routingKeyOf(command);
+    final Object commandId = commandDescriptor.commandIdOf(command);
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    if (commandId != null) {
+      final CompletableFuture<?> accepted = this.commandDeduplicator.accept(commandId, result);
+      if (accepted != null) {
+        if (journaled != null) {
+          journaled.complete(null);
+        }
+        return accepted.thenApply(clazz::cast);
+      }
+    }
     try {
-      final Method commandHandler = this.findCommandHandler(command);
-      final Object aggregate = this.applicationContext.getBean(commandHandler.getDeclaringClass());
-      final T result = clazz.cast(commandHandler.invoke(aggregate, command));
-      this.updateCommandSource(commandSourceKey, null);
-      return new AsyncResult<>(result);
-    } catch (final Throwable th) {
-      throw this.handle(th, commandSourceKey);
-    }
-  }
-
-  private <C> Method findCommandHandler(final C command) {
-    this.logger.debug("CommandBus::findCommandHandler called for {}.", command.getClass().getSimpleName());
-    final Class<?> commandClass = command.getClass();
-    this.cachedCommandHandlers.computeIfAbsent(commandClass, findHandler -> {
-      final Map<String, Object> aggregates = this.applicationContext.getBeansWithAnnotation(Aggregate.class);
-      for (Object aggregate : aggregates.values()) {
-        final Method[] methods = aggregate.getClass().getDeclaredMethods();
-        for (final Method method : methods) {
-          if (method.isAnnotationPresent(CommandHandler.class)
-              && method.getParameterCount() == 1
-              && method.getParameterTypes()[0].isAssignableFrom(commandClass)) {
-            this.logger.debug("CommandBus::findCommandHandler added method for {}.",commandClass.getSimpleName());
-            return method;
-          }
+      this.submit(commandDescriptor, command, routingKey, clazz, result, journaled);
+    } catch (final RejectedExecutionException rex) {
+      if (commandId != null) {
+        this.commandDeduplicator.release(commandId, result);
+      }
+      result.completeExceptionally(new CommandProcessingException(rex.getMessage(), rex));
+      return result;
+    }
+    if (commandId != null) {
+      this.record(commandId, result);
+    }
+    return result;
+  }
+
+  public <C, T> CompletableFuture<T> tryDispatch(final C command, final Class<T> clazz,
+                                                 final long timeout, final TimeUnit unit) {
+    this.logger.debug("CommandBus::try-dispatch-sync called.");
+    if (this.remoteCommandPublisher != null) {
+      return this.remoteCommandPublisher.publish(command, this.routingKeyOf(command), clazz);
+    }
+    final CommandDescriptor commandDescriptor = this.commandHandlerRegistry.find(command.getClass());
+    commandDescriptor.getCommandTypeMetrics().dispatched();
+    final Object routingKey = commandDescriptor.routingKeyOf(command);
+    final Object commandId = commandDescriptor.commandIdOf(command);
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    if (commandId != null) {
+      final CompletableFuture<?> accepted = this.commandDeduplicator.accept(commandId, result);
+      if (accepted != null) {
+        return accepted.thenApply(clazz::cast);
+      }
+    }
+    if (!this.trySubmit(commandDescriptor, command, routingKey, clazz, result, timeout, unit)) {
+      if (commandId != null) {
+        this.commandDeduplicator.release(commandId, result);
+      }
+      return null;
+    }
+    if (commandId != null) {
+      this.record(commandId, result);
+    }
+    return result;
+  }
+
+  public <C, T> CompletableFuture<CommandBatchResult<T>> dispatchAll(final Collection<C> commands,
+                                                                     final Class<T> clazz) {
+    this.logger.debug("CommandBus::dispatch-all called for {} commands.", commands.size());
+    final List<CompletableFuture<?>> results = new ArrayList<>(commands.size());
+    final List<BatchedCommand> batchedCommands = new ArrayList<>(commands.size());
+    final Map<BatchedCommand, Object> commandIds = new IdentityHashMap<>();
+    for (final C command : commands) {
+      if (this.remoteCommandPublisher != null) {
+        results.add(this.remoteCommandPublisher.publish(command, this.routingKeyOf(command), clazz));
+        continue;
+      }
+      final CommandDescriptor commandDescriptor = this.commandHandlerRegistry.find(command.getClass());
+      commandDescriptor.getCommandTypeMetrics().dispatched();
+      final Object commandId = commandDescriptor.commandIdOf(command);
+      final CompletableFuture<Object> result = new CompletableFuture<>();
+      if (commandId != null) {
+        final CompletableFuture<?> accepted = this.commandDeduplicator.accept(commandId, result);
+        if (accepted != null) {
+          results.add(accepted);
+          continue;
         }
       }
-      this.logger.error("Could not find command handler for {}.", commandClass.getSimpleName());
-      throw new IllegalArgumentException("No command handler found!");
+      final BatchedCommand batchedCommand =
+          new BatchedCommand(commandDescriptor, command, commandDescriptor.routingKeyOf(command), result);
+      if (commandId != null) {
+        commandIds.put(batchedCommand, commandId);
+      }
+      batchedCommands.add(batchedCommand);
+      results.add(result);
+    }
+
+    if (!batchedCommands.isEmpty()) {
+      this.commandBatchDispatcher.dispatch(batchedCommands, clazz);
+    }
+    commandIds.forEach((batchedCommand, commandId) -> {
+      if (batchedCommand.isRejected()) {
+        this.commandDeduplicator.release(commandId, batchedCommand.result());
+      } else {
+        this.record(commandId, batchedCommand.result());
+      }
     });
-    return this.cachedCommandHandlers.get(commandClass);
+
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]))
+        .handle((ignored, th) -> CommandBus.collect(results, clazz));
   }
 
-  private <C> CommandSourceKey storeCommand(final C command) {
-    this.logger.debug("CommandBus::storeCommand called.");
-    final LocalDateTime now = LocalDateTime.now();
+  private static <T> CommandBatchResult<T> collect(final List<CompletableFuture<?>> results, final Class<T> clazz) {
+    final List<T> outcomes = new ArrayList<>(results.size());
+    final Map<Integer, Throwable> failures = new LinkedHashMap<>();
+    for (int i = 0; i < results.size(); i++) {
+      try {
+        outcomes.add(clazz.cast(results.get(i).join()));
+      } catch (final CompletionException cex) {
+        outcomes.add(null);
+        failures.put(i, cex.getCause());
+      } catch (final Throwable th) {
+        outcomes.add(null);
+        failures.put(i, th);
+      }
+    }
+    return new CommandBatchResult<>(outcomes, failures);
+  }
+
+  private <C, T> void submit(final CommandDescriptor commandDescriptor, final C command, final Object routingKey,
+                             final Class<T> clazz, final CompletableFuture<T> result,
+                             final CompletableFuture<Void> journaled) {
+    if (this.commandPipeline.isEnabled()) {
+      this.commandPipeline.publish(commandDescriptor, command, routingKey, clazz, result, journaled);
+    } else if (routingKey != null) {
+      this.commandExecutor.execute(routingKey,
+          this.task(commandDescriptor, command, routingKey, clazz, result, journaled));
+    } else {
+      this.commandExecutor.execute(this.task(commandDescriptor, command, null, clazz, result, journaled));
+    }
+  }
 
-    final CommandSourceKey commandSourceKey = new CommandSourceKey();
-    commandSourceKey.setSource(
-        this.environment.getProperty(
-            CommandConstants.APPLICATION_NAME_PROP,
-            CommandConstants.APPLICATION_NAME_DEFAULT
-        )
-    );
-    commandSourceKey.setBucket(now.format(DateTimeFormatter.ISO_LOCAL_DATE));
-    commandSourceKey.setCreatedOn(Date.from(now.atZone(ZoneId.systemDefault()).toInstant()));
+  private <C, T> boolean trySubmit(final CommandDescriptor commandDescriptor, final C command,
+                                   final Object routingKey, final Class<T> clazz, final CompletableFuture<T> result,
+                                   final long timeout, final TimeUnit unit) {
+    if (this.commandPipeline.isEnabled()) {
+      return this.commandPipeline.tryPublish(commandDescriptor, command, routingKey, clazz, result, null,
+          timeout, unit);
+    } else if (routingKey != null) {
+      return this.commandExecutor.tryExecute(routingKey,
+          this.task(commandDescriptor, command, routingKey, clazz, result, null), timeout, unit);
+    } else {
+      return this.commandExecutor.tryExecute(this.task(commandDescriptor, command, null, clazz, result, null),
+          timeout, unit);
+    }
+  }
 
-    final CommandSource commandSource = new CommandSource();
-    commandSource.setCommandSourceKey(commandSourceKey);
-    commandSource.setCommand(this.gson.toJson(command));
+  private Object routingKeyOf(final Object command) {
+    return this.commandHandlerRegistry.find(command.getClass()).routingKeyOf(command);
+  }
 
-    this.commandSourceRepository.save(commandSource);
+  private void record(final Object commandId, final CompletableFuture<?> result) {
+    result.whenComplete((outcome, th) -> this.commandDeduplicator.record(commandId, outcome, th));
+  }
 
-    return commandSourceKey;
+  private <C> Runnable task(final CommandDescriptor commandDescriptor, final C command, final Object routingKey) {
+    return () -> {
+      try {
+        this.process(commandDescriptor, command, routingKey, Object.class, null);
+      } catch (final CommandProcessingException cpex) {
+        this.logger.debug("CommandBus::dispatch-async failed for {}.", command.getClass().getSimpleName());
+      } catch (final Throwable th) {
+        this.logger.error(th.getMessage(), th);
+      }
+    };
   }
 
-  private void updateCommandSource(final CommandSourceKey commandSourceKey, final String failureMessage) {
-    this.logger.debug("CommandBus::updateCommandSource called.");
-    final CommandSource commandSource = this.commandSourceRepository.findOne(commandSourceKey);
-    if (failureMessage != null) {
-      commandSource.setFailed(Boolean.TRUE);
-      commandSource.setFailureMessage(failureMessage);
+  private <C, T> Runnable task(final CommandDescriptor commandDescriptor, final C command, final Object routingKey,
+                               final Class<T> clazz, final CompletableFuture<T> result,
+                               final CompletableFuture<Void> journaled) {
+    return () -> {
+      try {
+        if (this.commandDeduplicator.replay(commandDescriptor.commandIdOf(command), result)) {
+          if (journaled != null) {
+            journaled.complete(null);
+          }
+          return;
+        }
+        result.complete(this.process(commandDescriptor, command, routingKey, clazz, journaled));
+      } catch (final Throwable th) {
+        result.completeExceptionally(th);
+      }
+    };
+  }
+
+  private <C, T> T process(final CommandDescriptor commandDescriptor, final C command, final Object routingKey,
+                           final Class<T> clazz, final CompletableFuture<Void> journaled)
+      throws CommandProcessingException {
+    final CommandTypeMetrics commandTypeMetrics = commandDescriptor.getCommandTypeMetrics();
+    final Durability.Level durability = commandDescriptor.getDurability();
+    final long started = System.nanoTime();
+    final CommandSource commandSource;
+    final CompletableFuture<Void> appended;
+    if (durability == Durability.Level.NONE) {
+      commandSource = null;
+      appended = null;
     } else {
-      commandSource.setProcessed(Boolean.TRUE);
+      commandSource = this.commandSourceFactory.create(command, routingKey);
+      appended = this.storeCommand(commandSource, durability, commandTypeMetrics, started);
+    }
+    if (journaled != null) {
+      if (appended == null) {
+        journaled.complete(null);
+      } else {
+        appended.whenComplete((ignored, th) -> journaled.complete(null));
+      }
+    }
+    final long stored = System.nanoTime();
+    final Object result;
+    try {
+      result = commandDescriptor.getCommandHandler().invoke(command);
+    } catch (final Throwable th) {
+      commandTypeMetrics.recordHandler(System.nanoTime() - stored);
+      commandTypeMetrics.failed();
+      throw this.handle(th, commandSource, appended, commandTypeMetrics);
+    }
+    commandTypeMetrics.recordHandler(System.nanoTime() - stored);
+    commandTypeMetrics.succeeded();
+    if (commandSource != null) {
+      this.updateCommandSource(commandSource, appended, null, commandTypeMetrics);
+    }
+    try {
+      return clazz.cast(result);
+    } catch (final ClassCastException ccex) {
+      throw new CommandProcessingException(ccex.getMessage(), ccex);
     }
-
-    this.commandSourceRepository.save(commandSource);
   }
 
-  private CommandProcessingException handle(final Throwable th, final CommandSourceKey commandSourceKey) {
-    final Throwable cause;
-    if (th.getClass().isAssignableFrom(InvocationTargetException.class)) {
-      cause = th.getCause();
+  private CompletableFuture<Void> storeCommand(final CommandSource commandSource, final Durability.Level durability,
+                                               final CommandTypeMetrics commandTypeMetrics, final long started)
+      throws CommandProcessingException {
+    this.logger.debug("CommandBus::storeCommand called.");
+    final CompletableFuture<Void> appended;
+    if (durability == Durability.Level.SYNC) {
+      try {
+        appended = this.commandJournal.append(commandSource);
+        appended.join();
+      } catch (final Throwable th) {
+        commandTypeMetrics.recordJournal(System.nanoTime() - started);
+        commandTypeMetrics.failed();
+        // nothing was journaled, so there is no status to update
+        throw this.handle(th instanceof CompletionException && th.getCause() != null ? th.getCause() : th,
+            null, null, commandTypeMetrics);
+      }
+      commandTypeMetrics.recordJournal(System.nanoTime() - started);
     } else {
-      cause = th;
+      appended = this.commandJournal.append(commandSource);
+      appended.whenComplete((ignored, th) -> {
+        commandTypeMetrics.recordJournal(System.nanoTime() - started);
+        if (th != null) {
+          this.logger.error("Could not journal command source {}: {}",
+              commandSource.getCommandSourceKey().getId(), th.getMessage());
+        }
+      });
     }
-    this.logger.error(cause.getMessage(), cause);
-    this.updateCommandSource(commandSourceKey, cause.getMessage());
-    return new CommandProcessingException(cause.getMessage(), cause);
+    return appended;
   }
 
-  @Override
-  public void setApplicationContext(final ApplicationContext applicationContext) throws BeansException {
-    this.applicationContext = applicationContext;
+  // the status update is not awaited, the worker is free as soon as the handler returned
+  private void updateCommandSource(final CommandSource commandSource, final CompletableFuture<Void> appended,
+                                   final String failureMessage, final CommandTypeMetrics commandTypeMetrics) {
+    this.logger.debug("CommandBus::updateCommandSource called.");
+    final long started = System.nanoTime();
+    appended.thenCompose(ignored -> failureMessage != null
+        ? this.commandJournal.markFailed(commandSource, failureMessage)
+        : this.commandJournal.markProcessed(commandSource.getCommandSourceKey()))
+        .whenComplete((ignored, th) -> {
+          commandTypeMetrics.recordStatus(System.nanoTime() - started);
+          if (th != null) {
+            this.logger.error("Could not update status of command source {}: {}",
+                commandSource.getCommandSourceKey().getId(), th.getMessage());
+          }
+        });
+  }
+
+  private CommandProcessingException handle(final Throwable th, final CommandSource commandSource,
+                                            final CompletableFuture<Void> appended,
+                                            final CommandTypeMetrics commandTypeMetrics) {
+    this.logger.error(th.getMessage(), th);
+    if (commandSource != null) {
+      this.updateCommandSource(commandSource, appended, th.getMessage(), commandTypeMetrics);
+    }
+    return new CommandProcessingException(th.getMessage(), th);
   }
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import lab.mage.command.codec.CommandCodec;
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.domain.CommandProcessingException;
+import lab.mage.command.repository.CommandIdentity;
+import lab.mage.command.repository.CommandIdentityRepository;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// Remembers the outcome of recently accepted commands by their client supplied id. Entries enter the
+// eviction queue once their command completed and expire the configured ttl later, the oldest are
+// dropped beyond capacity, both by walking the queue on every acceptance. A command still in flight
+// is never evicted, a retry always finds it.
+// Ids unknown to this node are looked up in Cassandra without blocking the accepting thread, the
+// lookup is awaited where the command would be journaled and a command another node completed gets
+// that node's outcome instead of running again.
+@Component
+public class CommandDeduplicator {
+
+  private final Logger logger;
+  private final CommandCodecs commandCodecs;
+  private final CommandIdentityRepository commandIdentityRepository;
+  private final int capacity;
+  private final int ttlSeconds;
+  private final long ttlNanos;
+  private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Entry> evictionQueue = new ConcurrentLinkedQueue<>();
+
+  @Autowired
+  public CommandDeduplicator(final Environment environment,
+                             @Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                             final CommandCodecs commandCodecs,
+                             final Optional<CommandIdentityRepository> commandIdentityRepository) {
+    super();
+    this.logger = logger;
+    this.commandCodecs = commandCodecs;
+    this.commandIdentityRepository = commandIdentityRepository.orElse(null);
+    this.capacity = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.DEDUP_CAPACITY_PROP,
+            CommandConstants.DEDUP_CAPACITY_DEFAULT));
+    this.ttlSeconds = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.DEDUP_TTL_SECONDS_PROP,
+            CommandConstants.DEDUP_TTL_SECONDS_DEFAULT));
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(this.ttlSeconds);
+  }
+
+  public CompletableFuture<?> accept(final Object commandId, final CompletableFuture<?> result) {
+    final long now = System.nanoTime();
+    this.evict(now);
+    final Entry entry = new Entry(commandId, result);
+    while (true) {
+      final Entry existing = this.entries.putIfAbsent(commandId, entry);
+      if (existing == null) {
+        this.track(entry);
+        return null;
+      }
+      if (!existing.isExpired(now)) {
+        this.logger.debug("CommandDeduplicator::accept found duplicate {}.", commandId);
+        return existing.result;
+      }
+      if (this.entries.replace(commandId, existing, entry)) {
+        this.track(entry);
+        return null;
+      }
+    }
+  }
+
+  public void release(final Object commandId, final CompletableFuture<?> result) {
+    final Entry entry = this.entries.get(commandId);
+    if (entry != null && entry.result == result) {
+      this.entries.remove(commandId, entry);
+    }
+  }
+
+  // Waits for the lookup started on acceptance, and completes the result with the recorded outcome if
+  // another node already completed the command. Called on the thread that would journal the command.
+  public boolean replay(final Object commandId, final CompletableFuture<?> result) {
+    if (commandId == null) {
+      return false;
+    }
+    final Entry entry = this.entries.get(commandId);
+    if (entry == null || entry.result != result || entry.lookup == null) {
+      return false;
+    }
+    final CommandIdentity commandIdentity;
+    try {
+      commandIdentity = entry.lookup.join();
+    } catch (final Throwable th) {
+      this.logger.error(th.getMessage(), th);
+      return false;
+    }
+    if (commandIdentity == null) {
+      return false;
+    }
+    this.logger.debug("CommandDeduplicator::replay found duplicate {}.", commandId);
+    entry.replayed = true;
+    this.complete(commandIdentity, result);
+    return true;
+  }
+
+  public void record(final Object commandId, final Object outcome, final Throwable failure) {
+    if (this.commandIdentityRepository == null) {
+      return;
+    }
+    final Entry entry = this.entries.get(commandId);
+    if (entry != null && entry.replayed) {
+      return;
+    }
+    try {
+      final CommandIdentity commandIdentity = new CommandIdentity();
+      commandIdentity.setCommandId(String.valueOf(commandId));
+      commandIdentity.setCreatedOn(new Date());
+      if (failure != null) {
+        commandIdentity.setFailed(Boolean.TRUE);
+        commandIdentity.setFailureMessage(failure.getMessage());
+      } else if (outcome != null) {
+        final CommandCodec commandCodec = this.commandCodecs.getCommandCodec();
+        commandIdentity.setResultType(outcome.getClass().getName());
+        commandIdentity.setCodec(commandCodec.getId());
+        commandIdentity.setPayload(commandCodec.encode(outcome));
+      }
+      this.commandIdentityRepository.saveWithTtl(commandIdentity, this.ttlSeconds).whenComplete((ignored, th) -> {
+        if (th != null) {
+          this.logger.error("Could not record command id {}: {}", commandId, th.getMessage());
+        }
+      });
+    } catch (final Throwable th) {
+      this.logger.error(th.getMessage(), th);
+    }
+  }
+
+  private void track(final Entry entry) {
+    if (this.commandIdentityRepository != null) {
+      try {
+        entry.lookup = this.commandIdentityRepository.findOneAsync(String.valueOf(entry.commandId));
+      } catch (final Throwable th) {
+        this.logger.error(th.getMessage(), th);
+      }
+    }
+    entry.result.whenComplete((ignored, th) -> {
+      entry.expiresAt = System.nanoTime() + this.ttlNanos;
+      entry.completed = true;
+      this.evictionQueue.offer(entry);
+    });
+  }
+
+  @SuppressWarnings("unchecked")
+  private void complete(final CommandIdentity commandIdentity, final CompletableFuture<?> result) {
+    final CompletableFuture<Object> future = (CompletableFuture<Object>) result;
+    if (Boolean.TRUE.equals(commandIdentity.getFailed())) {
+      future.completeExceptionally(new CommandProcessingException(commandIdentity.getFailureMessage(), null));
+    } else if (commandIdentity.getResultType() == null) {
+      future.complete(null);
+    } else {
+      try {
+        final Class<?> resultType =
+            ClassUtils.forName(commandIdentity.getResultType(), ClassUtils.getDefaultClassLoader());
+        future.complete(
+            this.commandCodecs.find(commandIdentity.getCodec()).decode(commandIdentity.getPayload(), resultType));
+      } catch (final Throwable th) {
+        future.completeExceptionally(new CommandProcessingException(th.getMessage(), th));
+      }
+    }
+  }
+
+  private void evict(final long now) {
+    Entry eldest;
+    while ((eldest = this.evictionQueue.peek()) != null
+        && (eldest.expiresAt - now <= 0L || this.entries.size() > this.capacity)) {
+      if (this.evictionQueue.remove(eldest)) {
+        this.entries.remove(eldest.commandId, eldest);
+      }
+    }
+  }
+
+  private static final class Entry {
+
+    private final Object commandId;
+    private final CompletableFuture<?> result;
+    private volatile CompletableFuture<CommandIdentity> lookup;
+    private volatile long expiresAt;
+    private volatile boolean completed;
+    private volatile boolean replayed;
+
+    private Entry(final Object commandId, final CompletableFuture<?> result) {
+      super();
+      this.commandId = commandId;
+      this.result = result;
+    }
+
+    private boolean isExpired(final long now) {
+      return this.completed && this.expiresAt - now <= 0L;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import lab.mage.command.annotation.Durability;
+import lab.mage.command.metrics.CommandTypeMetrics;
+
+public final class CommandDescriptor {
+
+  private final Class<?> commandClass;
+  private final CommandHandlerInvoker commandHandler;
+  private final AnnotatedPropertyAccessor routingKey;
+  private final AnnotatedPropertyAccessor commandId;
+  private final CommandTypeMetrics commandTypeMetrics;
+  private final Durability.Level durability;
+
+  CommandDescriptor(final Class<?> commandClass,
+                    final CommandHandlerInvoker commandHandler,
+                    final AnnotatedPropertyAccessor routingKey,
+                    final AnnotatedPropertyAccessor commandId,
+                    final CommandTypeMetrics commandTypeMetrics,
+                    final Durability.Level durability) {
+    super();
+    this.commandClass = commandClass;
+    this.commandHandler = commandHandler;
+    this.routingKey = routingKey;
+    this.commandId = commandId;
+    this.commandTypeMetrics = commandTypeMetrics;
+    this.durability = durability;
+  }
+
+  public Class<?> getCommandClass() {
+    return this.commandClass;
+  }
+
+  public CommandHandlerInvoker getCommandHandler() {
+    return this.commandHandler;
+  }
+
+  public CommandTypeMetrics getCommandTypeMetrics() {
+    return this.commandTypeMetrics;
+  }
+
+  public Durability.Level getDurability() {
+    return this.durability;
+  }
+
+  public Object routingKeyOf(final Object command) {
+    return this.routingKey != null ? this.routingKey.get(command) : null;
+  }
+
+  public Object commandIdOf(final Object command) {
+    return this.commandId != null ? this.commandId.get(command) : null;
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import lab.mage.command.metrics.CommandExecutorMXBean;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CommandExecutor implements Executor, CommandExecutorMXBean, DisposableBean {
+
+  public enum Mode {
+    PLATFORM,
+    VIRTUAL
+  }
+
+  public enum RejectionPolicy {
+    FAIL_FAST,
+    CALLER_RUNS,
+    BLOCK
+  }
+
+  private static final long KEEP_ALIVE_SECONDS = 60L;
+
+  private final ExecutorService executorService;
+  private final int maxConcurrency;
+  private final Semaphore permits;
+  private final RejectionPolicy rejectionPolicy;
+  private final long blockTimeoutMillis;
+  private final LongAdder rejections = new LongAdder();
+  private final Lane[] lanes;
+
+  public CommandExecutor(final String threadNamePrefix,
+                         final int corePoolSize,
+                         final int maxPoolSize,
+                         final int queueCapacity,
+                         final RejectionPolicy rejectionPolicy,
+                         final long blockTimeoutMillis,
+                         final int lanes) {
+    this(new ThreadPoolExecutor(corePoolSize, maxPoolSize,
+            CommandExecutor.KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            new CustomizableThreadFactory(threadNamePrefix),
+            new HandOverPolicy()),
+        maxPoolSize + queueCapacity, rejectionPolicy, blockTimeoutMillis, lanes);
+  }
+
+  public CommandExecutor(final ExecutorService executorService,
+                         final int maxConcurrency,
+                         final RejectionPolicy rejectionPolicy,
+                         final long blockTimeoutMillis,
+                         final int lanes) {
+    super();
+    this.executorService = executorService;
+    this.maxConcurrency = maxConcurrency;
+    this.permits = new Semaphore(maxConcurrency);
+    this.rejectionPolicy = rejectionPolicy;
+    this.blockTimeoutMillis = blockTimeoutMillis;
+    int laneCount = 1;
+    while (laneCount < lanes) {
+      laneCount <<= 1;
+    }
+    this.lanes = new Lane[laneCount];
+    for (int i = 0; i < this.lanes.length; i++) {
+      this.lanes[i] = new Lane();
+    }
+  }
+
+  @Override
+  public void execute(final Runnable task) {
+    if (this.admit(this.rejectionPolicy)) {
+      this.submit(task);
+    } else {
+      task.run();
+    }
+  }
+
+  public void execute(final Object key, final Runnable task) {
+    // running a keyed task on the caller would overtake commands already queued for its key
+    this.admit(this.rejectionPolicy == RejectionPolicy.CALLER_RUNS ? RejectionPolicy.BLOCK : this.rejectionPolicy);
+    this.laneOf(key).enqueue(task);
+  }
+
+  public boolean tryExecute(final Runnable task, final long timeout, final TimeUnit unit) {
+    if (!this.tryAdmit(timeout, unit)) {
+      return false;
+    }
+    this.submit(task);
+    return true;
+  }
+
+  public boolean tryExecute(final Object key, final Runnable task, final long timeout, final TimeUnit unit) {
+    if (!this.tryAdmit(timeout, unit)) {
+      return false;
+    }
+    this.laneOf(key).enqueue(task);
+    return true;
+  }
+
+  @Override
+  public int getInFlightCount() {
+    return this.maxConcurrency - this.permits.availablePermits();
+  }
+
+  @Override
+  public int getQueueSize() {
+    return this.executorService instanceof ThreadPoolExecutor
+        ? ((ThreadPoolExecutor) this.executorService).getQueue().size()
+        : 0;
+  }
+
+  @Override
+  public int getActiveCount() {
+    return this.executorService instanceof ThreadPoolExecutor
+        ? ((ThreadPoolExecutor) this.executorService).getActiveCount()
+        : this.getInFlightCount();
+  }
+
+  @Override
+  public long getRejectionCount() {
+    return this.rejections.sum();
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    this.executorService.shutdown();
+  }
+
+  private boolean admit(final RejectionPolicy rejectionPolicy) {
+    switch (rejectionPolicy) {
+      case FAIL_FAST:
+        if (!this.permits.tryAcquire()) {
+          throw this.reject();
+        }
+        return true;
+      case CALLER_RUNS:
+        return this.permits.tryAcquire();
+      default:
+        if (!this.acquire(this.blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+          throw this.reject();
+        }
+        return true;
+    }
+  }
+
+  private boolean tryAdmit(final long timeout, final TimeUnit unit) {
+    if (!this.acquire(timeout, unit)) {
+      this.rejections.increment();
+      return false;
+    }
+    return true;
+  }
+
+  private boolean acquire(final long timeout, final TimeUnit unit) {
+    try {
+      return this.permits.tryAcquire(timeout, unit);
+    } catch (final InterruptedException iex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private void submit(final Runnable task) {
+    try {
+      this.executorService.execute(() -> this.run(task));
+    } catch (final RejectedExecutionException rex) {
+      this.permits.release();
+      throw rex;
+    }
+  }
+
+  private void run(final Runnable task) {
+    try {
+      task.run();
+    } finally {
+      this.permits.release();
+    }
+  }
+
+  // keys sharing an index share a lane, so a task executed under any of them runs in their common order
+  int laneIndexOf(final Object key) {
+    final int hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & (this.lanes.length - 1);
+  }
+
+  private Lane laneOf(final Object key) {
+    return this.lanes[this.laneIndexOf(key)];
+  }
+
+  private RejectedExecutionException reject() {
+    this.rejections.increment();
+    return new RejectedExecutionException("Command executor saturated, command rejected!");
+  }
+
+  // Tasks sharing a lane run one after another in submission order, lanes run in parallel. Only the
+  // thread winning the scheduled flag drains a lane, so neither producers nor workers take a lock.
+  private final class Lane extends AtomicBoolean implements Runnable {
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private void enqueue(final Runnable task) {
+      this.tasks.offer(task);
+      if (this.compareAndSet(false, true)) {
+        try {
+          CommandExecutor.this.executorService.execute(this);
+        } catch (final RejectedExecutionException rex) {
+          this.set(false);
+          throw rex;
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      do {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+          CommandExecutor.this.run(task);
+        }
+        this.set(false);
+      } while (!this.tasks.isEmpty() && this.compareAndSet(false, true));
+    }
+  }
+
+  // Permits bound the tasks in flight to maxPoolSize + queueCapacity and every lane adds at most one
+  // drain, so a full queue only lasts until the next worker polls it; hand the task over instead.
+  private static final class HandOverPolicy implements RejectedExecutionHandler {
+
+    @Override
+    public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("Command executor shut down, command rejected!");
+      }
+      try {
+        executor.getQueue().put(task);
+      } catch (final InterruptedException iex) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("Interrupted while handing over command!", iex);
+      }
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import lab.mage.command.annotation.Aggregate;
+import lab.mage.command.annotation.CommandId;
+import lab.mage.command.annotation.CommandHandler;
+import lab.mage.command.annotation.Durability;
+import lab.mage.command.annotation.RoutingKey;
+import lab.mage.command.interceptor.CommandInterceptor;
+import lab.mage.command.interceptor.CommandInvocation;
+import lab.mage.command.metrics.CommandMetrics;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// registered in the first lifecycle phase, ahead of the startup recovery and the listener containers
+// and before any ContextRefreshedEvent listener may dispatch a command
+@Component
+public class CommandHandlerRegistry implements ApplicationContextAware, SmartLifecycle {
+
+  public static final int PHASE = Integer.MIN_VALUE;
+
+  private static final CommandHandlerInvoker UNKNOWN_COMMAND = command -> {
+    throw new IllegalArgumentException("No command handler found!");
+  };
+
+  private final Logger logger;
+  private final CommandMetrics commandMetrics;
+  private final CommandDescriptor unknownCommand;
+  private final ConcurrentHashMap<Class<?>, CommandDescriptor> resolvedCommands = new ConcurrentHashMap<>();
+  private volatile Map<Class<?>, CommandHandlerInvoker> registeredCommandHandlers = Collections.emptyMap();
+  private volatile Map<Class<?>, Durability.Level> registeredDurabilities = Collections.emptyMap();
+  private volatile List<CommandInterceptor> commandInterceptors = Collections.emptyList();
+  private ApplicationContext applicationContext;
+  private volatile boolean running;
+
+  @Autowired
+  public CommandHandlerRegistry(@Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                                final CommandMetrics commandMetrics) {
+    super();
+    this.logger = logger;
+    this.commandMetrics = commandMetrics;
+    this.unknownCommand = new CommandDescriptor(Object.class, CommandHandlerRegistry.UNKNOWN_COMMAND, null, null,
+        commandMetrics.unknown(), Durability.Level.SYNC);
+  }
+
+  public CommandDescriptor find(final Class<?> commandClass) {
+    final CommandDescriptor commandDescriptor = this.resolvedCommands.get(commandClass);
+    if (commandDescriptor != null) {
+      return commandDescriptor;
+    }
+    final CommandHandlerInvoker commandHandler = this.resolve(commandClass);
+    final CommandDescriptor resolvedCommandDescriptor = commandHandler == CommandHandlerRegistry.UNKNOWN_COMMAND
+        ? this.unknownCommand
+        : new CommandDescriptor(commandClass, this.intercept(commandClass, commandHandler),
+            AnnotatedPropertyAccessor.find(commandClass, RoutingKey.class),
+            AnnotatedPropertyAccessor.find(commandClass, CommandId.class), this.commandMetrics.of(commandClass),
+            this.durabilityOf(commandClass));
+    final CommandDescriptor existingCommandDescriptor =
+        this.resolvedCommands.putIfAbsent(commandClass, resolvedCommandDescriptor);
+    return existingCommandDescriptor != null ? existingCommandDescriptor : resolvedCommandDescriptor;
+  }
+
+  @Override
+  public void start() {
+    final Map<Class<?>, CommandHandlerInvoker> commandHandlers = new HashMap<>();
+    final Map<Class<?>, Durability.Level> durabilities = new HashMap<>();
+    final Map<String, Object> aggregates = this.applicationContext.getBeansWithAnnotation(Aggregate.class);
+    for (final Object aggregate : aggregates.values()) {
+      for (final Method method : ClassUtils.getUserClass(aggregate).getDeclaredMethods()) {
+        if (method.isAnnotationPresent(CommandHandler.class) && method.getParameterCount() == 1) {
+          final Class<?> commandClass = method.getParameterTypes()[0];
+          if (commandHandlers.putIfAbsent(commandClass, MethodHandleCommandHandlerInvoker.bind(aggregate, method)) != null) {
+            this.logger.warn("Ignoring duplicate command handler {} for {}.", method, commandClass.getSimpleName());
+          } else {
+            final Durability durability = AnnotationUtils.findAnnotation(method, Durability.class);
+            if (durability != null) {
+              durabilities.put(commandClass, durability.value());
+            }
+            this.logger.debug("CommandHandlerRegistry::register added method for {}.", commandClass.getSimpleName());
+          }
+        }
+      }
+    }
+    final List<CommandInterceptor> commandInterceptors =
+        new ArrayList<>(this.applicationContext.getBeansOfType(CommandInterceptor.class).values());
+    AnnotationAwareOrderComparator.sort(commandInterceptors);
+    this.commandInterceptors = commandInterceptors;
+    this.registeredCommandHandlers = commandHandlers;
+    this.registeredDurabilities = durabilities;
+    this.resolvedCommands.clear();
+    this.running = true;
+  }
+
+  @Override
+  public void stop() {
+    this.running = false;
+  }
+
+  @Override
+  public void stop(final Runnable callback) {
+    this.stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return this.running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    return CommandHandlerRegistry.PHASE;
+  }
+
+  @Override
+  public void setApplicationContext(final ApplicationContext applicationContext) throws BeansException {
+    this.applicationContext = applicationContext;
+  }
+
+  private CommandHandlerInvoker resolve(final Class<?> commandClass) {
+    final Map<Class<?>, CommandHandlerInvoker> commandHandlers = this.registeredCommandHandlers;
+    for (Class<?> candidate = commandClass; candidate != null; candidate = candidate.getSuperclass()) {
+      final CommandHandlerInvoker commandHandler = commandHandlers.get(candidate);
+      if (commandHandler != null) {
+        return commandHandler;
+      }
+    }
+    for (final Class<?> candidate : ClassUtils.getAllInterfacesForClassAsSet(commandClass)) {
+      final CommandHandlerInvoker commandHandler = commandHandlers.get(candidate);
+      if (commandHandler != null) {
+        return commandHandler;
+      }
+    }
+    this.logger.error("Could not find command handler for {}.", commandClass.getSimpleName());
+    return CommandHandlerRegistry.UNKNOWN_COMMAND;
+  }
+
+  // a durability declared on the command handler wins over the one declared on the command class
+  private Durability.Level durabilityOf(final Class<?> commandClass) {
+    final Map<Class<?>, Durability.Level> durabilities = this.registeredDurabilities;
+    for (Class<?> candidate = commandClass; candidate != null; candidate = candidate.getSuperclass()) {
+      final Durability.Level durability = durabilities.get(candidate);
+      if (durability != null) {
+        return durability;
+      }
+    }
+    for (final Class<?> candidate : ClassUtils.getAllInterfacesForClassAsSet(commandClass)) {
+      final Durability.Level durability = durabilities.get(candidate);
+      if (durability != null) {
+        return durability;
+      }
+    }
+    final Durability durability = AnnotationUtils.findAnnotation(commandClass, Durability.class);
+    return durability != null ? durability.value() : Durability.Level.SYNC;
+  }
+
+  // folds the interceptors into nested invocations once per command type, a command type without
+  // matching interceptors keeps the bare handler
+  private CommandHandlerInvoker intercept(final Class<?> commandClass, final CommandHandlerInvoker commandHandler) {
+    final List<CommandInterceptor> commandInterceptors = this.commandInterceptors;
+    CommandInvocation invocation = null;
+    for (int i = commandInterceptors.size() - 1; i >= 0; i--) {
+      final CommandInterceptor commandInterceptor = commandInterceptors.get(i);
+      if (commandInterceptor.supports(commandClass)) {
+        final CommandInvocation next = invocation != null ? invocation : commandHandler::invoke;
+        invocation = command -> commandInterceptor.intercept(command, next);
+        this.logger.debug("CommandHandlerRegistry::intercept added {} for {}.",
+            commandInterceptor.getClass().getSimpleName(), commandClass.getSimpleName());
+      }
+    }
+    return invocation != null ? invocation::proceed : commandHandler;
+  }
+}
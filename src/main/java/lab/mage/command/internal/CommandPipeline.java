@@ -0,0 +1,537 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import lab.mage.command.annotation.Durability;
+import lab.mage.command.domain.CommandProcessingException;
+import lab.mage.command.journal.CommandJournal;
+import lab.mage.command.metrics.CommandTypeMetrics;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// Commands flow through three stages, journal -> handle -> status, sharing one preallocated ring of
+// slots. Every stage owns its cursor and is the single writer of the slots between the cursor of
+// the preceding stage and its own, so no stage takes a lock and journal and status writes batch
+// up naturally while the handlers are busy.
+// The status stage completes a slot only once every handler has passed it, so a slow handler holds
+// back the results of all handlers behind it, and result callbacks attached without an executor
+// run on the status thread. Status updates are fire-and-forget, as on the executor path.
+@Component
+public class CommandPipeline implements InitializingBean, DisposableBean {
+
+  public enum Engine {
+    EXECUTOR,
+    PIPELINE
+  }
+
+  private static final int IDLE_SPINS = 100;
+  private static final int IDLE_YIELDS = 10;
+  private static final long IDLE_MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1L);
+
+  private final Logger logger;
+  private final CommandJournal commandJournal;
+  private final CommandSourceFactory commandSourceFactory;
+  private final CommandDeduplicator commandDeduplicator;
+  private final boolean enabled;
+  private final long publishTimeoutNanos;
+  private final int batchSize;
+  private final long idleMaxParkNanos;
+  private final Slot[] slots;
+  private final int mask;
+  private final AtomicLongArray published;
+  private final Sequence claimed = new Sequence();
+  private final Sequence journaled = new Sequence();
+  private final Sequence[] handled;
+  private final Sequence completed = new Sequence();
+  private final List<Thread> stages = new ArrayList<>();
+  private volatile boolean running;
+
+  @Autowired
+  public CommandPipeline(final Environment environment,
+                         @Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                         final CommandJournal commandJournal,
+                         final CommandSourceFactory commandSourceFactory,
+                         final CommandDeduplicator commandDeduplicator) {
+    super();
+    this.logger = logger;
+    this.commandJournal = commandJournal;
+    this.commandSourceFactory = commandSourceFactory;
+    this.commandDeduplicator = commandDeduplicator;
+    this.enabled = Engine.PIPELINE == Engine.valueOf(
+        environment.getProperty(
+            CommandConstants.DISPATCH_ENGINE_PROP,
+            CommandConstants.DISPATCH_ENGINE_DEFAULT));
+    this.publishTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.valueOf(
+        environment.getProperty(
+            CommandConstants.EXECUTOR_BLOCK_TIMEOUT_MILLIS_PROP,
+            CommandConstants.EXECUTOR_BLOCK_TIMEOUT_MILLIS_DEFAULT)));
+    this.batchSize = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_BATCH_SIZE_PROP,
+            CommandConstants.JOURNAL_BATCH_SIZE_DEFAULT));
+    this.idleMaxParkNanos = TimeUnit.MICROSECONDS.toNanos(Long.valueOf(
+        environment.getProperty(
+            CommandConstants.PIPELINE_IDLE_MAX_PARK_MICROS_PROP,
+            CommandConstants.PIPELINE_IDLE_MAX_PARK_MICROS_DEFAULT)));
+
+    final int ringSize = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.PIPELINE_RING_SIZE_PROP,
+            CommandConstants.PIPELINE_RING_SIZE_DEFAULT));
+    if (Integer.bitCount(ringSize) != 1) {
+      throw new IllegalArgumentException("Pipeline ring size must be a power of two!");
+    }
+    this.slots = new Slot[ringSize];
+    this.published = new AtomicLongArray(ringSize);
+    for (int i = 0; i < ringSize; i++) {
+      this.slots[i] = new Slot();
+      this.published.set(i, -1L);
+    }
+    this.mask = ringSize - 1;
+
+    this.handled = new Sequence[Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.PIPELINE_HANDLERS_PROP,
+            CommandConstants.PIPELINE_HANDLERS_DEFAULT))];
+    for (int i = 0; i < this.handled.length; i++) {
+      this.handled[i] = new Sequence();
+    }
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  public void publish(final CommandDescriptor commandDescriptor, final Object command, final Object routingKey,
+                      final Class<?> resultClass, final CompletableFuture<?> result,
+                      final CompletableFuture<Void> journaled) {
+    if (!this.tryPublish(commandDescriptor, command, routingKey, resultClass, result, journaled,
+        this.publishTimeoutNanos, TimeUnit.NANOSECONDS)) {
+      throw new RejectedExecutionException("Command pipeline saturated, command rejected!");
+    }
+  }
+
+  public boolean tryPublish(final CommandDescriptor commandDescriptor, final Object command, final Object routingKey,
+                            final Class<?> resultClass, final CompletableFuture<?> result,
+                            final CompletableFuture<Void> journaled, final long timeout, final TimeUnit unit) {
+    final long sequence = this.claim(unit.toNanos(timeout));
+    if (sequence < 0L) {
+      return false;
+    }
+    final Slot slot = this.slots[this.indexOf(sequence)];
+    slot.commandDescriptor = commandDescriptor;
+    slot.command = command;
+    slot.routingKey = routingKey;
+    slot.resultClass = resultClass;
+    slot.result = result;
+    slot.journaled = journaled;
+    this.published.lazySet(this.indexOf(sequence), sequence);
+    return true;
+  }
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    if (!this.enabled) {
+      return;
+    }
+    this.running = true;
+    this.stages.add(new Thread(this::journal, CommandConstants.PIPELINE_PREFIX + "journal"));
+    for (int i = 0; i < this.handled.length; i++) {
+      final int worker = i;
+      this.stages.add(new Thread(() -> this.handle(worker), CommandConstants.PIPELINE_PREFIX + "handler-" + i));
+    }
+    this.stages.add(new Thread(this::complete, CommandConstants.PIPELINE_PREFIX + "status"));
+    for (final Thread stage : this.stages) {
+      stage.setDaemon(true);
+      stage.start();
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    this.running = false;
+    for (final Thread stage : this.stages) {
+      stage.join();
+    }
+  }
+
+  private long claim(final long timeoutNanos) {
+    final long deadline = System.nanoTime() + timeoutNanos;
+    final Backoff backoff = new Backoff(this.idleMaxParkNanos);
+    while (this.running) {
+      final long current = this.claimed.get();
+      final long next = current + 1L;
+      if (next - this.slots.length > this.completed.get()) {
+        if (System.nanoTime() - deadline >= 0L) {
+          return -1L;
+        }
+        backoff.idle();
+      } else if (this.claimed.compareAndSet(current, next)) {
+        return next;
+      }
+    }
+    return -1L;
+  }
+
+  private void journal() {
+    final Backoff backoff = new Backoff(this.idleMaxParkNanos);
+    long next = this.journaled.get() + 1L;
+    while (this.running || next <= this.claimed.get()) {
+      long available = next - 1L;
+      final long limit = next + this.batchSize - 1L;
+      while (available < limit && this.published.get(this.indexOf(available + 1L)) == available + 1L) {
+        available++;
+      }
+      if (available < next) {
+        backoff.idle();
+        continue;
+      }
+      backoff.reset();
+
+      final List<Slot> journaling = new ArrayList<>();
+      final List<CommandSource> commandSources = new ArrayList<>();
+      final List<Slot> deferring = new ArrayList<>();
+      final List<CommandSource> deferred = new ArrayList<>();
+      for (long sequence = next; sequence <= available; sequence++) {
+        final Slot slot = this.slots[this.indexOf(sequence)];
+        if (slot.result != null
+            && this.commandDeduplicator.replay(slot.commandDescriptor.commandIdOf(slot.command), slot.result)) {
+          slot.replayed = true;
+          continue;
+        }
+        final Durability.Level durability = slot.commandDescriptor.getDurability();
+        if (durability == Durability.Level.NONE) {
+          continue;
+        }
+        try {
+          slot.commandSource = this.commandSourceFactory.create(slot.command, slot.routingKey);
+          if (durability == Durability.Level.ASYNC) {
+            deferring.add(slot);
+            deferred.add(slot.commandSource);
+          } else {
+            journaling.add(slot);
+            commandSources.add(slot.commandSource);
+          }
+        } catch (final Throwable th) {
+          slot.failure = th;
+        }
+      }
+      final long started = System.nanoTime();
+      if (!deferred.isEmpty()) {
+        this.appendDeferred(deferring, deferred, started);
+      }
+      try {
+        if (!commandSources.isEmpty()) {
+          this.commandJournal.appendAll(commandSources).join();
+        }
+      } catch (final Throwable th) {
+        this.logger.error(th.getMessage(), th);
+        journaling.forEach(slot -> {
+          slot.commandSource = null;
+          slot.failure = th;
+        });
+      }
+      final long elapsed = System.nanoTime() - started;
+      journaling.forEach(slot -> slot.commandDescriptor.getCommandTypeMetrics().recordJournal(elapsed));
+      for (long sequence = next; sequence <= available; sequence++) {
+        final Slot slot = this.slots[this.indexOf(sequence)];
+        if (slot.journaled != null) {
+          final CompletableFuture<Void> journaled = slot.journaled;
+          if (slot.appended != null) {
+            slot.appended.whenComplete((ignored, th) -> journaled.complete(null));
+          } else {
+            journaled.complete(null);
+          }
+        }
+      }
+
+      this.journaled.lazySet(available);
+      next = available + 1L;
+    }
+  }
+
+  private void handle(final int worker) {
+    final Sequence cursor = this.handled[worker];
+    final Backoff backoff = new Backoff(this.idleMaxParkNanos);
+    long next = cursor.get() + 1L;
+    while (this.running || next <= this.claimed.get()) {
+      final long available = this.journaled.get();
+      if (available < next) {
+        backoff.idle();
+        continue;
+      }
+      backoff.reset();
+
+      for (long sequence = next; sequence <= available; sequence++) {
+        final Slot slot = this.slots[this.indexOf(sequence)];
+        if (slot.failure == null && !slot.replayed && this.workerOf(slot, sequence) == worker) {
+          final long started = System.nanoTime();
+          try {
+            slot.outcome = slot.commandDescriptor.getCommandHandler().invoke(slot.command);
+          } catch (final Throwable th) {
+            this.logger.error(th.getMessage(), th);
+            slot.failure = th;
+          }
+          slot.commandDescriptor.getCommandTypeMetrics().recordHandler(System.nanoTime() - started);
+        }
+      }
+
+      cursor.lazySet(available);
+      next = available + 1L;
+    }
+  }
+
+  private void complete() {
+    final Backoff backoff = new Backoff(this.idleMaxParkNanos);
+    long next = this.completed.get() + 1L;
+    while (this.running || next <= this.claimed.get()) {
+      long available = Long.MAX_VALUE;
+      for (final Sequence cursor : this.handled) {
+        available = Math.min(available, cursor.get());
+      }
+      if (available < next) {
+        backoff.idle();
+        continue;
+      }
+      backoff.reset();
+      available = Math.min(available, next + this.batchSize - 1L);
+
+      final List<CommandTypeMetrics> succeeded = new ArrayList<>();
+      final List<CommandSourceKey> processed = new ArrayList<>();
+      for (long sequence = next; sequence <= available; sequence++) {
+        final Slot slot = this.slots[this.indexOf(sequence)];
+        if (slot.replayed) {
+          continue;
+        }
+        final CommandTypeMetrics commandTypeMetrics = slot.commandDescriptor.getCommandTypeMetrics();
+        if (slot.failure == null) {
+          commandTypeMetrics.succeeded();
+          if (slot.appended != null) {
+            this.markDeferred(slot);
+          } else if (slot.commandSource != null) {
+            succeeded.add(commandTypeMetrics);
+            processed.add(slot.commandSource.getCommandSourceKey());
+          }
+        } else {
+          commandTypeMetrics.failed();
+          if (slot.appended != null) {
+            this.markDeferred(slot);
+          } else if (slot.commandSource != null) {
+            this.markFailed(slot);
+          }
+        }
+      }
+      if (!processed.isEmpty()) {
+        this.markProcessedAll(processed, succeeded);
+      }
+
+      for (long sequence = next; sequence <= available; sequence++) {
+        this.slots[this.indexOf(sequence)].completeAndClear();
+      }
+      this.completed.lazySet(available);
+      next = available + 1L;
+    }
+  }
+
+  private void appendDeferred(final List<Slot> deferring, final List<CommandSource> deferred, final long started) {
+    CompletableFuture<Void> appended;
+    try {
+      appended = this.commandJournal.appendAll(deferred);
+    } catch (final Throwable th) {
+      appended = new CompletableFuture<>();
+      appended.completeExceptionally(th);
+    }
+    appended.whenComplete((ignored, th) -> {
+      final long elapsed = System.nanoTime() - started;
+      deferring.forEach(slot -> slot.commandDescriptor.getCommandTypeMetrics().recordJournal(elapsed));
+      if (th != null) {
+        this.logger.error("Could not journal {} command sources: {}", deferred.size(), th.getMessage());
+      }
+    });
+    for (final Slot slot : deferring) {
+      slot.appended = appended;
+    }
+  }
+
+  // the status of an ASYNC command waits for its append but never holds the status stage
+  private void markDeferred(final Slot slot) {
+    final CommandSource commandSource = slot.commandSource;
+    final CommandSourceKey commandSourceKey = commandSource.getCommandSourceKey();
+    final String failureMessage = slot.failure != null ? slot.failure.getMessage() : null;
+    final CommandTypeMetrics commandTypeMetrics = slot.commandDescriptor.getCommandTypeMetrics();
+    final long started = System.nanoTime();
+    slot.appended.thenCompose(ignored -> failureMessage != null
+        ? this.commandJournal.markFailed(commandSource, failureMessage)
+        : this.commandJournal.markProcessed(commandSourceKey))
+        .whenComplete((ignored, th) -> {
+          commandTypeMetrics.recordStatus(System.nanoTime() - started);
+          if (th != null) {
+            this.logger.error("Could not update status of command source {}: {}",
+                commandSourceKey.getId(), th.getMessage());
+          }
+        });
+  }
+
+  private void markProcessedAll(final List<CommandSourceKey> processed, final List<CommandTypeMetrics> succeeded) {
+    final long started = System.nanoTime();
+    this.updateStatus(() -> this.commandJournal.markProcessedAll(processed))
+        .whenComplete((ignored, th) -> {
+          final long elapsed = System.nanoTime() - started;
+          succeeded.forEach(commandTypeMetrics -> commandTypeMetrics.recordStatus(elapsed));
+          if (th != null) {
+            this.logger.error("Could not update status of {} command sources: {}", processed.size(), th.getMessage());
+          }
+        });
+  }
+
+  private void markFailed(final Slot slot) {
+    final CommandSource commandSource = slot.commandSource;
+    final CommandSourceKey commandSourceKey = commandSource.getCommandSourceKey();
+    final String failureMessage = slot.failure.getMessage();
+    final CommandTypeMetrics commandTypeMetrics = slot.commandDescriptor.getCommandTypeMetrics();
+    final long started = System.nanoTime();
+    this.updateStatus(() -> this.commandJournal.markFailed(commandSource, failureMessage))
+        .whenComplete((ignored, th) -> {
+          commandTypeMetrics.recordStatus(System.nanoTime() - started);
+          if (th != null) {
+            this.logger.error("Could not update status of command source {}: {}",
+                commandSourceKey.getId(), th.getMessage());
+          }
+        });
+  }
+
+  private CompletableFuture<Void> updateStatus(final Supplier<CompletableFuture<Void>> update) {
+    try {
+      return update.get();
+    } catch (final Throwable th) {
+      final CompletableFuture<Void> failed = new CompletableFuture<>();
+      failed.completeExceptionally(th);
+      return failed;
+    }
+  }
+
+  private int workerOf(final Slot slot, final long sequence) {
+    // commands sharing a routing key always meet the same handler and therefore keep their order
+    return slot.routingKey != null
+        ? Math.floorMod(slot.routingKey.hashCode(), this.handled.length)
+        : (int) (sequence % this.handled.length);
+  }
+
+  private int indexOf(final long sequence) {
+    return (int) sequence & this.mask;
+  }
+
+  // padded to keep the cursors of different stages off each other's cache line
+  @SuppressWarnings("unused")
+  private static final class Sequence extends AtomicLong {
+
+    private long p1, p2, p3, p4, p5, p6, p7;
+
+    private Sequence() {
+      super(-1L);
+    }
+  }
+
+  // an idle stage spins briefly, then yields, then parks for doubling periods up to the configured maximum,
+  // so a busy pipeline never leaves the CPU while an idle one wakes up only rarely
+  private static final class Backoff {
+
+    private final long maxParkNanos;
+    private int tries;
+    private long parkNanos = CommandPipeline.IDLE_MIN_PARK_NANOS;
+
+    private Backoff(final long maxParkNanos) {
+      super();
+      this.maxParkNanos = maxParkNanos;
+    }
+
+    private void idle() {
+      if (this.tries < CommandPipeline.IDLE_SPINS + CommandPipeline.IDLE_YIELDS) {
+        if (this.tries++ >= CommandPipeline.IDLE_SPINS) {
+          Thread.yield();
+        }
+        return;
+      }
+      LockSupport.parkNanos(this.parkNanos);
+      this.parkNanos = Math.min(this.parkNanos << 1, this.maxParkNanos);
+    }
+
+    private void reset() {
+      this.tries = 0;
+      this.parkNanos = CommandPipeline.IDLE_MIN_PARK_NANOS;
+    }
+  }
+
+  private static final class Slot {
+
+    private CommandDescriptor commandDescriptor;
+    private Object command;
+    private Object routingKey;
+    private Class<?> resultClass;
+    private CompletableFuture<?> result;
+    private CompletableFuture<Void> journaled;
+    private CommandSource commandSource;
+    private CompletableFuture<Void> appended;
+    private Object outcome;
+    private Throwable failure;
+    private boolean replayed;
+
+    @SuppressWarnings("unchecked")
+    private void completeAndClear() {
+      if (this.result != null && !this.replayed) {
+        final CompletableFuture<Object> future = (CompletableFuture<Object>) this.result;
+        if (this.failure != null) {
+          future.completeExceptionally(new CommandProcessingException(this.failure.getMessage(), this.failure));
+        } else {
+          try {
+            future.complete(this.resultClass.cast(this.outcome));
+          } catch (final ClassCastException ccex) {
+            future.completeExceptionally(new CommandProcessingException(ccex.getMessage(), ccex));
+          }
+        }
+      }
+      this.commandDescriptor = null;
+      this.command = null;
+      this.routingKey = null;
+      this.resultClass = null;
+      this.result = null;
+      this.journaled = null;
+      this.commandSource = null;
+      this.appended = null;
+      this.outcome = null;
+      this.failure = null;
+      this.replayed = false;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import com.datastax.driver.core.utils.UUIDs;
+import lab.mage.command.codec.CommandCodec;
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+
+@Component
+public class CommandSourceFactory {
+
+  private final CommandCodec commandCodec;
+  private final CommandSourceKeyGenerator commandSourceKeyGenerator;
+
+  @Autowired
+  public CommandSourceFactory(final CommandCodecs commandCodecs,
+                              final CommandSourceKeyGenerator commandSourceKeyGenerator) {
+    super();
+    this.commandCodec = commandCodecs.getCommandCodec();
+    this.commandSourceKeyGenerator = commandSourceKeyGenerator;
+  }
+
+  public CommandSource create(final Object command, final Object routingKey) {
+    final CommandSourceKey commandSourceKey = this.commandSourceKeyGenerator.generate(routingKey);
+
+    final CommandSource commandSource = new CommandSource();
+    commandSource.setCommandSourceKey(commandSourceKey);
+    commandSource.setCreatedOn(new Date(UUIDs.unixTimestamp(commandSourceKey.getId())));
+    commandSource.setCommandType(command.getClass().getName());
+    commandSource.setCodec(this.commandCodec.getId());
+    commandSource.setPayload(this.commandCodec.encode(command));
+    return commandSource;
+  }
+}
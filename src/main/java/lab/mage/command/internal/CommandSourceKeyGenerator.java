@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import com.datastax.driver.core.utils.UUIDs;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Component
+public class CommandSourceKeyGenerator {
+
+  private final String source;
+  private final int shards;
+  private final BucketGranularity bucketGranularity;
+  private final AtomicInteger nextShard = new AtomicInteger();
+
+  @Autowired
+  public CommandSourceKeyGenerator(final Environment environment) {
+    super();
+    this.source = environment.getProperty(
+        CommandConstants.APPLICATION_NAME_PROP,
+        CommandConstants.APPLICATION_NAME_DEFAULT);
+    this.shards = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_SHARDS_PROP,
+            CommandConstants.JOURNAL_SHARDS_DEFAULT));
+    this.bucketGranularity = BucketGranularity.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_BUCKET_GRANULARITY_PROP,
+            CommandConstants.JOURNAL_BUCKET_GRANULARITY_DEFAULT));
+  }
+
+  public CommandSourceKey generate(final Object routingKey) {
+    final UUID id = UUIDs.timeBased();
+    final LocalDateTime createdOn =
+        LocalDateTime.ofInstant(Instant.ofEpochMilli(UUIDs.unixTimestamp(id)), ZoneId.systemDefault());
+
+    final CommandSourceKey commandSourceKey = new CommandSourceKey();
+    commandSourceKey.setSource(this.source);
+    commandSourceKey.setBucket(this.bucketGranularity.bucketOf(createdOn));
+    commandSourceKey.setShard(Math.floorMod(
+        routingKey != null ? routingKey.hashCode() : this.nextShard.getAndIncrement(), this.shards));
+    commandSourceKey.setId(id);
+    return commandSourceKey;
+  }
+
+  public String getSource() {
+    return this.source;
+  }
+
+  public int getShards() {
+    return this.shards;
+  }
+
+  public BucketGranularity getBucketGranularity() {
+    return this.bucketGranularity;
+  }
+}
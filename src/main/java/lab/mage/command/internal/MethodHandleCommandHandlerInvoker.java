@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+// Public handlers are bound through the LambdaMetafactory, the generated class calls the handler with a
+// plain invokevirtual the JIT inlines like hand written code. Handlers the generated class could not link
+// against, being non-public or loaded by another class loader, are invoked through a bound method handle.
+final class MethodHandleCommandHandlerInvoker implements CommandHandlerInvoker {
+
+  private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType VOID_INVOKER_TYPE = MethodType.methodType(Void.TYPE, Object.class);
+
+  private final MethodHandle methodHandle;
+
+  private MethodHandleCommandHandlerInvoker(final MethodHandle methodHandle) {
+    super();
+    this.methodHandle = methodHandle;
+  }
+
+  static CommandHandlerInvoker bind(final Object aggregate, final Method commandHandler) {
+    ReflectionUtils.makeAccessible(commandHandler);
+    try {
+      final MethodHandles.Lookup lookup = MethodHandles.lookup();
+      final MethodHandle methodHandle = lookup.unreflect(commandHandler);
+      if (MethodHandleCommandHandlerInvoker.isLinkable(commandHandler)) {
+        try {
+          return MethodHandleCommandHandlerInvoker.spin(lookup, aggregate, commandHandler, methodHandle);
+        } catch (final LambdaConversionException | IllegalArgumentException ex) {
+          // fall through to the bound method handle
+        }
+      }
+      return new MethodHandleCommandHandlerInvoker(
+          methodHandle.bindTo(aggregate).asType(MethodHandleCommandHandlerInvoker.INVOKER_TYPE));
+    } catch (final IllegalAccessException iaex) {
+      throw new IllegalArgumentException("Command handler " + commandHandler.getName() + " not accessible!", iaex);
+    }
+  }
+
+  @Override
+  public Object invoke(final Object command) throws Throwable {
+    return this.methodHandle.invokeExact(command);
+  }
+
+  private static boolean isLinkable(final Method commandHandler) {
+    final ClassLoader classLoader = MethodHandleCommandHandlerInvoker.class.getClassLoader();
+    return Modifier.isPublic(commandHandler.getModifiers())
+        && Modifier.isPublic(commandHandler.getDeclaringClass().getModifiers())
+        && Modifier.isPublic(commandHandler.getParameterTypes()[0].getModifiers())
+        && ClassUtils.isVisible(commandHandler.getDeclaringClass(), classLoader)
+        && ClassUtils.isVisible(commandHandler.getParameterTypes()[0], classLoader);
+  }
+
+  private static CommandHandlerInvoker spin(final MethodHandles.Lookup lookup, final Object aggregate,
+                                            final Method commandHandler, final MethodHandle methodHandle)
+      throws LambdaConversionException {
+    final Class<?> aggregateClass = commandHandler.getDeclaringClass();
+    final Class<?> commandClass = commandHandler.getParameterTypes()[0];
+    try {
+      if (commandHandler.getReturnType() == Void.TYPE) {
+        final CallSite callSite = LambdaMetafactory.metafactory(lookup, "handle",
+            MethodType.methodType(VoidCommandHandler.class, aggregateClass),
+            MethodHandleCommandHandlerInvoker.VOID_INVOKER_TYPE, methodHandle,
+            MethodType.methodType(Void.TYPE, commandClass));
+        final VoidCommandHandler voidCommandHandler = (VoidCommandHandler) callSite.getTarget().invoke(aggregate);
+        return command -> {
+          voidCommandHandler.handle(command);
+          return null;
+        };
+      }
+      final CallSite callSite = LambdaMetafactory.metafactory(lookup, "invoke",
+          MethodType.methodType(CommandHandlerInvoker.class, aggregateClass),
+          MethodHandleCommandHandlerInvoker.INVOKER_TYPE, methodHandle,
+          MethodType.methodType(ClassUtils.resolvePrimitiveIfNecessary(commandHandler.getReturnType()), commandClass));
+      return (CommandHandlerInvoker) callSite.getTarget().invoke(aggregate);
+    } catch (final LambdaConversionException | RuntimeException | Error ex) {
+      throw ex;
+    } catch (final Throwable th) {
+      throw new IllegalStateException(th);
+    }
+  }
+
+  @FunctionalInterface
+  interface VoidCommandHandler {
+
+    void handle(Object command) throws Throwable;
+  }
+}
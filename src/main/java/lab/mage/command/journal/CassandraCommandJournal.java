@@ -0,0 +1,274 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.utils.UUIDs;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.env.Environment;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+public class CassandraCommandJournal implements CommandJournal, InitializingBean, DisposableBean {
+
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000L;
+
+  private final Logger logger;
+  private final CommandSourceStatements commandSourceStatements;
+  private final CommandJournalWriter commandJournalWriter;
+
+  public CassandraCommandJournal(final Environment environment, final Logger logger, final Session session) {
+    super();
+    this.logger = logger;
+    this.commandSourceStatements = new CommandSourceStatements(session,
+        environment.getProperty(CommandConstants.JOURNAL_NODE_ID_PROP,
+            CassandraCommandJournal.defaultNodeIdOf(environment)),
+        Integer.valueOf(
+            environment.getProperty(
+                CommandConstants.JOURNAL_RETENTION_PROCESSED_SECONDS_PROP,
+                CommandConstants.JOURNAL_RETENTION_PROCESSED_SECONDS_DEFAULT)),
+        Integer.valueOf(
+            environment.getProperty(
+                CommandConstants.JOURNAL_RETENTION_FAILED_SECONDS_PROP,
+                CommandConstants.JOURNAL_RETENTION_FAILED_SECONDS_DEFAULT)));
+    this.commandJournalWriter = new CommandJournalWriter(environment, logger, this.commandSourceStatements);
+  }
+
+  @Override
+  public CompletableFuture<Void> append(final CommandSource commandSource) {
+    return this.commandJournalWriter.write(commandSource);
+  }
+
+  @Override
+  public CompletableFuture<Void> appendAll(final List<CommandSource> commandSources) {
+    return CompletableFuture.allOf(
+        this.executeByPartition(commandSources, CommandSource::getCommandSourceKey,
+            this.commandSourceStatements::insert),
+        this.executeByPartition(commandSources, CommandSource::getCommandSourceKey,
+            this.commandSourceStatements::pending));
+  }
+
+  // the pending entry is only cleared once the status has landed, a crash in between leaves it for recovery
+  @Override
+  public CompletableFuture<Void> markProcessed(final CommandSourceKey commandSourceKey) {
+    try {
+      final Statement cleared = this.commandSourceStatements.cleared(commandSourceKey);
+      return this.commandSourceStatements.execute(this.commandSourceStatements.processed(commandSourceKey))
+          .thenCompose(ignored -> this.commandSourceStatements.execute(cleared));
+    } catch (final Throwable th) {
+      return CassandraCommandJournal.failed(th);
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> markProcessedAll(final List<CommandSourceKey> commandSourceKeys) {
+    final Map<List<Object>, List<Statement>> cleared;
+    try {
+      cleared = this.partition(commandSourceKeys, Function.identity(), this.commandSourceStatements::cleared);
+    } catch (final Throwable th) {
+      return CassandraCommandJournal.failed(th);
+    }
+    return this.executeByPartition(commandSourceKeys, Function.identity(), this.commandSourceStatements::processed)
+        .thenCompose(ignored -> this.executeAll(cleared));
+  }
+
+  @Override
+  public CompletableFuture<Void> markFailed(final CommandSource commandSource, final String failureMessage) {
+    try {
+      final CommandSourceKey commandSourceKey = commandSource.getCommandSourceKey();
+      final Statement cleared = this.commandSourceStatements.cleared(commandSourceKey);
+      final Statement failed = this.commandSourceStatements.isRewritingFailed()
+          ? this.commandSourceStatements.rewritten(commandSource, failureMessage)
+          : this.commandSourceStatements.failed(commandSourceKey, failureMessage);
+      return this.commandSourceStatements.execute(failed)
+          .thenCompose(ignored -> this.commandSourceStatements.execute(cleared));
+    } catch (final Throwable th) {
+      return CassandraCommandJournal.failed(th);
+    }
+  }
+
+  public String getNodeId() {
+    return this.commandSourceStatements.getNodeId();
+  }
+
+  // Takes over the pending entries of a shard this node left behind, or any other node's entries
+  // older than the grace period, and returns their command sources in the order they were accepted.
+  // Entries whose command source already carries a status are stale and cleared on the way.
+  public List<CommandSource> claimPending(final String source, final int shard, final long graceMillis) {
+    final long orphanedBefore = System.currentTimeMillis() - graceMillis;
+    final List<CommandSource> commandSources = new ArrayList<>();
+    for (final Row pending : this.commandSourceStatements.executeSync(
+        this.commandSourceStatements.pendingOf(source, shard))) {
+      final CommandSourceKey commandSourceKey = new CommandSourceKey();
+      commandSourceKey.setSource(source);
+      commandSourceKey.setBucket(pending.getString("bucket"));
+      commandSourceKey.setShard(shard);
+      commandSourceKey.setId(pending.getUUID("id"));
+
+      final String nodeId = pending.getString("node_id");
+      if (!this.getNodeId().equals(nodeId)) {
+        if (UUIDs.unixTimestamp(commandSourceKey.getId()) > orphanedBefore
+            || !this.commandSourceStatements.executeSync(
+            this.commandSourceStatements.claimed(commandSourceKey, nodeId)).wasApplied()) {
+          continue;
+        }
+      }
+
+      final Row row = this.commandSourceStatements.executeSync(
+          this.commandSourceStatements.select(commandSourceKey)).one();
+      if (row == null || !row.isNull("processed") || !row.isNull("failed")) {
+        this.clear(commandSourceKey);
+        continue;
+      }
+      commandSources.add(CassandraCommandJournal.commandSourceOf(commandSourceKey, row));
+    }
+    return commandSources;
+  }
+
+  // Copies every command source of a bucket into a gzip file, one length prefixed record per command
+  // followed by its status record, or -1 if it has none, and returns the number of commands written.
+  public long archive(final String source, final String bucket, final int shards, final Path file) throws IOException {
+    long archived = 0L;
+    try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new GZIPOutputStream(Files.newOutputStream(file))))) {
+      for (int shard = 0; shard < shards; shard++) {
+        for (final Row row : this.commandSourceStatements.executeSync(
+            this.commandSourceStatements.selectBucket(source, bucket, shard))) {
+          final CommandSourceKey commandSourceKey = new CommandSourceKey();
+          commandSourceKey.setSource(source);
+          commandSourceKey.setBucket(bucket);
+          commandSourceKey.setShard(shard);
+          commandSourceKey.setId(row.getUUID("id"));
+          CassandraCommandJournal.write(out,
+              CommandSourceRecords.encode(CassandraCommandJournal.commandSourceOf(commandSourceKey, row)));
+          if (!row.isNull("failed")) {
+            CassandraCommandJournal.write(out, CommandSourceRecords.encodeStatus(commandSourceKey,
+                CommandSourceRecords.FAILED, row.getString("failure_message")));
+          } else if (!row.isNull("processed")) {
+            CassandraCommandJournal.write(out, CommandSourceRecords.encodeStatus(commandSourceKey,
+                CommandSourceRecords.PROCESSED, null));
+          } else {
+            out.writeInt(-1);
+          }
+          archived++;
+        }
+      }
+    }
+    return archived;
+  }
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    this.commandJournalWriter.afterPropertiesSet();
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    this.commandJournalWriter.destroy();
+    if (!this.commandSourceStatements.awaitInFlight(CassandraCommandJournal.SHUTDOWN_TIMEOUT_MILLIS)) {
+      this.logger.warn("Command journal shut down with writes still in flight.");
+    }
+  }
+
+  private <E> CompletableFuture<Void> executeByPartition(final List<E> elements,
+                                                         final Function<E, CommandSourceKey> keyOf,
+                                                         final Function<E, Statement> statementOf) {
+    final Map<List<Object>, List<Statement>> partitions;
+    try {
+      partitions = this.partition(elements, keyOf, statementOf);
+    } catch (final Throwable th) {
+      return CassandraCommandJournal.failed(th);
+    }
+    return this.executeAll(partitions);
+  }
+
+  private <E> Map<List<Object>, List<Statement>> partition(final List<E> elements,
+                                                          final Function<E, CommandSourceKey> keyOf,
+                                                          final Function<E, Statement> statementOf) {
+    final Map<List<Object>, List<Statement>> partitions = new LinkedHashMap<>();
+    for (final E element : elements) {
+      partitions.computeIfAbsent(CommandJournalWriter.partitionOf(keyOf.apply(element)),
+          partition -> new ArrayList<>()).add(statementOf.apply(element));
+    }
+    return partitions;
+  }
+
+  private CompletableFuture<Void> executeAll(final Map<List<Object>, List<Statement>> partitions) {
+    final List<CompletableFuture<Void>> writes = new ArrayList<>(partitions.size());
+    partitions.values().forEach(statements -> writes.add(this.commandSourceStatements.executeUnlogged(statements)));
+    return writes.size() == 1 ? writes.get(0) : CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()]));
+  }
+
+  private CompletableFuture<Void> clear(final CommandSourceKey commandSourceKey) {
+    return this.commandSourceStatements.execute(this.commandSourceStatements.cleared(commandSourceKey));
+  }
+
+  // stable across restarts, so a node restarting right after a crash recovers its own pending entries
+  private static String defaultNodeIdOf(final Environment environment) {
+    String hostName;
+    try {
+      hostName = InetAddress.getLocalHost().getHostName();
+    } catch (final UnknownHostException uhex) {
+      hostName = "localhost";
+    }
+    return hostName + "/" + environment.getProperty(
+        CommandConstants.APPLICATION_NAME_PROP,
+        CommandConstants.APPLICATION_NAME_DEFAULT);
+  }
+
+  private static CommandSource commandSourceOf(final CommandSourceKey commandSourceKey, final Row row) {
+    final CommandSource commandSource = new CommandSource();
+    commandSource.setCommandSourceKey(commandSourceKey);
+    commandSource.setCreatedOn(row.getDate("created_on"));
+    commandSource.setCommandType(row.getString("command_type"));
+    commandSource.setCommand(row.getString("command"));
+    commandSource.setCodec(row.getString("codec"));
+    commandSource.setPayload(row.getBytes("payload"));
+    return commandSource;
+  }
+
+  private static void write(final DataOutputStream out, final ByteBuffer record) throws IOException {
+    out.writeInt(record.remaining());
+    out.write(record.array(), record.arrayOffset() + record.position(), record.remaining());
+  }
+
+  private static CompletableFuture<Void> failed(final Throwable th) {
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    future.completeExceptionally(th);
+    return future;
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public interface CommandJournal {
+
+  enum Backend {
+    CASSANDRA,
+    FILE,
+    MEMORY,
+    NONE
+  }
+
+  CompletableFuture<Void> append(final CommandSource commandSource);
+
+  CompletableFuture<Void> appendAll(final List<CommandSource> commandSources);
+
+  CompletableFuture<Void> markProcessed(final CommandSourceKey commandSourceKey);
+
+  CompletableFuture<Void> markProcessedAll(final List<CommandSourceKey> commandSourceKeys);
+
+  CompletableFuture<Void> markFailed(final CommandSource commandSource, final String failureMessage);
+}
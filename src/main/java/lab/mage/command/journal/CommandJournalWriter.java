@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import com.datastax.driver.core.BoundStatement;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.env.Environment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+final class CommandJournalWriter implements InitializingBean, DisposableBean {
+
+  private static final long IDLE_POLL_MILLIS = 100L;
+
+  private final Logger logger;
+  private final CommandSourceStatements commandSourceStatements;
+  private final long lingerNanos;
+  private final int batchSize;
+  private final BlockingQueue<PendingCommandSource> pendingCommandSources = new LinkedBlockingQueue<>();
+  private volatile boolean running;
+  private Thread flusher;
+
+  CommandJournalWriter(final Environment environment, final Logger logger,
+                       final CommandSourceStatements commandSourceStatements) {
+    super();
+    this.logger = logger;
+    this.commandSourceStatements = commandSourceStatements;
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Long.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_LINGER_MILLIS_PROP,
+            CommandConstants.JOURNAL_LINGER_MILLIS_DEFAULT)));
+    this.batchSize = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_BATCH_SIZE_PROP,
+            CommandConstants.JOURNAL_BATCH_SIZE_DEFAULT));
+  }
+
+  CompletableFuture<Void> write(final CommandSource commandSource) {
+    final PendingCommandSource pendingCommandSource = new PendingCommandSource(commandSource);
+    if (!this.running) {
+      CommandJournalWriter.reject(pendingCommandSource);
+    } else {
+      this.pendingCommandSources.add(pendingCommandSource);
+      // stopped in between, the flusher may have left already; whoever removes the entry settles it
+      if (!this.running && this.pendingCommandSources.remove(pendingCommandSource)) {
+        CommandJournalWriter.reject(pendingCommandSource);
+      }
+    }
+    return pendingCommandSource.acknowledgement;
+  }
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    this.running = true;
+    this.flusher = new Thread(this::run, CommandConstants.JOURNAL_WRITER_NAME);
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    this.running = false;
+    this.flusher.join();
+  }
+
+  private void run() {
+    final List<PendingCommandSource> batch = new ArrayList<>(this.batchSize);
+    while (this.running || !this.pendingCommandSources.isEmpty()) {
+      try {
+        final PendingCommandSource first = this.pendingCommandSources.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        this.collect(batch);
+        this.flush(batch);
+      } catch (final InterruptedException iex) {
+        Thread.currentThread().interrupt();
+        break;
+      } finally {
+        batch.clear();
+      }
+    }
+    this.pendingCommandSources.drainTo(batch);
+    batch.forEach(CommandJournalWriter::reject);
+  }
+
+  private void collect(final List<PendingCommandSource> batch) throws InterruptedException {
+    final long deadline = System.nanoTime() + this.lingerNanos;
+    while (batch.size() < this.batchSize) {
+      if (this.pendingCommandSources.drainTo(batch, this.batchSize - batch.size()) > 0) {
+        continue;
+      }
+      final long remaining = deadline - System.nanoTime();
+      if (remaining <= 0L) {
+        return;
+      }
+      final PendingCommandSource next = this.pendingCommandSources.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) {
+        return;
+      }
+      batch.add(next);
+    }
+  }
+
+  private void flush(final List<PendingCommandSource> batch) {
+    this.logger.debug("CommandJournalWriter::flush called for {} command sources.", batch.size());
+    final Map<List<Object>, List<PendingCommandSource>> partitions = new LinkedHashMap<>();
+    for (final PendingCommandSource pendingCommandSource : batch) {
+      partitions.computeIfAbsent(
+          CommandJournalWriter.partitionOf(pendingCommandSource.commandSource.getCommandSourceKey()),
+          partition -> new ArrayList<>()).add(pendingCommandSource);
+    }
+
+    // the partitions are written concurrently, the flusher moves on to the next batch right away
+    for (final List<PendingCommandSource> partition : partitions.values()) {
+      final List<BoundStatement> statements = new ArrayList<>(partition.size());
+      final List<BoundStatement> pendingStatements = new ArrayList<>(partition.size());
+      final CompletableFuture<Void> write;
+      try {
+        partition.forEach(pendingCommandSource -> {
+          statements.add(this.commandSourceStatements.insert(pendingCommandSource.commandSource));
+          pendingStatements.add(this.commandSourceStatements.pending(pendingCommandSource.commandSource));
+        });
+        write = CompletableFuture.allOf(
+            this.commandSourceStatements.executeUnlogged(statements),
+            this.commandSourceStatements.executeUnlogged(pendingStatements));
+      } catch (final Throwable th) {
+        this.logger.error(th.getMessage(), th);
+        partition.forEach(pendingCommandSource -> pendingCommandSource.acknowledgement.completeExceptionally(th));
+        continue;
+      }
+      write.whenComplete((ignored, th) -> {
+        if (th != null) {
+          this.logger.error(th.getMessage(), th);
+          partition.forEach(pendingCommandSource -> pendingCommandSource.acknowledgement.completeExceptionally(th));
+        } else {
+          partition.forEach(pendingCommandSource -> pendingCommandSource.acknowledgement.complete(null));
+        }
+      });
+    }
+  }
+
+  private static void reject(final PendingCommandSource pendingCommandSource) {
+    pendingCommandSource.acknowledgement.completeExceptionally(
+        new IllegalStateException("Command journal writer not running!"));
+  }
+
+  static List<Object> partitionOf(final CommandSourceKey commandSourceKey) {
+    return Arrays.asList(commandSourceKey.getSource(), commandSourceKey.getBucket(), commandSourceKey.getShard());
+  }
+
+  private static final class PendingCommandSource {
+
+    private final CommandSource commandSource;
+    private final CompletableFuture<Void> acknowledgement = new CompletableFuture<>();
+
+    private PendingCommandSource(final CommandSource commandSource) {
+      super();
+      this.commandSource = commandSource;
+    }
+  }
+}
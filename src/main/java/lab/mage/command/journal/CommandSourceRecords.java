@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.UUID;
+
+final class CommandSourceRecords {
+
+  static final byte PROCESSED = 1;
+  static final byte FAILED = 2;
+
+  private static final long NO_DATE = Long.MIN_VALUE;
+  private static final int NO_SHARD = -1;
+
+  private CommandSourceRecords() {
+    super();
+  }
+
+  static ByteBuffer encode(final CommandSource commandSource) {
+    final CommandSourceKey commandSourceKey = commandSource.getCommandSourceKey();
+    final byte[] source = CommandSourceRecords.bytesOf(commandSourceKey.getSource());
+    final byte[] bucket = CommandSourceRecords.bytesOf(commandSourceKey.getBucket());
+    final byte[] commandType = CommandSourceRecords.bytesOf(commandSource.getCommandType());
+    final byte[] codec = CommandSourceRecords.bytesOf(commandSource.getCodec());
+    final byte[] command = CommandSourceRecords.bytesOf(commandSource.getCommand());
+    final byte[] payload = CommandSourceRecords.bytesOf(commandSource.getPayload());
+
+    final ByteBuffer record = ByteBuffer.allocate(4 + 16 + 8
+        + CommandSourceRecords.sizeOf(source) + CommandSourceRecords.sizeOf(bucket)
+        + CommandSourceRecords.sizeOf(commandType) + CommandSourceRecords.sizeOf(codec)
+        + CommandSourceRecords.sizeOf(command) + CommandSourceRecords.sizeOf(payload));
+    CommandSourceRecords.put(record, source);
+    CommandSourceRecords.put(record, bucket);
+    record.putInt(commandSourceKey.getShard() != null ? commandSourceKey.getShard() : CommandSourceRecords.NO_SHARD);
+    record.putLong(commandSourceKey.getId().getMostSignificantBits());
+    record.putLong(commandSourceKey.getId().getLeastSignificantBits());
+    record.putLong(commandSource.getCreatedOn() != null
+        ? commandSource.getCreatedOn().getTime() : CommandSourceRecords.NO_DATE);
+    CommandSourceRecords.put(record, commandType);
+    CommandSourceRecords.put(record, codec);
+    CommandSourceRecords.put(record, command);
+    CommandSourceRecords.put(record, payload);
+    record.flip();
+    return record;
+  }
+
+  static CommandSource decode(final ByteBuffer record) {
+    final CommandSourceKey commandSourceKey = new CommandSourceKey();
+    commandSourceKey.setSource(CommandSourceRecords.getString(record));
+    commandSourceKey.setBucket(CommandSourceRecords.getString(record));
+    final int shard = record.getInt();
+    commandSourceKey.setShard(shard != CommandSourceRecords.NO_SHARD ? shard : null);
+    commandSourceKey.setId(new UUID(record.getLong(), record.getLong()));
+
+    final CommandSource commandSource = new CommandSource();
+    commandSource.setCommandSourceKey(commandSourceKey);
+    final long createdOn = record.getLong();
+    commandSource.setCreatedOn(createdOn != CommandSourceRecords.NO_DATE ? new Date(createdOn) : null);
+    commandSource.setCommandType(CommandSourceRecords.getString(record));
+    commandSource.setCodec(CommandSourceRecords.getString(record));
+    commandSource.setCommand(CommandSourceRecords.getString(record));
+    final byte[] payload = CommandSourceRecords.get(record);
+    commandSource.setPayload(payload != null ? ByteBuffer.wrap(payload) : null);
+    return commandSource;
+  }
+
+  static ByteBuffer encodeStatus(final CommandSourceKey commandSourceKey, final byte status,
+                                 final String failureMessage) {
+    final byte[] message = CommandSourceRecords.bytesOf(failureMessage);
+    final ByteBuffer record = ByteBuffer.allocate(16 + 1 + CommandSourceRecords.sizeOf(message));
+    record.putLong(commandSourceKey.getId().getMostSignificantBits());
+    record.putLong(commandSourceKey.getId().getLeastSignificantBits());
+    record.put(status);
+    CommandSourceRecords.put(record, message);
+    record.flip();
+    return record;
+  }
+
+  static UUID statusIdOf(final ByteBuffer record) {
+    return new UUID(record.getLong(0), record.getLong(8));
+  }
+
+  static void applyStatus(final ByteBuffer record, final CommandSource commandSource) {
+    record.position(16);
+    if (record.get() == CommandSourceRecords.PROCESSED) {
+      commandSource.setProcessed(Boolean.TRUE);
+    } else {
+      commandSource.setFailed(Boolean.TRUE);
+      commandSource.setFailureMessage(CommandSourceRecords.getString(record));
+    }
+  }
+
+  private static byte[] bytesOf(final String value) {
+    return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+  }
+
+  private static byte[] bytesOf(final ByteBuffer value) {
+    if (value == null) {
+      return null;
+    }
+    final byte[] bytes = new byte[value.remaining()];
+    value.duplicate().get(bytes);
+    return bytes;
+  }
+
+  private static int sizeOf(final byte[] value) {
+    return 4 + (value != null ? value.length : 0);
+  }
+
+  private static void put(final ByteBuffer record, final byte[] value) {
+    if (value == null) {
+      record.putInt(-1);
+    } else {
+      record.putInt(value.length);
+      record.put(value);
+    }
+  }
+
+  private static byte[] get(final ByteBuffer record) {
+    final int length = record.getInt();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] value = new byte[length];
+    record.get(value);
+    return value;
+  }
+
+  private static String getString(final ByteBuffer record) {
+    final byte[] value = CommandSourceRecords.get(record);
+    return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+  }
+}
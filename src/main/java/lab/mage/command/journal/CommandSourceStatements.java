@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Prepared on first use, the driver re-prepares them by itself whenever a node has lost them.
+final class CommandSourceStatements {
+
+  private static final long AWAIT_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+  private static final String KEY_CLAUSE = " WHERE source = ? AND bucket = ? AND shard = ? AND id = ?";
+  private static final String PENDING_KEY_CLAUSE = " WHERE source = ? AND shard = ? AND id = ?";
+
+  private final Session session;
+  private final String nodeId;
+  private final int processedTtl;
+  private final int failedTtl;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private volatile PreparedStatement insert;
+  private volatile PreparedStatement processed;
+  private volatile PreparedStatement failed;
+  private volatile PreparedStatement rewritten;
+  private volatile PreparedStatement selectBucket;
+  private volatile PreparedStatement select;
+  private volatile PreparedStatement pending;
+  private volatile PreparedStatement cleared;
+  private volatile PreparedStatement claimed;
+  private volatile PreparedStatement pendingOf;
+
+  CommandSourceStatements(final Session session, final String nodeId, final int processedTtl, final int failedTtl) {
+    super();
+    this.session = session;
+    this.nodeId = nodeId;
+    this.processedTtl = processedTtl;
+    this.failedTtl = failedTtl;
+  }
+
+  String getNodeId() {
+    return this.nodeId;
+  }
+
+  // TTLs are per cell, a failed row only outlives the processed TTL when it is written again as a whole
+  boolean isRewritingFailed() {
+    return this.failedTtl != this.processedTtl;
+  }
+
+  BoundStatement insert(final CommandSource commandSource) {
+    final CommandSourceKey commandSourceKey = commandSource.getCommandSourceKey();
+    this.prepareStatus();
+    if (this.insert == null) {
+      this.insert = this.session.prepare("INSERT INTO " + CommandConstants.COMMAND_SOURCE_TABLE_NAME
+          + " (source, bucket, shard, id, created_on, command_type, codec, payload) VALUES (?, ?, ?, ?, ?, ?, ?, ?)"
+          + " USING TTL ?");
+    }
+    return this.insert.bind(commandSourceKey.getSource(), commandSourceKey.getBucket(),
+        commandSourceKey.getShard(), commandSourceKey.getId(), commandSource.getCreatedOn(),
+        commandSource.getCommandType(), commandSource.getCodec(), commandSource.getPayload().duplicate(),
+        this.processedTtl);
+  }
+
+  BoundStatement processed(final CommandSourceKey commandSourceKey) {
+    this.prepareStatus();
+    return this.processed.bind(this.remainingTtlOf(commandSourceKey), commandSourceKey.getSource(),
+        commandSourceKey.getBucket(), commandSourceKey.getShard(), commandSourceKey.getId());
+  }
+
+  BoundStatement failed(final CommandSourceKey commandSourceKey, final String failureMessage) {
+    this.prepareStatus();
+    return this.failed.bind(this.remainingTtlOf(commandSourceKey), failureMessage, commandSourceKey.getSource(),
+        commandSourceKey.getBucket(), commandSourceKey.getShard(), commandSourceKey.getId());
+  }
+
+  BoundStatement rewritten(final CommandSource commandSource, final String failureMessage) {
+    final CommandSourceKey commandSourceKey = commandSource.getCommandSourceKey();
+    this.prepareStatus();
+    return this.rewritten.bind(commandSourceKey.getSource(), commandSourceKey.getBucket(),
+        commandSourceKey.getShard(), commandSourceKey.getId(), commandSource.getCreatedOn(),
+        commandSource.getCommandType(), commandSource.getCodec(), commandSource.getPayload().duplicate(),
+        failureMessage, this.failedTtl);
+  }
+
+  BoundStatement selectBucket(final String source, final String bucket, final int shard) {
+    if (this.selectBucket == null) {
+      this.selectBucket = this.session.prepare("SELECT * FROM " + CommandConstants.COMMAND_SOURCE_TABLE_NAME
+          + " WHERE source = ? AND bucket = ? AND shard = ? ORDER BY id ASC");
+    }
+    return this.selectBucket.bind(source, bucket, shard);
+  }
+
+  BoundStatement select(final CommandSourceKey commandSourceKey) {
+    if (this.select == null) {
+      this.select = this.session.prepare("SELECT * FROM " + CommandConstants.COMMAND_SOURCE_TABLE_NAME
+          + CommandSourceStatements.KEY_CLAUSE);
+    }
+    return this.select.bind(commandSourceKey.getSource(), commandSourceKey.getBucket(),
+        commandSourceKey.getShard(), commandSourceKey.getId());
+  }
+
+  BoundStatement pending(final CommandSource commandSource) {
+    final CommandSourceKey commandSourceKey = commandSource.getCommandSourceKey();
+    if (this.pending == null) {
+      this.pending = this.session.prepare("INSERT INTO " + CommandConstants.COMMAND_PENDING_TABLE_NAME
+          + " (source, shard, id, bucket, node_id) VALUES (?, ?, ?, ?, ?)");
+    }
+    return this.pending.bind(commandSourceKey.getSource(), commandSourceKey.getShard(), commandSourceKey.getId(),
+        commandSourceKey.getBucket(), this.nodeId);
+  }
+
+  BoundStatement cleared(final CommandSourceKey commandSourceKey) {
+    this.prepareStatus();
+    return this.cleared.bind(commandSourceKey.getSource(), commandSourceKey.getShard(), commandSourceKey.getId());
+  }
+
+  // a lightweight transaction, of several recovering nodes only one takes over an orphaned entry
+  BoundStatement claimed(final CommandSourceKey commandSourceKey, final String previousNodeId) {
+    if (this.claimed == null) {
+      this.claimed = this.session.prepare("UPDATE " + CommandConstants.COMMAND_PENDING_TABLE_NAME
+          + " SET node_id = ?" + CommandSourceStatements.PENDING_KEY_CLAUSE + " IF node_id = ?");
+    }
+    return this.claimed.bind(this.nodeId, commandSourceKey.getSource(), commandSourceKey.getShard(),
+        commandSourceKey.getId(), previousNodeId);
+  }
+
+  BoundStatement pendingOf(final String source, final int shard) {
+    if (this.pendingOf == null) {
+      this.pendingOf = this.session.prepare("SELECT id, bucket, node_id FROM "
+          + CommandConstants.COMMAND_PENDING_TABLE_NAME + " WHERE source = ? AND shard = ?");
+    }
+    return this.pendingOf.bind(source, shard);
+  }
+
+  // status cells expire together with the cells written on insert, not a status update later
+  private int remainingTtlOf(final CommandSourceKey commandSourceKey) {
+    if (this.processedTtl <= 0 || commandSourceKey.getId().version() != 1) {
+      return this.processedTtl;
+    }
+    final long age = TimeUnit.MILLISECONDS.toSeconds(
+        System.currentTimeMillis() - UUIDs.unixTimestamp(commandSourceKey.getId()));
+    return (int) Math.max(1L, this.processedTtl - age);
+  }
+
+  // Status updates are often chained onto a completed append and then run on a driver I/O thread,
+  // where a blocking prepare would stall the connection. They are prepared along with the inserts.
+  private void prepareStatus() {
+    if (this.cleared != null) {
+      return;
+    }
+    this.processed = this.session.prepare("UPDATE " + CommandConstants.COMMAND_SOURCE_TABLE_NAME
+        + " USING TTL ? SET processed = true" + CommandSourceStatements.KEY_CLAUSE);
+    this.failed = this.session.prepare("UPDATE " + CommandConstants.COMMAND_SOURCE_TABLE_NAME
+        + " USING TTL ? SET failed = true, failure_message = ?" + CommandSourceStatements.KEY_CLAUSE);
+    this.rewritten = this.session.prepare("INSERT INTO " + CommandConstants.COMMAND_SOURCE_TABLE_NAME
+        + " (source, bucket, shard, id, created_on, command_type, codec, payload, failed, failure_message)"
+        + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, true, ?) USING TTL ?");
+    this.cleared = this.session.prepare("DELETE FROM " + CommandConstants.COMMAND_PENDING_TABLE_NAME
+        + CommandSourceStatements.PENDING_KEY_CLAUSE);
+  }
+
+  ResultSet executeSync(final Statement statement) {
+    return this.session.execute(statement);
+  }
+
+  CompletableFuture<Void> executeUnlogged(final List<? extends Statement> statements) {
+    if (statements.size() == 1) {
+      return this.execute(statements.get(0));
+    }
+    final BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+    batch.addAll(statements);
+    return this.execute(batch);
+  }
+
+  CompletableFuture<Void> execute(final Statement statement) {
+    return this.query(statement).thenApply(resultSet -> null);
+  }
+
+  CompletableFuture<ResultSet> query(final Statement statement) {
+    final CompletableFuture<ResultSet> future = new CompletableFuture<>();
+    this.inFlight.incrementAndGet();
+    try {
+      Futures.addCallback(this.session.executeAsync(statement), new FutureCallback<ResultSet>() {
+        @Override
+        public void onSuccess(final ResultSet resultSet) {
+          CommandSourceStatements.this.inFlight.decrementAndGet();
+          future.complete(resultSet);
+        }
+
+        @Override
+        public void onFailure(final Throwable th) {
+          CommandSourceStatements.this.inFlight.decrementAndGet();
+          future.completeExceptionally(th);
+        }
+      });
+    } catch (final Throwable th) {
+      this.inFlight.decrementAndGet();
+      future.completeExceptionally(th);
+    }
+    return future;
+  }
+
+  boolean awaitInFlight(final long timeoutMillis) {
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (this.inFlight.get() > 0) {
+      if (System.nanoTime() - deadline >= 0L) {
+        return false;
+      }
+      LockSupport.parkNanos(CommandSourceStatements.AWAIT_PARK_NANOS);
+    }
+    return true;
+  }
+}
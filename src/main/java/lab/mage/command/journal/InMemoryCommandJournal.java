@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InMemoryCommandJournal implements CommandJournal {
+
+  private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+  private final int capacity;
+  private final ConcurrentHashMap<CommandSourceKey, CommandSource> commandSources = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<CommandSourceKey> insertionOrder = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+
+  public InMemoryCommandJournal(final int capacity) {
+    super();
+    this.capacity = capacity;
+  }
+
+  public CommandSource find(final CommandSourceKey commandSourceKey) {
+    return this.commandSources.get(commandSourceKey);
+  }
+
+  public List<CommandSource> findAll() {
+    return new ArrayList<>(this.commandSources.values());
+  }
+
+  @Override
+  public CompletableFuture<Void> append(final CommandSource commandSource) {
+    if (this.commandSources.putIfAbsent(commandSource.getCommandSourceKey(), commandSource) == null) {
+      this.insertionOrder.offer(commandSource.getCommandSourceKey());
+      // oldest entries are evicted once the journal is full, the journal never blocks a dispatch
+      if (this.size.incrementAndGet() > this.capacity) {
+        final CommandSourceKey eldest = this.insertionOrder.poll();
+        if (eldest != null && this.commandSources.remove(eldest) != null) {
+          this.size.decrementAndGet();
+        }
+      }
+    }
+    return InMemoryCommandJournal.DONE;
+  }
+
+  @Override
+  public CompletableFuture<Void> appendAll(final List<CommandSource> commandSources) {
+    commandSources.forEach(this::append);
+    return InMemoryCommandJournal.DONE;
+  }
+
+  @Override
+  public CompletableFuture<Void> markProcessed(final CommandSourceKey commandSourceKey) {
+    final CommandSource commandSource = this.commandSources.get(commandSourceKey);
+    if (commandSource != null) {
+      commandSource.setProcessed(Boolean.TRUE);
+    }
+    return InMemoryCommandJournal.DONE;
+  }
+
+  @Override
+  public CompletableFuture<Void> markProcessedAll(final List<CommandSourceKey> commandSourceKeys) {
+    commandSourceKeys.forEach(this::markProcessed);
+    return InMemoryCommandJournal.DONE;
+  }
+
+  @Override
+  public CompletableFuture<Void> markFailed(final CommandSource commandSource, final String failureMessage) {
+    final CommandSource journaled = this.commandSources.get(commandSource.getCommandSourceKey());
+    if (journaled != null) {
+      journaled.setFailed(Boolean.TRUE);
+      journaled.setFailureMessage(failureMessage);
+    }
+    return InMemoryCommandJournal.DONE;
+  }
+}
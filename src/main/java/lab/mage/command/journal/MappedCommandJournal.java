@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+public class MappedCommandJournal implements CommandJournal, InitializingBean, DisposableBean {
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50L);
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+  private final Logger logger;
+  private final MappedLog commandLog;
+  private final MappedLog statusLog;
+  private final CommandJournal forwardJournal;
+  private final ConcurrentHashMap<UUID, CompletableFuture<Void>> forwardedAppends = new ConcurrentHashMap<>();
+  private volatile boolean running;
+  private Thread syncer;
+  private ExecutorService forwarder;
+
+  public MappedCommandJournal(final Environment environment, final Logger logger,
+                              final CommandJournal forwardJournal) {
+    super();
+    this.logger = logger;
+    this.forwardJournal = forwardJournal;
+    final Path directory = Paths.get(
+        environment.getProperty(
+            CommandConstants.JOURNAL_FILE_DIRECTORY_PROP,
+            CommandConstants.JOURNAL_FILE_DIRECTORY_DEFAULT));
+    final int segmentSize = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_FILE_SEGMENT_SIZE_PROP,
+            CommandConstants.JOURNAL_FILE_SEGMENT_SIZE_DEFAULT));
+    this.commandLog = new MappedLog(directory, CommandConstants.COMMAND_LOG_PREFIX, segmentSize);
+    this.statusLog = new MappedLog(directory, CommandConstants.STATUS_LOG_PREFIX, segmentSize);
+  }
+
+  @Override
+  public CompletableFuture<Void> append(final CommandSource commandSource) {
+    return this.write(this.commandLog, CommandSourceRecords.encode(commandSource),
+        () -> this.forwardAppend(commandSource));
+  }
+
+  @Override
+  public CompletableFuture<Void> appendAll(final List<CommandSource> commandSources) {
+    final CompletableFuture<?>[] acknowledgements = new CompletableFuture<?>[commandSources.size()];
+    for (int i = 0; i < acknowledgements.length; i++) {
+      acknowledgements[i] = this.append(commandSources.get(i));
+    }
+    return CompletableFuture.allOf(acknowledgements);
+  }
+
+  @Override
+  public CompletableFuture<Void> markProcessed(final CommandSourceKey commandSourceKey) {
+    return this.write(this.statusLog,
+        CommandSourceRecords.encodeStatus(commandSourceKey, CommandSourceRecords.PROCESSED, null),
+        () -> this.afterForwardedAppend(commandSourceKey,
+            () -> this.forwardJournal.markProcessed(commandSourceKey)));
+  }
+
+  @Override
+  public CompletableFuture<Void> markProcessedAll(final List<CommandSourceKey> commandSourceKeys) {
+    final CompletableFuture<?>[] acknowledgements = new CompletableFuture<?>[commandSourceKeys.size()];
+    for (int i = 0; i < acknowledgements.length; i++) {
+      acknowledgements[i] = this.markProcessed(commandSourceKeys.get(i));
+    }
+    return CompletableFuture.allOf(acknowledgements);
+  }
+
+  @Override
+  public CompletableFuture<Void> markFailed(final CommandSource commandSource, final String failureMessage) {
+    return this.write(this.statusLog,
+        CommandSourceRecords.encodeStatus(commandSource.getCommandSourceKey(), CommandSourceRecords.FAILED,
+            failureMessage),
+        () -> this.afterForwardedAppend(commandSource.getCommandSourceKey(),
+            () -> this.forwardJournal.markFailed(commandSource, failureMessage)));
+  }
+
+  public void read(final Consumer<CommandSource> consumer) throws IOException {
+    final Map<UUID, ByteBuffer> statuses = new HashMap<>();
+    this.statusLog.scan(record -> statuses.put(CommandSourceRecords.statusIdOf(record), record));
+    this.commandLog.scan(record -> {
+      final CommandSource commandSource = CommandSourceRecords.decode(record);
+      final ByteBuffer status = statuses.get(commandSource.getCommandSourceKey().getId());
+      if (status != null) {
+        CommandSourceRecords.applyStatus(status, commandSource);
+      }
+      consumer.accept(commandSource);
+    });
+  }
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    if (this.forwardJournal instanceof InitializingBean) {
+      ((InitializingBean) this.forwardJournal).afterPropertiesSet();
+    }
+    this.commandLog.open();
+    this.statusLog.open();
+    if (this.forwardJournal != null) {
+      this.forwarder = Executors.newSingleThreadExecutor(
+          new CustomizableThreadFactory(CommandConstants.JOURNAL_FORWARDER_PREFIX));
+    }
+    this.running = true;
+    this.syncer = new Thread(this::run, CommandConstants.JOURNAL_SYNC_NAME);
+    this.syncer.setDaemon(true);
+    this.syncer.start();
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    this.running = false;
+    this.syncer.join();
+    if (this.forwarder != null) {
+      this.forwarder.shutdown();
+      this.forwarder.awaitTermination(MappedCommandJournal.SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    if (this.forwardJournal instanceof DisposableBean) {
+      ((DisposableBean) this.forwardJournal).destroy();
+    }
+  }
+
+  private CompletableFuture<Void> write(final MappedLog mappedLog, final ByteBuffer record,
+                                        final Supplier<CompletableFuture<Void>> forward) {
+    if (!this.running) {
+      final CompletableFuture<Void> rejected = new CompletableFuture<>();
+      rejected.completeExceptionally(new IllegalStateException("Command journal not running!"));
+      return rejected;
+    }
+    final CompletableFuture<Void> acknowledgement = mappedLog.append(record);
+    if (this.forwarder != null) {
+      acknowledgement.thenComposeAsync(ignored -> forward.get(), this.forwarder).exceptionally(th -> {
+        this.logger.error(th.getMessage(), th);
+        return null;
+      });
+    }
+    return acknowledgement;
+  }
+
+  private CompletableFuture<Void> forwardAppend(final CommandSource commandSource) {
+    final UUID id = commandSource.getCommandSourceKey().getId();
+    final CompletableFuture<Void> forwarded = this.forwardJournal.append(commandSource);
+    this.forwardedAppends.put(id, forwarded);
+    forwarded.whenComplete((ignored, th) -> this.forwardedAppends.remove(id, forwarded));
+    return forwarded;
+  }
+
+  // the forward journal may still be writing the command, its status must not land first
+  private CompletableFuture<Void> afterForwardedAppend(final CommandSourceKey commandSourceKey,
+                                                       final Supplier<CompletableFuture<Void>> forward) {
+    final CompletableFuture<Void> forwardedAppend = this.forwardedAppends.get(commandSourceKey.getId());
+    return forwardedAppend != null ? forwardedAppend.thenCompose(ignored -> forward.get()) : forward.get();
+  }
+
+  private void run() {
+    // group commit, every round forces the segments touched since the previous round exactly once
+    while (this.running || this.commandLog.hasPendingRecords() || this.statusLog.hasPendingRecords()) {
+      if (!this.commandLog.hasPendingRecords() && !this.statusLog.hasPendingRecords()) {
+        LockSupport.parkNanos(MappedCommandJournal.IDLE_PARK_NANOS);
+        continue;
+      }
+      this.commandLog.sync();
+      this.statusLog.sync();
+    }
+  }
+}
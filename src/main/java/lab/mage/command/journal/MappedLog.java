@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Records are framed as [length][crc32][bytes] and appended to fixed size, memory-mapped segment files.
+// Appenders reserve their region with a single atomic add and copy into the mapping without any lock;
+// only the rare roll to a fresh segment synchronizes. Durability is acknowledged by sync(), which
+// forces every touched segment once for all records appended since the previous call.
+final class MappedLog {
+
+  private static final int HEADER_SIZE = 8;
+  private static final String SUFFIX = ".log";
+
+  private final Path directory;
+  private final String prefix;
+  private final int segmentSize;
+  private final ConcurrentLinkedQueue<PendingRecord> pendingRecords = new ConcurrentLinkedQueue<>();
+  private volatile Segment segment;
+
+  MappedLog(final Path directory, final String prefix, final int segmentSize) {
+    super();
+    this.directory = directory;
+    this.prefix = prefix;
+    this.segmentSize = segmentSize;
+  }
+
+  void open() throws IOException {
+    Files.createDirectories(this.directory);
+    final List<Path> segments = this.segments();
+    this.segment = this.map(segments.isEmpty() ? 1L : this.indexOf(segments.get(segments.size() - 1)) + 1L);
+  }
+
+  CompletableFuture<Void> append(final ByteBuffer record) {
+    final int length = MappedLog.HEADER_SIZE + record.remaining();
+    if (length > this.segmentSize) {
+      throw new IllegalArgumentException("Record of " + length + " bytes exceeds segment size!");
+    }
+    final CRC32 crc32 = new CRC32();
+    crc32.update(record.array(), record.arrayOffset() + record.position(), record.remaining());
+
+    while (true) {
+      final Segment current = this.segment;
+      final int position = current.position.getAndAdd(length);
+      if (position + length <= this.segmentSize && position >= 0) {
+        final ByteBuffer target = current.buffer.duplicate();
+        target.position(position);
+        target.putInt(record.remaining());
+        target.putInt((int) crc32.getValue());
+        target.put(record);
+        final PendingRecord pendingRecord = new PendingRecord(current);
+        this.pendingRecords.offer(pendingRecord);
+        return pendingRecord.acknowledgement;
+      }
+      this.roll(current);
+    }
+  }
+
+  boolean hasPendingRecords() {
+    return !this.pendingRecords.isEmpty();
+  }
+
+  void sync() {
+    final List<PendingRecord> batch = new ArrayList<>();
+    PendingRecord pendingRecord;
+    while ((pendingRecord = this.pendingRecords.poll()) != null) {
+      batch.add(pendingRecord);
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    final Map<Segment, Throwable> forced = new IdentityHashMap<>();
+    for (final PendingRecord record : batch) {
+      if (!forced.containsKey(record.segment)) {
+        try {
+          record.segment.buffer.force();
+          forced.put(record.segment, null);
+        } catch (final Throwable th) {
+          forced.put(record.segment, th);
+        }
+      }
+      final Throwable failure = forced.get(record.segment);
+      if (failure == null) {
+        record.acknowledgement.complete(null);
+      } else {
+        record.acknowledgement.completeExceptionally(failure);
+      }
+    }
+  }
+
+  void scan(final Consumer<ByteBuffer> consumer) throws IOException {
+    final CRC32 crc32 = new CRC32();
+    for (final Path path : this.segments()) {
+      try (final FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+        final MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0L, fileChannel.size());
+        while (buffer.remaining() >= MappedLog.HEADER_SIZE) {
+          final int length = buffer.getInt();
+          final int crc = buffer.getInt();
+          if (length <= 0 || length > buffer.remaining()) {
+            break;
+          }
+          final byte[] record = new byte[length];
+          buffer.get(record);
+          crc32.reset();
+          crc32.update(record, 0, length);
+          // torn records, left behind by a crash before their segment was forced, are skipped
+          if ((int) crc32.getValue() == crc) {
+            consumer.accept(ByteBuffer.wrap(record));
+          }
+        }
+      }
+    }
+  }
+
+  private synchronized void roll(final Segment full) {
+    if (this.segment == full) {
+      try {
+        this.segment = this.map(full.index + 1L);
+      } catch (final IOException ioex) {
+        throw new UncheckedIOException(ioex);
+      }
+    }
+  }
+
+  private Segment map(final long index) throws IOException {
+    final Path path = this.directory.resolve(String.format("%s-%019d%s", this.prefix, index, MappedLog.SUFFIX));
+    try (final FileChannel fileChannel = FileChannel.open(path,
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      return new Segment(index, fileChannel.map(FileChannel.MapMode.READ_WRITE, 0L, this.segmentSize));
+    }
+  }
+
+  private List<Path> segments() throws IOException {
+    final List<Path> segments = new ArrayList<>();
+    try (final DirectoryStream<Path> directoryStream =
+             Files.newDirectoryStream(this.directory, this.prefix + "-*" + MappedLog.SUFFIX)) {
+      directoryStream.forEach(segments::add);
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private long indexOf(final Path segment) {
+    final String fileName = segment.getFileName().toString();
+    return Long.parseLong(fileName.substring(this.prefix.length() + 1, fileName.length() - MappedLog.SUFFIX.length()));
+  }
+
+  private static final class Segment {
+
+    private final long index;
+    private final MappedByteBuffer buffer;
+    private final AtomicInteger position = new AtomicInteger();
+
+    private Segment(final long index, final MappedByteBuffer buffer) {
+      super();
+      this.index = index;
+      this.buffer = buffer;
+    }
+  }
+
+  private static final class PendingRecord {
+
+    private final Segment segment;
+    private final CompletableFuture<Void> acknowledgement = new CompletableFuture<>();
+
+    private PendingRecord(final Segment segment) {
+      super();
+      this.segment = segment;
+    }
+  }
+}
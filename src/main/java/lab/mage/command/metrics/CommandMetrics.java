@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.metrics;
+
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@Component
+public class CommandMetrics implements DisposableBean {
+
+  private final Logger logger;
+  private final boolean jmxEnabled;
+  private final String application;
+  private final MBeanServer mBeanServer;
+  private final ConcurrentHashMap<Class<?>, CommandTypeMetrics> commandTypeMetrics = new ConcurrentHashMap<>();
+  private final List<ObjectName> registeredNames = new CopyOnWriteArrayList<>();
+  // shared by every command type without a handler, never registered so unknown types can't pile up MBeans
+  private final CommandTypeMetrics unknownCommandMetrics = new CommandTypeMetrics("unknown");
+
+  @Autowired
+  public CommandMetrics(final Environment environment,
+                        @Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                        final Optional<CommandExecutorMXBean> commandExecutor) {
+    super();
+    this.logger = logger;
+    this.jmxEnabled = Boolean.valueOf(
+        environment.getProperty(
+            CommandConstants.METRICS_JMX_ENABLED_PROP,
+            CommandConstants.METRICS_JMX_ENABLED_DEFAULT));
+    this.application = environment.getProperty(
+        CommandConstants.APPLICATION_NAME_PROP,
+        CommandConstants.APPLICATION_NAME_DEFAULT);
+    this.mBeanServer = this.jmxEnabled ? ManagementFactory.getPlatformMBeanServer() : null;
+    commandExecutor.ifPresent(mBean -> this.register(mBean, "CommandExecutor", null));
+  }
+
+  public CommandTypeMetrics of(final Class<?> commandClass) {
+    final CommandTypeMetrics existing = this.commandTypeMetrics.get(commandClass);
+    if (existing != null) {
+      return existing;
+    }
+    return this.commandTypeMetrics.computeIfAbsent(commandClass, type -> {
+      final CommandTypeMetrics metrics = new CommandTypeMetrics(type.getName());
+      this.register(metrics, "CommandTypeMetrics", type.getName());
+      return metrics;
+    });
+  }
+
+  public CommandTypeMetrics unknown() {
+    return this.unknownCommandMetrics;
+  }
+
+  public List<CommandTypeMetrics> snapshot() {
+    return new ArrayList<>(this.commandTypeMetrics.values());
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    for (final ObjectName objectName : this.registeredNames) {
+      try {
+        this.mBeanServer.unregisterMBean(objectName);
+      } catch (final Exception ex) {
+        this.logger.warn("Could not unregister {}.", objectName);
+      }
+    }
+    this.registeredNames.clear();
+  }
+
+  private void register(final Object mBean, final String type, final String name) {
+    if (!this.jmxEnabled) {
+      return;
+    }
+    try {
+      final ObjectName objectName = new ObjectName(CommandConstants.METRICS_JMX_DOMAIN
+          + ":type=" + type
+          + ",application=" + ObjectName.quote(this.application)
+          + (name != null ? ",name=" + ObjectName.quote(name) : ""));
+      if (this.mBeanServer.isRegistered(objectName)) {
+        this.logger.warn("MBean {} already registered, skipping.", objectName);
+        return;
+      }
+      this.mBeanServer.registerMBean(mBean, objectName);
+      this.registeredNames.add(objectName);
+    } catch (final Exception ex) {
+      this.logger.warn("Could not register MBean for {}: {}", type, ex.getMessage());
+    }
+  }
+}
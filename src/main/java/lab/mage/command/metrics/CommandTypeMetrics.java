@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class CommandTypeMetrics implements CommandTypeMetricsMXBean {
+
+  private final String commandType;
+  private final LongAdder dispatched = new LongAdder();
+  private final LongAdder succeeded = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LatencyHistogram journalLatency = new LatencyHistogram();
+  private final LatencyHistogram handlerLatency = new LatencyHistogram();
+  private final LatencyHistogram statusLatency = new LatencyHistogram();
+
+  CommandTypeMetrics(final String commandType) {
+    super();
+    this.commandType = commandType;
+  }
+
+  public void dispatched() {
+    this.dispatched.increment();
+  }
+
+  public void succeeded() {
+    this.succeeded.increment();
+  }
+
+  public void failed() {
+    this.failed.increment();
+  }
+
+  public void recordJournal(final long nanos) {
+    this.journalLatency.record(nanos);
+  }
+
+  public void recordHandler(final long nanos) {
+    this.handlerLatency.record(nanos);
+  }
+
+  public void recordStatus(final long nanos) {
+    this.statusLatency.record(nanos);
+  }
+
+  @Override
+  public String getCommandType() {
+    return this.commandType;
+  }
+
+  @Override
+  public long getDispatchCount() {
+    return this.dispatched.sum();
+  }
+
+  @Override
+  public long getSuccessCount() {
+    return this.succeeded.sum();
+  }
+
+  @Override
+  public long getFailureCount() {
+    return this.failed.sum();
+  }
+
+  @Override
+  public LatencySnapshot getJournalLatency() {
+    return this.journalLatency.snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getHandlerLatency() {
+    return this.handlerLatency.snapshot();
+  }
+
+  @Override
+  public LatencySnapshot getStatusLatency() {
+    return this.statusLatency.snapshot();
+  }
+}
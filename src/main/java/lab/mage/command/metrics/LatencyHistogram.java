@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear buckets in the spirit of HdrHistogram: every power of two is split into 16 linear
+// sub-buckets, which keeps the relative error below 6.25% for any value up to Long.MAX_VALUE
+// while recording stays a single atomic increment.
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << LatencyHistogram.SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - LatencyHistogram.SUB_BUCKET_BITS) * LatencyHistogram.SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+  public LatencyHistogram() {
+    super();
+  }
+
+  public void record(final long nanos) {
+    final long value = Math.max(0L, nanos);
+    this.counts.incrementAndGet(LatencyHistogram.indexOf(value));
+    this.total.add(value);
+    this.max.accumulate(value);
+  }
+
+  public LatencySnapshot snapshot() {
+    final long[] snapshot = new long[LatencyHistogram.BUCKETS];
+    long count = 0L;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = this.counts.get(i);
+      count += snapshot[i];
+    }
+    if (count == 0L) {
+      return new LatencySnapshot(0L, 0L, 0L, 0L, 0L, 0L, 0L);
+    }
+    final long max = this.max.get();
+    return new LatencySnapshot(count,
+        this.total.sum() / count,
+        Math.min(max, LatencyHistogram.percentile(snapshot, count, 0.50D)),
+        Math.min(max, LatencyHistogram.percentile(snapshot, count, 0.90D)),
+        Math.min(max, LatencyHistogram.percentile(snapshot, count, 0.99D)),
+        Math.min(max, LatencyHistogram.percentile(snapshot, count, 0.999D)),
+        max);
+  }
+
+  static int indexOf(final long value) {
+    if (value < LatencyHistogram.SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - LatencyHistogram.SUB_BUCKET_BITS;
+    final int subBucket = (int) (value >>> shift) - LatencyHistogram.SUB_BUCKETS;
+    return ((shift + 1) << LatencyHistogram.SUB_BUCKET_BITS) + subBucket;
+  }
+
+  static long highestValueOf(final int index) {
+    if (index < LatencyHistogram.SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = (index >>> LatencyHistogram.SUB_BUCKET_BITS) - 1;
+    final long subBucket = (index & (LatencyHistogram.SUB_BUCKETS - 1)) + LatencyHistogram.SUB_BUCKETS;
+    return ((subBucket + 1L) << shift) - 1L;
+  }
+
+  private static long percentile(final long[] snapshot, final long count, final double percentile) {
+    final long rank = Math.max(1L, (long) Math.ceil(count * percentile));
+    long seen = 0L;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return LatencyHistogram.highestValueOf(i);
+      }
+    }
+    return LatencyHistogram.highestValueOf(snapshot.length - 1);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.metrics;
+
+import java.beans.ConstructorProperties;
+
+public final class LatencySnapshot {
+
+  private final long count;
+  private final long meanNanos;
+  private final long p50Nanos;
+  private final long p90Nanos;
+  private final long p99Nanos;
+  private final long p999Nanos;
+  private final long maxNanos;
+
+  @ConstructorProperties({"count", "meanNanos", "p50Nanos", "p90Nanos", "p99Nanos", "p999Nanos", "maxNanos"})
+  public LatencySnapshot(final long count, final long meanNanos, final long p50Nanos, final long p90Nanos,
+                         final long p99Nanos, final long p999Nanos, final long maxNanos) {
+    super();
+    this.count = count;
+    this.meanNanos = meanNanos;
+    this.p50Nanos = p50Nanos;
+    this.p90Nanos = p90Nanos;
+    this.p99Nanos = p99Nanos;
+    this.p999Nanos = p999Nanos;
+    this.maxNanos = maxNanos;
+  }
+
+  public long getCount() {
+    return this.count;
+  }
+
+  public long getMeanNanos() {
+    return this.meanNanos;
+  }
+
+  public long getP50Nanos() {
+    return this.p50Nanos;
+  }
+
+  public long getP90Nanos() {
+    return this.p90Nanos;
+  }
+
+  public long getP99Nanos() {
+    return this.p99Nanos;
+  }
+
+  public long getP999Nanos() {
+    return this.p999Nanos;
+  }
+
+  public long getMaxNanos() {
+    return this.maxNanos;
+  }
+}
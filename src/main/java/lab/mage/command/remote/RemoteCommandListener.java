@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.remote;
+
+import lab.mage.command.codec.CommandCodec;
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.internal.CommandBus;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.jms.annotation.JmsListenerConfigurer;
+import org.springframework.jms.config.JmsListenerEndpointRegistrar;
+import org.springframework.jms.config.SimpleJmsListenerEndpoint;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Consumes commands published by any node of the application group and hands them to the local
+// command bus. The listener returns, and the message is acknowledged, once the command is journaled,
+// a node crashing before leaves the message with the broker. The reply is sent by the worker
+// completing the command.
+@Component
+public class RemoteCommandListener implements JmsListenerConfigurer {
+
+  private final Logger logger;
+  private final JmsTemplate jmsTemplate;
+  private final CommandCodecs commandCodecs;
+  private final CommandBus commandBus;
+  private final boolean enabled;
+  private final String destination;
+
+  @Autowired
+  public RemoteCommandListener(final Environment environment,
+                               @Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                               final JmsTemplate jmsTemplate,
+                               final CommandCodecs commandCodecs,
+                               final CommandBus commandBus) {
+    super();
+    this.logger = logger;
+    this.jmsTemplate = jmsTemplate;
+    this.commandCodecs = commandCodecs;
+    this.commandBus = commandBus;
+    this.enabled = RemoteCommandPublisher.Mode.REMOTE == RemoteCommandPublisher.Mode.valueOf(
+        environment.getProperty(
+            CommandConstants.DISPATCH_MODE_PROP,
+            CommandConstants.DISPATCH_MODE_DEFAULT));
+    this.destination = environment.getProperty(
+        CommandConstants.APPLICATION_NAME_PROP,
+        CommandConstants.APPLICATION_NAME_DEFAULT);
+  }
+
+  @Override
+  public void configureJmsListeners(final JmsListenerEndpointRegistrar registrar) {
+    if (!this.enabled) {
+      return;
+    }
+    final SimpleJmsListenerEndpoint endpoint = new SimpleJmsListenerEndpoint();
+    endpoint.setId(RemoteCommandListener.class.getName());
+    endpoint.setDestination(this.destination);
+    endpoint.setSelector(CommandConstants.REMOTE_COMMAND_TYPE_HEADER + " IS NOT NULL OR "
+        + CommandConstants.REMOTE_GROUP_SEQ_HEADER + " = -1");
+    endpoint.setMessageListener(this::onCommand);
+    registrar.registerEndpoint(endpoint);
+  }
+
+  private void onCommand(final Message message) {
+    if (this.isGroupClose(message)) {
+      return;
+    }
+    final Object command;
+    final String correlationId;
+    final Destination replyTo;
+    try {
+      correlationId = message.getJMSCorrelationID();
+      replyTo = message.getJMSReplyTo();
+      command = this.decode((BytesMessage) message);
+    } catch (final Throwable th) {
+      this.logger.error(th.getMessage(), th);
+      this.reply(message, null, th);
+      return;
+    }
+    this.logger.debug("RemoteCommandListener::onCommand called for {}.", command.getClass().getSimpleName());
+    final CompletableFuture<Void> journaled = new CompletableFuture<>();
+    final CompletableFuture<Object> result = this.commandBus.dispatchLocally(command, Object.class, journaled);
+    result.whenComplete((outcome, th) -> {
+      if (replyTo != null) {
+        this.reply(replyTo, correlationId, outcome, th);
+      } else if (th != null) {
+        this.logger.debug("RemoteCommandListener::onCommand failed for {}.", command.getClass().getSimpleName());
+      }
+    });
+    try {
+      CompletableFuture.anyOf(journaled, result).join();
+    } catch (final CompletionException cex) {
+      this.logger.debug("RemoteCommandListener::onCommand failed before journaling {}.",
+          command.getClass().getSimpleName());
+    }
+  }
+
+  // closes the message group at the broker, carries no command
+  private boolean isGroupClose(final Message message) {
+    try {
+      return message.propertyExists(CommandConstants.REMOTE_GROUP_SEQ_HEADER)
+          && message.getIntProperty(CommandConstants.REMOTE_GROUP_SEQ_HEADER) < 0;
+    } catch (final JMSException jmsex) {
+      return false;
+    }
+  }
+
+  private Object decode(final BytesMessage message) throws JMSException, ClassNotFoundException {
+    return RemoteCommandMessages.decode(this.commandCodecs, message,
+        message.getStringProperty(CommandConstants.REMOTE_COMMAND_TYPE_HEADER));
+  }
+
+  private void reply(final Message message, final Object outcome, final Throwable failure) {
+    try {
+      if (message.getJMSReplyTo() != null) {
+        this.reply(message.getJMSReplyTo(), message.getJMSCorrelationID(), outcome, failure);
+      }
+    } catch (final JMSException jmsex) {
+      this.logger.error(jmsex.getMessage(), jmsex);
+    }
+  }
+
+  private void reply(final Destination replyTo, final String correlationId,
+                     final Object outcome, final Throwable failure) {
+    try {
+      this.jmsTemplate.send(replyTo, session -> {
+        final BytesMessage reply = session.createBytesMessage();
+        reply.setJMSCorrelationID(correlationId);
+        if (failure != null) {
+          final Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+          reply.setBooleanProperty(CommandConstants.REMOTE_FAILED_HEADER, true);
+          reply.setStringProperty(CommandConstants.REMOTE_FAILURE_MESSAGE_HEADER, cause.getMessage());
+        } else if (outcome != null) {
+          final CommandCodec commandCodec = this.commandCodecs.getCommandCodec();
+          reply.setStringProperty(CommandConstants.REMOTE_RESULT_TYPE_HEADER, outcome.getClass().getName());
+          reply.setStringProperty(CommandConstants.REMOTE_CODEC_HEADER, commandCodec.getId());
+          reply.writeBytes(RemoteCommandMessages.toBytes(commandCodec.encode(outcome)));
+        }
+        return reply;
+      });
+    } catch (final Throwable th) {
+      this.logger.error(th.getMessage(), th);
+    }
+  }
+}
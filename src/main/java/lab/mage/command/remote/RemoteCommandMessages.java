@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.remote;
+
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.util.CommandConstants;
+import org.springframework.util.ClassUtils;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import java.nio.ByteBuffer;
+
+final class RemoteCommandMessages {
+
+  private RemoteCommandMessages() {
+    super();
+  }
+
+  static Object decode(final CommandCodecs commandCodecs, final BytesMessage message, final String type)
+      throws JMSException, ClassNotFoundException {
+    final byte[] payload = new byte[(int) message.getBodyLength()];
+    message.readBytes(payload);
+    return commandCodecs.find(message.getStringProperty(CommandConstants.REMOTE_CODEC_HEADER)).decode(
+        ByteBuffer.wrap(payload), ClassUtils.forName(type, ClassUtils.getDefaultClassLoader()));
+  }
+
+  static byte[] toBytes(final ByteBuffer payload) {
+    final byte[] bytes = new byte[payload.remaining()];
+    payload.get(bytes);
+    return bytes;
+  }
+}
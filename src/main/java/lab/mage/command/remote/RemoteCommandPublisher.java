@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.remote;
+
+import lab.mage.command.codec.CommandCodec;
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.domain.CommandProcessingException;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Sends commands to the application queue, any node of the application group may pick them up.
+// Commands carrying a routing key are sent as one message group per key, so the broker delivers
+// all commands of an aggregate to the same consumer and in order. With a group reset interval, groups
+// idle for that long are closed, the broker assigns their next command to any consumer.
+// Callers waiting for a result are parked in the pending map under the message's correlation id
+// until the executing node answers on this node's reply queue or the remote timeout passes. The reply
+// queue is a temporary queue of the publisher's own connection, the broker drops it with the node.
+@Component
+public class RemoteCommandPublisher implements InitializingBean, DisposableBean {
+
+  public enum Mode {
+    LOCAL,
+    REMOTE
+  }
+
+  private static final int GROUP_CLOSE_SEQ = -1;
+
+  private final Logger logger;
+  private final CommandCodecs commandCodecs;
+  private final JmsTemplate jmsTemplate;
+  private final CommandCodec commandCodec;
+  private final boolean enabled;
+  private final long timeoutMillis;
+  private final long groupResetMillis;
+  private final ConcurrentHashMap<String, PendingReply> pendingReplies = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Long> lastSent = new ConcurrentHashMap<>();
+  private final ScheduledThreadPoolExecutor timeouts;
+  private Connection replyConnection;
+  private volatile TemporaryQueue replyQueue;
+
+  @Autowired
+  public RemoteCommandPublisher(final Environment environment,
+                                @Qualifier(CommandConstants.LOGGER_NAME) final Logger logger,
+                                final JmsTemplate jmsTemplate,
+                                final CommandCodecs commandCodecs) {
+    super();
+    this.logger = logger;
+    this.commandCodecs = commandCodecs;
+    this.jmsTemplate = jmsTemplate;
+    this.commandCodec = commandCodecs.getCommandCodec();
+    this.enabled = Mode.REMOTE == Mode.valueOf(
+        environment.getProperty(
+            CommandConstants.DISPATCH_MODE_PROP,
+            CommandConstants.DISPATCH_MODE_DEFAULT));
+    this.timeoutMillis = Long.valueOf(
+        environment.getProperty(
+            CommandConstants.REMOTE_TIMEOUT_MILLIS_PROP,
+            CommandConstants.REMOTE_TIMEOUT_MILLIS_DEFAULT));
+    this.groupResetMillis = Long.valueOf(
+        environment.getProperty(
+            CommandConstants.REMOTE_GROUP_RESET_MILLIS_PROP,
+            CommandConstants.REMOTE_GROUP_RESET_MILLIS_DEFAULT));
+    this.timeouts = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory(CommandConstants.REMOTE_TIMEOUT_NAME));
+    this.timeouts.setRemoveOnCancelPolicy(true);
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  public void publish(final Object command, final Object routingKey) {
+    this.send(command, routingKey, null);
+  }
+
+  public <T> CompletableFuture<T> publish(final Object command, final Object routingKey, final Class<T> resultClass) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    final String correlationId = UUID.randomUUID().toString();
+    final PendingReply pendingReply = new PendingReply(resultClass, result);
+    this.pendingReplies.put(correlationId, pendingReply);
+    pendingReply.timeout = this.timeouts.schedule(() -> this.expire(correlationId),
+        this.timeoutMillis, TimeUnit.MILLISECONDS);
+    try {
+      this.send(command, routingKey, correlationId);
+    } catch (final Throwable th) {
+      this.pendingReplies.remove(correlationId);
+      pendingReply.timeout.cancel(false);
+      result.completeExceptionally(new CommandProcessingException(th.getMessage(), th));
+    }
+    return result;
+  }
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    if (!this.enabled) {
+      return;
+    }
+    this.replyConnection = this.jmsTemplate.getConnectionFactory().createConnection();
+    final Session session = this.replyConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    this.replyQueue = session.createTemporaryQueue();
+    session.createConsumer(this.replyQueue).setMessageListener(this::onReply);
+    this.replyConnection.start();
+    if (this.groupResetMillis > 0L) {
+      this.timeouts.scheduleWithFixedDelay(this::closeIdleGroups,
+          this.groupResetMillis, this.groupResetMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    if (this.replyConnection != null) {
+      this.replyConnection.close();
+    }
+    this.timeouts.shutdownNow();
+    this.pendingReplies.values().forEach(pendingReply -> pendingReply.result.completeExceptionally(
+        new CommandProcessingException("Command gateway shut down before reply!", null)));
+    this.pendingReplies.clear();
+  }
+
+  private void send(final Object command, final Object routingKey, final String correlationId) {
+    this.logger.debug("RemoteCommandPublisher::send called for {}.", command.getClass().getSimpleName());
+    final ByteBuffer payload = this.commandCodec.encode(command);
+    this.jmsTemplate.send(session -> {
+      final BytesMessage message = session.createBytesMessage();
+      message.writeBytes(RemoteCommandMessages.toBytes(payload));
+      message.setStringProperty(CommandConstants.REMOTE_COMMAND_TYPE_HEADER, command.getClass().getName());
+      message.setStringProperty(CommandConstants.REMOTE_CODEC_HEADER, this.commandCodec.getId());
+      if (routingKey != null) {
+        message.setStringProperty(CommandConstants.REMOTE_GROUP_ID_HEADER, this.groupOf(routingKey));
+      }
+      if (correlationId != null) {
+        message.setJMSCorrelationID(correlationId);
+        message.setJMSReplyTo(this.replyQueue);
+      }
+      return message;
+    });
+  }
+
+  private String groupOf(final Object routingKey) {
+    final String groupId = String.valueOf(routingKey);
+    if (this.groupResetMillis > 0L) {
+      this.lastSent.put(groupId, System.currentTimeMillis());
+    }
+    return groupId;
+  }
+
+  // the broker pins every message group to one consumer until the group is closed, closing groups
+  // once they are idle lets consumers that joined since take over their share without reordering
+  private void closeIdleGroups() {
+    final long idleSince = System.currentTimeMillis() - this.groupResetMillis;
+    this.lastSent.forEach((groupId, sent) -> {
+      if (sent <= idleSince) {
+        this.lastSent.computeIfPresent(groupId, (ignored, current) ->
+            current <= idleSince && this.closeGroup(groupId) ? null : current);
+      }
+    });
+  }
+
+  private boolean closeGroup(final String groupId) {
+    try {
+      this.jmsTemplate.send(session -> {
+        final Message message = session.createMessage();
+        message.setStringProperty(CommandConstants.REMOTE_GROUP_ID_HEADER, groupId);
+        message.setIntProperty(CommandConstants.REMOTE_GROUP_SEQ_HEADER, RemoteCommandPublisher.GROUP_CLOSE_SEQ);
+        return message;
+      });
+      return true;
+    } catch (final Throwable th) {
+      this.logger.error("Could not close message group {}: {}", groupId, th.getMessage());
+      return false;
+    }
+  }
+
+  private void onReply(final Message message) {
+    final PendingReply pendingReply;
+    try {
+      pendingReply = this.pendingReplies.remove(message.getJMSCorrelationID());
+    } catch (final JMSException jmsex) {
+      this.logger.error(jmsex.getMessage(), jmsex);
+      return;
+    }
+    if (pendingReply == null) {
+      this.logger.debug("RemoteCommandPublisher::onReply ignored late reply.");
+      return;
+    }
+    pendingReply.timeout.cancel(false);
+    try {
+      if (message.getBooleanProperty(CommandConstants.REMOTE_FAILED_HEADER)) {
+        pendingReply.result.completeExceptionally(new CommandProcessingException(
+            message.getStringProperty(CommandConstants.REMOTE_FAILURE_MESSAGE_HEADER), null));
+        return;
+      }
+      final String resultType = message.getStringProperty(CommandConstants.REMOTE_RESULT_TYPE_HEADER);
+      pendingReply.complete(resultType == null ? null
+          : RemoteCommandMessages.decode(this.commandCodecs, (BytesMessage) message, resultType));
+    } catch (final Throwable th) {
+      pendingReply.result.completeExceptionally(new CommandProcessingException(th.getMessage(), th));
+    }
+  }
+
+  private void expire(final String correlationId) {
+    final PendingReply pendingReply = this.pendingReplies.remove(correlationId);
+    if (pendingReply != null) {
+      pendingReply.result.completeExceptionally(
+          new CommandProcessingException("No reply within " + this.timeoutMillis + " ms!", null));
+    }
+  }
+
+  private static final class PendingReply {
+
+    private final Class<?> resultClass;
+    private final CompletableFuture<?> result;
+    private volatile ScheduledFuture<?> timeout;
+
+    private PendingReply(final Class<?> resultClass, final CompletableFuture<?> result) {
+      super();
+      this.resultClass = resultClass;
+      this.result = result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete(final Object outcome) {
+      final CompletableFuture<Object> future = (CompletableFuture<Object>) this.result;
+      try {
+        future.complete(this.resultClass.cast(outcome));
+      } catch (final ClassCastException ccex) {
+        future.completeExceptionally(new CommandProcessingException(ccex.getMessage(), ccex));
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.replay;
+
+import lab.mage.command.internal.BucketGranularity;
+import lab.mage.command.internal.CommandSourceKeyGenerator;
+import lab.mage.command.journal.CassandraCommandJournal;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Copies every bucket that is complete and old enough into a compressed file before its rows
+// expire, so the journal can keep a short retention while the history stays available offline.
+// A bucket is archived once, the file only appears after it has been written completely.
+public class CommandArchiver implements InitializingBean, DisposableBean {
+
+  private final Logger logger;
+  private final CassandraCommandJournal commandJournal;
+  private final CommandSourceKeyGenerator commandSourceKeyGenerator;
+  private final Path directory;
+  private final long retentionSeconds;
+  private final long afterSeconds;
+  private final long intervalMillis;
+  private final ScheduledExecutorService scheduler;
+
+  public CommandArchiver(final Environment environment,
+                         final Logger logger,
+                         final CassandraCommandJournal commandJournal,
+                         final CommandSourceKeyGenerator commandSourceKeyGenerator) {
+    super();
+    this.logger = logger;
+    this.commandJournal = commandJournal;
+    this.commandSourceKeyGenerator = commandSourceKeyGenerator;
+    this.directory = Paths.get(
+        environment.getProperty(
+            CommandConstants.JOURNAL_ARCHIVE_DIRECTORY_PROP,
+            CommandConstants.JOURNAL_ARCHIVE_DIRECTORY_DEFAULT));
+    this.retentionSeconds = Long.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_RETENTION_PROCESSED_SECONDS_PROP,
+            CommandConstants.JOURNAL_RETENTION_PROCESSED_SECONDS_DEFAULT));
+    this.afterSeconds = Long.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_ARCHIVE_AFTER_SECONDS_PROP,
+            CommandConstants.JOURNAL_ARCHIVE_AFTER_SECONDS_DEFAULT));
+    this.intervalMillis = Long.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_ARCHIVE_INTERVAL_MILLIS_PROP,
+            CommandConstants.JOURNAL_ARCHIVE_INTERVAL_MILLIS_DEFAULT));
+    if (this.retentionSeconds <= 0L || this.afterSeconds >= this.retentionSeconds) {
+      throw new IllegalArgumentException("Archiving needs " + CommandConstants.JOURNAL_RETENTION_PROCESSED_SECONDS_PROP
+          + " to be set and larger than " + CommandConstants.JOURNAL_ARCHIVE_AFTER_SECONDS_PROP + ".");
+    }
+    this.scheduler = new ScheduledThreadPoolExecutor(1,
+        new CustomizableThreadFactory(CommandConstants.JOURNAL_ARCHIVE_NAME));
+  }
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    Files.createDirectories(this.directory);
+    this.scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        this.archive();
+      } catch (final Throwable th) {
+        this.logger.error("Could not archive command journal: {}", th.getMessage(), th);
+      }
+    }, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    this.scheduler.shutdownNow();
+  }
+
+  public int archive() throws IOException {
+    this.logger.debug("CommandArchiver::archive called.");
+    final BucketGranularity bucketGranularity = this.commandSourceKeyGenerator.getBucketGranularity();
+    final LocalDateTime now = LocalDateTime.now();
+    final LocalDateTime archiveBefore = now.minusSeconds(this.afterSeconds);
+    int archived = 0;
+    // buckets older than the retention are already gone, only those still holding rows are looked at
+    for (LocalDateTime bucketStart = bucketGranularity.truncate(now.minusSeconds(this.retentionSeconds));
+         !bucketGranularity.next(bucketStart).isAfter(archiveBefore);
+         bucketStart = bucketGranularity.next(bucketStart)) {
+      if (this.archive(bucketGranularity.bucketOf(bucketStart))) {
+        archived++;
+      }
+    }
+    return archived;
+  }
+
+  private boolean archive(final String bucket) throws IOException {
+    final String source = this.commandSourceKeyGenerator.getSource();
+    final Path file = this.directory.resolve(source + "-" + bucket + CommandConstants.JOURNAL_ARCHIVE_SUFFIX);
+    if (Files.exists(file)) {
+      return false;
+    }
+    final Path partial = this.directory.resolve(file.getFileName() + ".tmp");
+    final long commands =
+        this.commandJournal.archive(source, bucket, this.commandSourceKeyGenerator.getShards(), partial);
+    Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    this.logger.info("Archived {} commands of bucket {} to {}.", commands, bucket, file);
+    return true;
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.replay;
+
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.internal.CommandHandlerRegistry;
+import lab.mage.command.internal.CommandSourceKeyGenerator;
+import lab.mage.command.journal.CassandraCommandJournal;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs once the handlers are registered and before the node takes new work: every command left
+// pending by a crash is handed to its handler again and gets its status, one lane per shard so the
+// commands of a routing key are recovered in the order they were accepted. The work done scales
+// with the commands that were in flight, the journal itself is never scanned.
+// Started in the lifecycle phase right after the handler registry, so it is done before the listener
+// containers, which start in the last phase, consume remote commands.
+public class CommandRecovery implements SmartLifecycle {
+
+  private static final int PHASE = CommandHandlerRegistry.PHASE + 1;
+
+  private final Logger logger;
+  private final CassandraCommandJournal commandJournal;
+  private final CommandHandlerRegistry commandHandlerRegistry;
+  private final CommandCodecs commandCodecs;
+  private final CommandSourceKeyGenerator commandSourceKeyGenerator;
+  private final int parallelism;
+  private final long graceMillis;
+  private volatile boolean running;
+
+  public CommandRecovery(final Environment environment,
+                         final Logger logger,
+                         final CassandraCommandJournal commandJournal,
+                         final CommandHandlerRegistry commandHandlerRegistry,
+                         final CommandCodecs commandCodecs,
+                         final CommandSourceKeyGenerator commandSourceKeyGenerator) {
+    super();
+    this.logger = logger;
+    this.commandJournal = commandJournal;
+    this.commandHandlerRegistry = commandHandlerRegistry;
+    this.commandCodecs = commandCodecs;
+    this.commandSourceKeyGenerator = commandSourceKeyGenerator;
+    this.parallelism = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.REPLAY_PARALLELISM_PROP,
+            CommandConstants.REPLAY_PARALLELISM_DEFAULT));
+    this.graceMillis = Long.valueOf(
+        environment.getProperty(
+            CommandConstants.JOURNAL_RECOVERY_GRACE_MILLIS_PROP,
+            CommandConstants.JOURNAL_RECOVERY_GRACE_MILLIS_DEFAULT));
+  }
+
+  @Override
+  public void start() {
+    try {
+      final long recovered = this.recover();
+      if (recovered > 0L) {
+        this.logger.info("Recovered {} pending commands.", recovered);
+      }
+    } catch (final Throwable th) {
+      this.logger.error("Could not recover pending commands: {}", th.getMessage(), th);
+    }
+    this.running = true;
+  }
+
+  @Override
+  public void stop() {
+    this.running = false;
+  }
+
+  @Override
+  public void stop(final Runnable callback) {
+    this.stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return this.running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    return CommandRecovery.PHASE;
+  }
+
+  public long recover() {
+    this.logger.debug("CommandRecovery::recover called.");
+    final int shards = this.commandSourceKeyGenerator.getShards();
+    final ExecutorService lanes = Executors.newFixedThreadPool(Math.max(1, Math.min(this.parallelism, shards)),
+        new CustomizableThreadFactory(CommandConstants.JOURNAL_RECOVERY_PREFIX));
+    try {
+      final List<CompletableFuture<Long>> recovered = new ArrayList<>(shards);
+      for (int shard = 0; shard < shards; shard++) {
+        final int lane = shard;
+        recovered.add(CompletableFuture.supplyAsync(() -> this.recoverShard(lane), lanes));
+      }
+      return recovered.stream().mapToLong(CompletableFuture::join).sum();
+    } finally {
+      lanes.shutdown();
+    }
+  }
+
+  // a failing command or status update is logged and the lane moves on, one row never stops the pass
+  private long recoverShard(final int shard) {
+    long recovered = 0L;
+    for (final CommandSource commandSource : this.commandJournal.claimPending(
+        this.commandSourceKeyGenerator.getSource(), shard, this.graceMillis)) {
+      Throwable failure = null;
+      try {
+        final Object command = this.commandCodecs.decode(commandSource);
+        this.commandHandlerRegistry.find(command.getClass()).getCommandHandler().invoke(command);
+      } catch (final Throwable th) {
+        this.logger.error("Could not recover command source {}: {}",
+            commandSource.getCommandSourceKey().getId(), th.getMessage());
+        failure = th;
+      }
+      try {
+        if (failure == null) {
+          this.commandJournal.markProcessed(commandSource.getCommandSourceKey()).join();
+        } else {
+          this.commandJournal.markFailed(commandSource, failure.getMessage()).join();
+        }
+      } catch (final Throwable th) {
+        this.logger.error("Could not update status of recovered command source {}: {}",
+            commandSource.getCommandSourceKey().getId(), th.getMessage());
+      }
+      recovered++;
+    }
+    return recovered;
+  }
+}
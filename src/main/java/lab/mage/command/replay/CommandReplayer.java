@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.replay;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.querybuilder.Select;
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.domain.CommandProcessingException;
+import lab.mage.command.internal.BucketGranularity;
+import lab.mage.command.internal.CommandHandlerRegistry;
+import lab.mage.command.internal.CommandSourceKeyGenerator;
+import lab.mage.command.repository.CommandReplayCheckpoint;
+import lab.mage.command.repository.CommandReplayCheckpointKey;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.util.CommandConstants;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Replays the journal of a source one shard per lane. A routing key always maps to the same shard,
+// so walking every shard bucket by bucket in ascending id order keeps the commands of a routing key
+// in their original order while the shards are read, decoded and handled in parallel. Each lane
+// checkpoints after every page, a replay started again with the same id resumes behind it.
+public class CommandReplayer {
+
+  private final Logger logger;
+  private final CassandraOperations cassandraOperations;
+  private final CommandHandlerRegistry commandHandlerRegistry;
+  private final CommandCodecs commandCodecs;
+  private final CommandSourceKeyGenerator commandSourceKeyGenerator;
+  private final int parallelism;
+  private final int fetchSize;
+  private volatile PreparedStatement selectFirst;
+  private volatile PreparedStatement selectAfter;
+
+  public CommandReplayer(final Environment environment,
+                         final Logger logger,
+                         final CassandraOperations cassandraOperations,
+                         final CommandHandlerRegistry commandHandlerRegistry,
+                         final CommandCodecs commandCodecs,
+                         final CommandSourceKeyGenerator commandSourceKeyGenerator) {
+    super();
+    this.logger = logger;
+    this.cassandraOperations = cassandraOperations;
+    this.commandHandlerRegistry = commandHandlerRegistry;
+    this.commandCodecs = commandCodecs;
+    this.commandSourceKeyGenerator = commandSourceKeyGenerator;
+    this.parallelism = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.REPLAY_PARALLELISM_PROP,
+            CommandConstants.REPLAY_PARALLELISM_DEFAULT));
+    this.fetchSize = Integer.valueOf(
+        environment.getProperty(
+            CommandConstants.REPLAY_FETCH_SIZE_PROP,
+            CommandConstants.REPLAY_FETCH_SIZE_DEFAULT));
+  }
+
+  public CompletableFuture<Long> replay(final String replayId, final LocalDateTime from, final LocalDateTime to) {
+    return this.replay(replayId, this.commandSourceKeyGenerator.getSource(), from, to);
+  }
+
+  public CompletableFuture<Long> replay(final String replayId, final String source,
+                                        final LocalDateTime from, final LocalDateTime to) {
+    this.logger.debug("CommandReplayer::replay called for {} from {} to {}.", replayId, from, to);
+    final List<String> buckets = this.bucketsOf(from, to);
+    final Map<Integer, CommandReplayCheckpoint> checkpoints = this.checkpointsOf(replayId, source);
+    final int shards = this.commandSourceKeyGenerator.getShards();
+
+    final ExecutorService lanes = Executors.newFixedThreadPool(Math.max(1, Math.min(this.parallelism, shards)),
+        new CustomizableThreadFactory(CommandConstants.REPLAY_PREFIX));
+    final List<CompletableFuture<Long>> replayed = new ArrayList<>(shards);
+    for (int shard = 0; shard < shards; shard++) {
+      final int lane = shard;
+      replayed.add(CompletableFuture.supplyAsync(
+          () -> this.replayShard(replayId, source, lane, buckets, checkpoints.get(lane)), lanes));
+    }
+    lanes.shutdown();
+    return CompletableFuture.allOf(replayed.toArray(new CompletableFuture<?>[replayed.size()]))
+        .thenApply(ignored -> replayed.stream().mapToLong(CompletableFuture::join).sum());
+  }
+
+  private long replayShard(final String replayId, final String source, final int shard,
+                           final List<String> buckets, final CommandReplayCheckpoint checkpoint) {
+    final long previouslyReplayed = checkpoint != null && checkpoint.getReplayed() != null
+        ? checkpoint.getReplayed() : 0L;
+    long replayed = 0L;
+    final List<CommandSource> page = new ArrayList<>(this.fetchSize);
+    for (final String bucket : buckets) {
+      UUID lastId = null;
+      if (checkpoint != null) {
+        final int position = bucket.compareTo(checkpoint.getBucket());
+        if (position < 0) {
+          continue;
+        } else if (position == 0) {
+          lastId = checkpoint.getLastId();
+        }
+      }
+
+      final Statement statement = lastId == null
+          ? this.selectFirst().bind(source, bucket, shard)
+          : this.selectAfter().bind(source, bucket, shard, lastId);
+      statement.setFetchSize(this.fetchSize);
+      final ResultSet resultSet = this.cassandraOperations.getSession().execute(statement);
+      while (!resultSet.isExhausted()) {
+        final int available = resultSet.getAvailableWithoutFetching();
+        // the next page is on its way while the handlers work through this one
+        if (!resultSet.isFullyFetched()) {
+          resultSet.fetchMoreResults();
+        }
+        page.clear();
+        for (int i = 0; i < available; i++) {
+          page.add(this.cassandraOperations.getConverter().read(CommandSource.class, resultSet.one()));
+        }
+        replayed += this.replayPage(page);
+        this.checkpoint(replayId, source, shard, bucket,
+            page.get(page.size() - 1).getCommandSourceKey().getId(), previouslyReplayed + replayed);
+      }
+    }
+    return replayed;
+  }
+
+  private long replayPage(final List<CommandSource> page) {
+    long replayed = 0L;
+    for (final CommandSource commandSource : page) {
+      // failed commands never took effect, replaying them would only fail again
+      if (Boolean.TRUE.equals(commandSource.getFailed())) {
+        continue;
+      }
+      try {
+        final Object command = this.commandCodecs.decode(commandSource);
+        this.commandHandlerRegistry.find(command.getClass()).getCommandHandler().invoke(command);
+        replayed++;
+      } catch (final Throwable th) {
+        this.logger.error("Could not replay command source {}: {}",
+            commandSource.getCommandSourceKey().getId(), th.getMessage());
+        throw new CompletionException(new CommandProcessingException(th.getMessage(), th));
+      }
+    }
+    return replayed;
+  }
+
+  private void checkpoint(final String replayId, final String source, final int shard, final String bucket,
+                          final UUID lastId, final long replayed) {
+    final CommandReplayCheckpointKey commandReplayCheckpointKey = new CommandReplayCheckpointKey();
+    commandReplayCheckpointKey.setReplayId(replayId);
+    commandReplayCheckpointKey.setSource(source);
+    commandReplayCheckpointKey.setShard(shard);
+
+    final CommandReplayCheckpoint commandReplayCheckpoint = new CommandReplayCheckpoint();
+    commandReplayCheckpoint.setCommandReplayCheckpointKey(commandReplayCheckpointKey);
+    commandReplayCheckpoint.setBucket(bucket);
+    commandReplayCheckpoint.setLastId(lastId);
+    commandReplayCheckpoint.setReplayed(replayed);
+    commandReplayCheckpoint.setUpdatedOn(new Date());
+    this.cassandraOperations.insert(commandReplayCheckpoint);
+  }
+
+  private Map<Integer, CommandReplayCheckpoint> checkpointsOf(final String replayId, final String source) {
+    final Select select = QueryBuilder.select().from(CommandConstants.COMMAND_REPLAY_CHECKPOINT_TABLE_NAME);
+    select.where(QueryBuilder.eq("replay_id", replayId))
+        .and(QueryBuilder.eq("source", source));
+    final Map<Integer, CommandReplayCheckpoint> checkpoints = new HashMap<>();
+    this.cassandraOperations.select(select, CommandReplayCheckpoint.class)
+        .forEach(checkpoint -> checkpoints.put(checkpoint.getCommandReplayCheckpointKey().getShard(), checkpoint));
+    return checkpoints;
+  }
+
+  private List<String> bucketsOf(final LocalDateTime from, final LocalDateTime to) {
+    final BucketGranularity bucketGranularity = this.commandSourceKeyGenerator.getBucketGranularity();
+    final List<String> buckets = new ArrayList<>();
+    for (LocalDateTime bucket = bucketGranularity.truncate(from);
+         !bucket.isAfter(to);
+         bucket = bucketGranularity.next(bucket)) {
+      buckets.add(bucketGranularity.bucketOf(bucket));
+    }
+    return buckets;
+  }
+
+  private PreparedStatement selectFirst() {
+    if (this.selectFirst == null) {
+      this.selectFirst = this.cassandraOperations.getSession().prepare("SELECT * FROM "
+          + CommandConstants.COMMAND_SOURCE_TABLE_NAME
+          + " WHERE source = ? AND bucket = ? AND shard = ? ORDER BY id ASC");
+    }
+    return this.selectFirst;
+  }
+
+  private PreparedStatement selectAfter() {
+    if (this.selectAfter == null) {
+      this.selectAfter = this.cassandraOperations.getSession().prepare("SELECT * FROM "
+          + CommandConstants.COMMAND_SOURCE_TABLE_NAME
+          + " WHERE source = ? AND bucket = ? AND shard = ? AND id > ? ORDER BY id ASC");
+    }
+    return this.selectAfter;
+  }
+}
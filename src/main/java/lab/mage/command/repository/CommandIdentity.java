@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.repository;
+
+import lab.mage.command.util.CommandConstants;
+import org.springframework.data.cassandra.mapping.Column;
+import org.springframework.data.cassandra.mapping.PrimaryKey;
+import org.springframework.data.cassandra.mapping.Table;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+@Table(value = CommandConstants.COMMAND_IDENTITY_TABLE_NAME)
+public final class CommandIdentity {
+
+  @PrimaryKey("command_id")
+  private String commandId;
+  @Column("created_on")
+  private Date createdOn;
+  @Column("result_type")
+  private String resultType;
+  @Column("codec")
+  private String codec;
+  @Column("payload")
+  private ByteBuffer payload;
+  @Column("failed")
+  private Boolean failed;
+  @Column("failure_message")
+  private String failureMessage;
+
+  public CommandIdentity() {
+    super();
+  }
+
+  public String getCommandId() {
+    return commandId;
+  }
+
+  public void setCommandId(String commandId) {
+    this.commandId = commandId;
+  }
+
+  public Date getCreatedOn() {
+    return createdOn;
+  }
+
+  public void setCreatedOn(Date createdOn) {
+    this.createdOn = createdOn;
+  }
+
+  public String getResultType() {
+    return resultType;
+  }
+
+  public void setResultType(String resultType) {
+    this.resultType = resultType;
+  }
+
+  public String getCodec() {
+    return codec;
+  }
+
+  public void setCodec(String codec) {
+    this.codec = codec;
+  }
+
+  public ByteBuffer getPayload() {
+    return payload;
+  }
+
+  public void setPayload(ByteBuffer payload) {
+    this.payload = payload;
+  }
+
+  public Boolean getFailed() {
+    return failed;
+  }
+
+  public void setFailed(Boolean failed) {
+    this.failed = failed;
+  }
+
+  public String getFailureMessage() {
+    return failureMessage;
+  }
+
+  public void setFailureMessage(String failureMessage) {
+    this.failureMessage = failureMessage;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.repository;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import lab.mage.command.util.CommandConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cassandra.core.WriteOptions;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.CassandraTemplate;
+
+import java.util.concurrent.CompletableFuture;
+
+public class CommandIdentityRepositoryImpl implements CommandIdentityRepositoryCustom {
+
+  private final CassandraOperations cassandraOperations;
+
+  @Autowired
+  public CommandIdentityRepositoryImpl(final CassandraOperations cassandraOperations) {
+    super();
+    this.cassandraOperations = cassandraOperations;
+  }
+
+  @Override
+  public CompletableFuture<Void> saveWithTtl(final CommandIdentity commandIdentity, final int ttlSeconds) {
+    final WriteOptions writeOptions = new WriteOptions();
+    writeOptions.setTtl(ttlSeconds);
+    return this.executeAsync(CassandraTemplate.createInsertQuery(CommandConstants.COMMAND_IDENTITY_TABLE_NAME,
+        commandIdentity, writeOptions, this.cassandraOperations.getConverter())).thenApply(resultSet -> null);
+  }
+
+  @Override
+  public CompletableFuture<CommandIdentity> findOneAsync(final String commandId) {
+    return this.executeAsync(QueryBuilder.select().all().from(CommandConstants.COMMAND_IDENTITY_TABLE_NAME)
+        .where(QueryBuilder.eq("command_id", commandId))).thenApply(resultSet -> {
+          final Row row = resultSet.one();
+          return row != null ? this.cassandraOperations.getConverter().read(CommandIdentity.class, row) : null;
+        });
+  }
+
+  private CompletableFuture<ResultSet> executeAsync(final Statement statement) {
+    final CompletableFuture<ResultSet> future = new CompletableFuture<>();
+    try {
+      Futures.addCallback(this.cassandraOperations.getSession().executeAsync(statement),
+          new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(final ResultSet resultSet) {
+              future.complete(resultSet);
+            }
+
+            @Override
+            public void onFailure(final Throwable th) {
+              future.completeExceptionally(th);
+            }
+          });
+    } catch (final Throwable th) {
+      future.completeExceptionally(th);
+    }
+    return future;
+  }
+}
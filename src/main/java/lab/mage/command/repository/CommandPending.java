@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.repository;
+
+import lab.mage.command.util.CommandConstants;
+import org.springframework.data.cassandra.mapping.Column;
+import org.springframework.data.cassandra.mapping.PrimaryKey;
+import org.springframework.data.cassandra.mapping.Table;
+
+// Narrow index of the command sources accepted but not yet processed or failed, one partition per
+// source and shard, so recovery never has to scan the journal itself.
+@Table(value = CommandConstants.COMMAND_PENDING_TABLE_NAME)
+public final class CommandPending {
+
+  @PrimaryKey
+  private CommandPendingKey commandPendingKey;
+  @Column("bucket")
+  private String bucket;
+  @Column("node_id")
+  private String nodeId;
+
+  public CommandPending() {
+    super();
+  }
+
+  public CommandPendingKey getCommandPendingKey() {
+    return commandPendingKey;
+  }
+
+  public void setCommandPendingKey(CommandPendingKey commandPendingKey) {
+    this.commandPendingKey = commandPendingKey;
+  }
+
+  public String getBucket() {
+    return bucket;
+  }
+
+  public void setBucket(String bucket) {
+    this.bucket = bucket;
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public void setNodeId(String nodeId) {
+    this.nodeId = nodeId;
+  }
+}
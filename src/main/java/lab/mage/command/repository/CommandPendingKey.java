@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.repository;
+
+import com.datastax.driver.core.DataType;
+import org.springframework.cassandra.core.Ordering;
+import org.springframework.cassandra.core.PrimaryKeyType;
+import org.springframework.data.cassandra.mapping.CassandraType;
+import org.springframework.data.cassandra.mapping.PrimaryKeyClass;
+import org.springframework.data.cassandra.mapping.PrimaryKeyColumn;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+@PrimaryKeyClass
+public final class CommandPendingKey implements Serializable {
+
+  @PrimaryKeyColumn(name = "source", type = PrimaryKeyType.PARTITIONED, ordinal = 0)
+  private String source;
+  @PrimaryKeyColumn(name = "shard", type = PrimaryKeyType.PARTITIONED, ordinal = 1)
+  private Integer shard;
+  @PrimaryKeyColumn(name = "id", type = PrimaryKeyType.CLUSTERED, ordinal = 2, ordering = Ordering.ASCENDING)
+  @CassandraType(type = DataType.Name.TIMEUUID)
+  private UUID id;
+
+  public CommandPendingKey() {
+    super();
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  public void setSource(String source) {
+    this.source = source;
+  }
+
+  public Integer getShard() {
+    return shard;
+  }
+
+  public void setShard(Integer shard) {
+    this.shard = shard;
+  }
+
+  public UUID getId() {
+    return id;
+  }
+
+  public void setId(UUID id) {
+    this.id = id;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    CommandPendingKey that = (CommandPendingKey) o;
+
+    if (!source.equals(that.source)) return false;
+    if (!shard.equals(that.shard)) return false;
+    return id.equals(that.id);
+
+  }
+
+  @Override
+  public int hashCode() {
+    int result = source.hashCode();
+    result = 31 * result + shard.hashCode();
+    result = 31 * result + id.hashCode();
+    return result;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.repository;
+
+import com.datastax.driver.core.DataType;
+import lab.mage.command.util.CommandConstants;
+import org.springframework.data.cassandra.mapping.CassandraType;
+import org.springframework.data.cassandra.mapping.Column;
+import org.springframework.data.cassandra.mapping.PrimaryKey;
+import org.springframework.data.cassandra.mapping.Table;
+
+import java.util.Date;
+import java.util.UUID;
+
+@Table(value = CommandConstants.COMMAND_REPLAY_CHECKPOINT_TABLE_NAME)
+public final class CommandReplayCheckpoint {
+
+  @PrimaryKey
+  private CommandReplayCheckpointKey commandReplayCheckpointKey;
+  @Column("bucket")
+  private String bucket;
+  @Column("last_id")
+  @CassandraType(type = DataType.Name.TIMEUUID)
+  private UUID lastId;
+  @Column("replayed")
+  @CassandraType(type = DataType.Name.BIGINT)
+  private Long replayed;
+  @Column("updated_on")
+  private Date updatedOn;
+
+  public CommandReplayCheckpoint() {
+    super();
+  }
+
+  public CommandReplayCheckpointKey getCommandReplayCheckpointKey() {
+    return commandReplayCheckpointKey;
+  }
+
+  public void setCommandReplayCheckpointKey(CommandReplayCheckpointKey commandReplayCheckpointKey) {
+    this.commandReplayCheckpointKey = commandReplayCheckpointKey;
+  }
+
+  public String getBucket() {
+    return bucket;
+  }
+
+  public void setBucket(String bucket) {
+    this.bucket = bucket;
+  }
+
+  public UUID getLastId() {
+    return lastId;
+  }
+
+  public void setLastId(UUID lastId) {
+    this.lastId = lastId;
+  }
+
+  public Long getReplayed() {
+    return replayed;
+  }
+
+  public void setReplayed(Long replayed) {
+    this.replayed = replayed;
+  }
+
+  public Date getUpdatedOn() {
+    return updatedOn;
+  }
+
+  public void setUpdatedOn(Date updatedOn) {
+    this.updatedOn = updatedOn;
+  }
+}
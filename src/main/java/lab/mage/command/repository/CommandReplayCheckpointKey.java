@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.repository;
+
+import org.springframework.cassandra.core.PrimaryKeyType;
+import org.springframework.data.cassandra.mapping.PrimaryKeyClass;
+import org.springframework.data.cassandra.mapping.PrimaryKeyColumn;
+
+import java.io.Serializable;
+
+@PrimaryKeyClass
+public final class CommandReplayCheckpointKey implements Serializable {
+
+  @PrimaryKeyColumn(name = "replay_id", type = PrimaryKeyType.PARTITIONED, ordinal = 0)
+  private String replayId;
+  @PrimaryKeyColumn(name = "source", type = PrimaryKeyType.PARTITIONED, ordinal = 1)
+  private String source;
+  @PrimaryKeyColumn(name = "shard", type = PrimaryKeyType.CLUSTERED, ordinal = 2)
+  private Integer shard;
+
+  public CommandReplayCheckpointKey() {
+    super();
+  }
+
+  public String getReplayId() {
+    return replayId;
+  }
+
+  public void setReplayId(String replayId) {
+    this.replayId = replayId;
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  public void setSource(String source) {
+    this.source = source;
+  }
+
+  public Integer getShard() {
+    return shard;
+  }
+
+  public void setShard(Integer shard) {
+    this.shard = shard;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    CommandReplayCheckpointKey that = (CommandReplayCheckpointKey) o;
+
+    if (!replayId.equals(that.replayId)) return false;
+    if (!source.equals(that.source)) return false;
+    return shard.equals(that.shard);
+
+  }
+
+  @Override
+  public int hashCode() {
+    int result = replayId.hashCode();
+    result = 31 * result + source.hashCode();
+    result = 31 * result + shard.hashCode();
+    return result;
+  }
+}
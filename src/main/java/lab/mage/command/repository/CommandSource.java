@@ -20,13 +20,24 @@ import org.springframework.data.cassandra.mapping.Column;
 import org.springframework.data.cassandra.mapping.PrimaryKey;
 import org.springframework.data.cassandra.mapping.Table;
 
+import java.nio.ByteBuffer;
+import java.util.Date;
+
 @Table(value = CommandConstants.COMMAND_SOURCE_TABLE_NAME)
 public final class CommandSource {
 
   @PrimaryKey
   private CommandSourceKey commandSourceKey;
+  @Column("created_on")
+  private Date createdOn;
   @Column("command")
   private String command;
+  @Column("command_type")
+  private String commandType;
+  @Column("codec")
+  private String codec;
+  @Column("payload")
+  private ByteBuffer payload;
   @Column("processed")
   private Boolean processed;
   @Column("failed")
@@ -46,6 +57,14 @@ public final class CommandSource {
     this.commandSourceKey = commandSourceKey;
   }
 
+  public Date getCreatedOn() {
+    return createdOn;
+  }
+
+  public void setCreatedOn(Date createdOn) {
+    this.createdOn = createdOn;
+  }
+
   public String getCommand() {
     return command;
   }
@@ -54,6 +73,30 @@ public final class CommandSource {
     this.command = command;
   }
 
+  public String getCommandType() {
+    return commandType;
+  }
+
+  public void setCommandType(String commandType) {
+    this.commandType = commandType;
+  }
+
+  public String getCodec() {
+    return codec;
+  }
+
+  public void setCodec(String codec) {
+    this.codec = codec;
+  }
+
+  public ByteBuffer getPayload() {
+    return payload;
+  }
+
+  public void setPayload(ByteBuffer payload) {
+    this.payload = payload;
+  }
+
   public Boolean getProcessed() {
     return processed;
   }
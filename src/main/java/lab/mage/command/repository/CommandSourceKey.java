@@ -15,13 +15,15 @@
  */
 package lab.mage.command.repository;
 
+import com.datastax.driver.core.DataType;
 import org.springframework.cassandra.core.Ordering;
 import org.springframework.cassandra.core.PrimaryKeyType;
+import org.springframework.data.cassandra.mapping.CassandraType;
 import org.springframework.data.cassandra.mapping.PrimaryKeyClass;
 import org.springframework.data.cassandra.mapping.PrimaryKeyColumn;
 
 import java.io.Serializable;
-import java.util.Date;
+import java.util.UUID;
 
 @PrimaryKeyClass
 public final class CommandSourceKey implements Serializable {
@@ -30,9 +32,11 @@ public final class CommandSourceKey implements Serializable {
   private String source;
   @PrimaryKeyColumn(name = "bucket", type = PrimaryKeyType.PARTITIONED, ordinal = 1)
   private String bucket;
-  @PrimaryKeyColumn(name = "created_on", type = PrimaryKeyType.CLUSTERED, ordinal = 2, ordering = Ordering.DESCENDING)
-  private Date createdOn;
-
+  @PrimaryKeyColumn(name = "shard", type = PrimaryKeyType.PARTITIONED, ordinal = 2)
+  private Integer shard;
+  @PrimaryKeyColumn(name = "id", type = PrimaryKeyType.CLUSTERED, ordinal = 3, ordering = Ordering.DESCENDING)
+  @CassandraType(type = DataType.Name.TIMEUUID)
+  private UUID id;
 
   public CommandSourceKey() {
     super();
@@ -54,12 +58,20 @@ public final class CommandSourceKey implements Serializable {
     this.bucket = bucket;
   }
 
-  public Date getCreatedOn() {
-    return createdOn;
+  public Integer getShard() {
+    return shard;
+  }
+
+  public void setShard(Integer shard) {
+    this.shard = shard;
+  }
+
+  public UUID getId() {
+    return id;
   }
 
-  public void setCreatedOn(Date createdOn) {
-    this.createdOn = createdOn;
+  public void setId(UUID id) {
+    this.id = id;
   }
 
   @Override
@@ -71,7 +83,8 @@ public final class CommandSourceKey implements Serializable {
 
     if (!source.equals(that.source)) return false;
     if (!bucket.equals(that.bucket)) return false;
-    return createdOn.equals(that.createdOn);
+    if (!shard.equals(that.shard)) return false;
+    return id.equals(that.id);
 
   }
 
@@ -79,7 +92,8 @@ public final class CommandSourceKey implements Serializable {
   public int hashCode() {
     int result = source.hashCode();
     result = 31 * result + bucket.hashCode();
-    result = 31 * result + createdOn.hashCode();
+    result = 31 * result + shard.hashCode();
+    result = 31 * result + id.hashCode();
     return result;
   }
 }
@@ -36,12 +36,115 @@ public interface CommandConstants {
   String CASSANDRA_KEYSPACE_DEFAULT = "commands";
 
   String EXECUTOR_PREFIX = "command-executor-";
+  String EXECUTOR_MODE_PROP = "executor.mode";
+  String EXECUTOR_MODE_DEFAULT = "PLATFORM";
   String EXECUTOR_CORE_POOL_SIZE_PROP = "executor.corePoolSize";
   String EXECUTOR_CORE_POOL_SIZE_DEFAULT = "32";
   String EXECUTOR_MAX_POOL_SIZE_PROP = "executor.maxPoolSize";
-  String EXECUTOR_MAX_POOL_SIZE_DEFAULT = "16384";
+  String EXECUTOR_MAX_POOL_SIZE_DEFAULT = "64";
   String EXECUTOR_QUEUE_CAPACITY_PROP = "executor.queueCapacity";
-  String EXECUTOR_QUEUE_CAPACITY_DEFAULT = "8";
+  String EXECUTOR_QUEUE_CAPACITY_DEFAULT = "1024";
+  String EXECUTOR_REJECTION_POLICY_PROP = "executor.rejectionPolicy";
+  String EXECUTOR_REJECTION_POLICY_DEFAULT = "BLOCK";
+  String EXECUTOR_BLOCK_TIMEOUT_MILLIS_PROP = "executor.blockTimeoutMillis";
+  String EXECUTOR_BLOCK_TIMEOUT_MILLIS_DEFAULT = "1000";
+  String EXECUTOR_LANES_PROP = "executor.lanes";
+  String EXECUTOR_LANES_DEFAULT = "256";
+  String EXECUTOR_VIRTUAL_MAX_CONCURRENCY_PROP = "executor.virtual.maxConcurrency";
+  String EXECUTOR_VIRTUAL_MAX_CONCURRENCY_DEFAULT = "1024";
+
+  String DISPATCH_ENGINE_PROP = "dispatch.engine";
+  String DISPATCH_ENGINE_DEFAULT = "EXECUTOR";
+
+  String BATCH_PARALLELISM_PROP = "batch.parallelism";
+  String BATCH_PARALLELISM_DEFAULT = "8";
+
+  String REPLAY_PREFIX = "command-replay-";
+  String REPLAY_PARALLELISM_PROP = "replay.parallelism";
+  String REPLAY_PARALLELISM_DEFAULT = "8";
+  String REPLAY_FETCH_SIZE_PROP = "replay.fetchSize";
+  String REPLAY_FETCH_SIZE_DEFAULT = "1000";
+
+  String DISPATCH_MODE_PROP = "dispatch.mode";
+  String DISPATCH_MODE_DEFAULT = "LOCAL";
+  String REMOTE_TIMEOUT_MILLIS_PROP = "dispatch.remote.timeoutMillis";
+  String REMOTE_TIMEOUT_MILLIS_DEFAULT = "30000";
+  String REMOTE_GROUP_RESET_MILLIS_PROP = "dispatch.remote.groupResetMillis";
+  String REMOTE_GROUP_RESET_MILLIS_DEFAULT = "0";
+  String REMOTE_TIMEOUT_NAME = "command-remote-timeout";
+  String REMOTE_GROUP_ID_HEADER = "JMSXGroupID";
+  String REMOTE_GROUP_SEQ_HEADER = "JMSXGroupSeq";
+  String REMOTE_COMMAND_TYPE_HEADER = "commandType";
+  String REMOTE_CODEC_HEADER = "commandCodec";
+  String REMOTE_RESULT_TYPE_HEADER = "resultType";
+  String REMOTE_FAILED_HEADER = "failed";
+  String REMOTE_FAILURE_MESSAGE_HEADER = "failureMessage";
+
+  String PIPELINE_PREFIX = "command-pipeline-";
+  String PIPELINE_RING_SIZE_PROP = "pipeline.ringSize";
+  String PIPELINE_RING_SIZE_DEFAULT = "4096";
+  String PIPELINE_HANDLERS_PROP = "pipeline.handlers";
+  String PIPELINE_HANDLERS_DEFAULT = "4";
+  String PIPELINE_IDLE_MAX_PARK_MICROS_PROP = "pipeline.idleMaxParkMicros";
+  String PIPELINE_IDLE_MAX_PARK_MICROS_DEFAULT = "1000";
+
+  String JOURNAL_BACKEND_PROP = "journal.backend";
+  String JOURNAL_BACKEND_DEFAULT = "CASSANDRA";
+  String JOURNAL_MEMORY_CAPACITY_PROP = "journal.memory.capacity";
+  String JOURNAL_MEMORY_CAPACITY_DEFAULT = "100000";
+  String JOURNAL_FILE_DIRECTORY_PROP = "journal.file.directory";
+  String JOURNAL_FILE_DIRECTORY_DEFAULT = "command-journal";
+  String JOURNAL_FILE_SEGMENT_SIZE_PROP = "journal.file.segmentSize";
+  String JOURNAL_FILE_SEGMENT_SIZE_DEFAULT = "67108864";
+  String JOURNAL_FILE_FORWARD_PROP = "journal.file.forward";
+  String JOURNAL_FILE_FORWARD_DEFAULT = "false";
+  String JOURNAL_WRITER_NAME = "command-journal-writer";
+  String JOURNAL_SYNC_NAME = "command-journal-sync";
+  String JOURNAL_FORWARDER_PREFIX = "command-journal-forwarder-";
+  String JOURNAL_LINGER_MILLIS_PROP = "journal.lingerMillis";
+  String JOURNAL_LINGER_MILLIS_DEFAULT = "2";
+  String JOURNAL_BATCH_SIZE_PROP = "journal.batchSize";
+  String JOURNAL_BATCH_SIZE_DEFAULT = "64";
+  String JOURNAL_SHARDS_PROP = "journal.shards";
+  String JOURNAL_SHARDS_DEFAULT = "8";
+  String JOURNAL_BUCKET_GRANULARITY_PROP = "journal.bucketGranularity";
+  String JOURNAL_BUCKET_GRANULARITY_DEFAULT = "DAY";
+  String JOURNAL_CODEC_PROP = "journal.codec";
+  String JOURNAL_CODEC_DEFAULT = "binary";
+  String JOURNAL_NODE_ID_PROP = "journal.nodeId";
+  String JOURNAL_RECOVERY_ENABLED_PROP = "journal.recovery.enabled";
+  String JOURNAL_RECOVERY_ENABLED_DEFAULT = "true";
+  String JOURNAL_RECOVERY_GRACE_MILLIS_PROP = "journal.recovery.graceMillis";
+  String JOURNAL_RECOVERY_GRACE_MILLIS_DEFAULT = "60000";
+  String JOURNAL_RECOVERY_PREFIX = "command-journal-recovery-";
+  String JOURNAL_RETENTION_PROCESSED_SECONDS_PROP = "journal.retention.processedSeconds";
+  String JOURNAL_RETENTION_PROCESSED_SECONDS_DEFAULT = "0";
+  String JOURNAL_RETENTION_FAILED_SECONDS_PROP = "journal.retention.failedSeconds";
+  String JOURNAL_RETENTION_FAILED_SECONDS_DEFAULT = "0";
+  String JOURNAL_ARCHIVE_ENABLED_PROP = "journal.archive.enabled";
+  String JOURNAL_ARCHIVE_ENABLED_DEFAULT = "false";
+  String JOURNAL_ARCHIVE_DIRECTORY_PROP = "journal.archive.directory";
+  String JOURNAL_ARCHIVE_DIRECTORY_DEFAULT = "command-archive";
+  String JOURNAL_ARCHIVE_AFTER_SECONDS_PROP = "journal.archive.afterSeconds";
+  String JOURNAL_ARCHIVE_AFTER_SECONDS_DEFAULT = "86400";
+  String JOURNAL_ARCHIVE_INTERVAL_MILLIS_PROP = "journal.archive.intervalMillis";
+  String JOURNAL_ARCHIVE_INTERVAL_MILLIS_DEFAULT = "3600000";
+  String JOURNAL_ARCHIVE_NAME = "command-journal-archiver";
+  String JOURNAL_ARCHIVE_SUFFIX = ".archive.gz";
+
+  String METRICS_JMX_DOMAIN = "lab.mage.command";
+  String METRICS_JMX_ENABLED_PROP = "metrics.jmx.enabled";
+  String METRICS_JMX_ENABLED_DEFAULT = "true";
+
+  String DEDUP_CAPACITY_PROP = "dedup.capacity";
+  String DEDUP_CAPACITY_DEFAULT = "100000";
+  String DEDUP_TTL_SECONDS_PROP = "dedup.ttlSeconds";
+  String DEDUP_TTL_SECONDS_DEFAULT = "600";
 
   String COMMAND_SOURCE_TABLE_NAME = "command_source";
+  String COMMAND_IDENTITY_TABLE_NAME = "command_identity";
+  String COMMAND_PENDING_TABLE_NAME = "command_pending";
+  String COMMAND_REPLAY_CHECKPOINT_TABLE_NAME = "command_replay_checkpoint";
+  String COMMAND_LOG_PREFIX = "commands";
+  String STATUS_LOG_PREFIX = "status";
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.codec;
+
+import com.google.gson.Gson;
+import lab.mage.command.integration.domain.CreateJournalEntryCommand;
+import lab.mage.command.integration.repository.JournalEntry;
+import lab.mage.command.integration.repository.JournalEntryKey;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+public class BinaryCommandCodecTest {
+
+  private final Gson gson = new Gson();
+  private final BinaryCommandCodec binaryCommandCodec = new BinaryCommandCodec(this.gson);
+  private final CommandCodecs commandCodecs;
+
+  public BinaryCommandCodecTest() {
+    super();
+    final MockEnvironment environment = new MockEnvironment();
+    environment.setProperty(CommandConstants.JOURNAL_CODEC_PROP, BinaryCommandCodec.ID);
+    this.commandCodecs = new CommandCodecs(environment,
+        Arrays.asList(this.binaryCommandCodec, new GsonCommandCodec(this.gson)));
+  }
+
+  @Test
+  public void shouldRoundTripAllFieldTypes() {
+    final SampleCommand command = new SampleCommand();
+    command.flag = true;
+    command.small = (byte) -7;
+    command.shortValue = (short) -300;
+    command.character = 'λ';
+    command.number = Integer.MIN_VALUE;
+    command.wide = Long.MAX_VALUE;
+    command.ratio = 0.25F;
+    command.amount = -1234.5678D;
+    command.boxed = 42;
+    command.text = "Grüße";
+    command.createdOn = new Date(1451606400000L);
+    command.id = UUID.randomUUID();
+    command.big = new BigInteger("123456789012345678901234567890");
+    command.decimal = new BigDecimal("-98765.4321");
+    command.state = SampleState.CLOSED;
+    command.nested = new NestedValue();
+    command.nested.label = "nested";
+    command.immutable = new ImmutableValue("immutable", 3);
+    command.tags = Arrays.asList("a", "b");
+
+    final SampleCommand decoded =
+        this.binaryCommandCodec.decode(this.binaryCommandCodec.encode(command), SampleCommand.class);
+
+    Assert.assertEquals(command.flag, decoded.flag);
+    Assert.assertEquals(command.small, decoded.small);
+    Assert.assertEquals(command.shortValue, decoded.shortValue);
+    Assert.assertEquals(command.character, decoded.character);
+    Assert.assertEquals(command.number, decoded.number);
+    Assert.assertEquals(command.wide, decoded.wide);
+    Assert.assertEquals(command.ratio, decoded.ratio, 0.0F);
+    Assert.assertEquals(command.amount, decoded.amount, 0.0D);
+    Assert.assertEquals(command.boxed, decoded.boxed);
+    Assert.assertNull(decoded.missing);
+    Assert.assertEquals(command.text, decoded.text);
+    Assert.assertEquals(command.createdOn, decoded.createdOn);
+    Assert.assertEquals(command.id, decoded.id);
+    Assert.assertEquals(command.big, decoded.big);
+    Assert.assertEquals(command.decimal, decoded.decimal);
+    Assert.assertEquals(command.state, decoded.state);
+    Assert.assertEquals("nested", decoded.nested.label);
+    Assert.assertEquals("immutable", decoded.immutable.name);
+    Assert.assertEquals(3, decoded.immutable.count);
+    Assert.assertEquals(command.tags, decoded.tags);
+  }
+
+  @Test
+  public void shouldRoundTripCommandWithoutNoArgConstructor() {
+    final ImmutableValue decoded = this.binaryCommandCodec.decode(
+        this.binaryCommandCodec.encode(new ImmutableValue("immutable", 7)), ImmutableValue.class);
+
+    Assert.assertEquals("immutable", decoded.name);
+    Assert.assertEquals(7, decoded.count);
+  }
+
+  @Test
+  public void shouldWriteCommandWithoutNoArgConstructorAsBinary() {
+    final JournalEntryKey journalEntryKey = new JournalEntryKey();
+    journalEntryKey.setBucket("2016-01");
+    journalEntryKey.setCreatedOn(new Date(1451606400000L));
+    final JournalEntry journalEntry = new JournalEntry();
+    journalEntry.setJournalEntryKey(journalEntryKey);
+    journalEntry.setDebtor("debtor");
+    journalEntry.setCreditor("creditor");
+    journalEntry.setCurrencyCode("EUR");
+    journalEntry.setAmount(12.5D);
+
+    final ByteBuffer payload = this.binaryCommandCodec.encode(new CreateJournalEntryCommand("id", journalEntry));
+    final CreateJournalEntryCommand decoded = this.binaryCommandCodec.decode(payload, CreateJournalEntryCommand.class);
+
+    Assert.assertFalse(new String(payload.array(), StandardCharsets.UTF_8).contains("\"debtor\""));
+    Assert.assertEquals("debtor", decoded.debtor());
+    Assert.assertEquals("creditor", decoded.journalEntry().getCreditor());
+    Assert.assertEquals("EUR", decoded.journalEntry().getCurrencyCode());
+    Assert.assertEquals(12.5D, decoded.journalEntry().getAmount(), 0.0D);
+    Assert.assertEquals(journalEntryKey, decoded.journalEntry().getJournalEntryKey());
+  }
+
+  @Test
+  public void shouldFoldNestedSchemasIntoFingerprint() {
+    final BinarySchema commandSchema = this.binaryCommandCodec.schemaOf(CreateJournalEntryCommand.class);
+    final BinarySchema keySchema = this.binaryCommandCodec.schemaOf(JournalEntryKey.class);
+
+    Assert.assertTrue(commandSchema.getSignature().contains(keySchema.getSignature()));
+    Assert.assertTrue(commandSchema.getSignature().contains("debtor:java.lang.String;"));
+  }
+
+  @Test
+  public void shouldRoundTripSelfReferencingType() {
+    final LinkedValue linkedValue = new LinkedValue();
+    linkedValue.label = "head";
+    linkedValue.next = new LinkedValue();
+    linkedValue.next.label = "tail";
+
+    final LinkedValue decoded =
+        this.binaryCommandCodec.decode(this.binaryCommandCodec.encode(linkedValue), LinkedValue.class);
+
+    Assert.assertEquals("head", decoded.label);
+    Assert.assertEquals("tail", decoded.next.label);
+    Assert.assertNull(decoded.next.next);
+  }
+
+  @Test
+  public void shouldWriteEnumByName() {
+    final EnumCommand command = new EnumCommand();
+    command.state = SampleState.CLOSED;
+
+    final ByteBuffer payload = this.binaryCommandCodec.encode(command);
+
+    Assert.assertTrue(new String(payload.array(), StandardCharsets.UTF_8).contains("CLOSED"));
+    Assert.assertEquals(SampleState.CLOSED, this.binaryCommandCodec.decode(payload, EnumCommand.class).state);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectUnknownEnumName() {
+    final EnumCommand command = new EnumCommand();
+    command.state = SampleState.OPEN;
+    final ByteBuffer payload = this.binaryCommandCodec.encode(command);
+    final byte[] bytes = payload.array();
+    // OPEN -> OPAL, a constant renamed since the command was journaled
+    bytes[bytes.length - 2] = 'A';
+    bytes[bytes.length - 1] = 'L';
+
+    this.binaryCommandCodec.decode(payload, EnumCommand.class);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectPayloadOfOtherSchema() {
+    final NestedValue nestedValue = new NestedValue();
+    nestedValue.label = "nested";
+
+    this.binaryCommandCodec.decode(this.binaryCommandCodec.encode(nestedValue), RenamedValue.class);
+  }
+
+  @Test
+  public void shouldDecodeLegacyTextRow() {
+    final CommandSource commandSource = this.commandSource();
+    commandSource.setCommand("{\"label\":\"legacy\"}");
+
+    final NestedValue decoded = (NestedValue) this.commandCodecs.decode(commandSource);
+
+    Assert.assertEquals("legacy", decoded.label);
+  }
+
+  @Test
+  public void shouldDecodeWithCodecOfRow() {
+    final NestedValue nestedValue = new NestedValue();
+    nestedValue.label = "gson";
+    final CommandSource commandSource = this.commandSource();
+    commandSource.setCodec(GsonCommandCodec.ID);
+    commandSource.setPayload(this.commandCodecs.find(GsonCommandCodec.ID).encode(nestedValue));
+
+    Assert.assertEquals("gson", this.commandCodecs.decode(commandSource, NestedValue.class).label);
+  }
+
+  private CommandSource commandSource() {
+    final CommandSourceKey commandSourceKey = new CommandSourceKey();
+    commandSourceKey.setId(UUID.randomUUID());
+    final CommandSource commandSource = new CommandSource();
+    commandSource.setCommandSourceKey(commandSourceKey);
+    commandSource.setCommandType(NestedValue.class.getName());
+    return commandSource;
+  }
+
+  enum SampleState {
+    OPEN,
+    CLOSED
+  }
+
+  static final class SampleCommand {
+
+    private boolean flag;
+    private byte small;
+    private short shortValue;
+    private char character;
+    private int number;
+    private long wide;
+    private float ratio;
+    private double amount;
+    private Integer boxed;
+    private Integer missing;
+    private String text;
+    private Date createdOn;
+    private UUID id;
+    private BigInteger big;
+    private BigDecimal decimal;
+    private SampleState state;
+    private NestedValue nested;
+    private ImmutableValue immutable;
+    private List<String> tags;
+
+    SampleCommand() {
+      super();
+    }
+  }
+
+  static final class EnumCommand {
+
+    private SampleState state;
+
+    EnumCommand() {
+      super();
+    }
+  }
+
+  static final class NestedValue {
+
+    private String label;
+
+    NestedValue() {
+      super();
+    }
+  }
+
+  static final class RenamedValue {
+
+    private String name;
+
+    RenamedValue() {
+      super();
+    }
+  }
+
+  static final class ImmutableValue {
+
+    private final String name;
+    private final int count;
+
+    ImmutableValue(final String name, final int count) {
+      super();
+      this.name = name;
+      this.count = count;
+    }
+  }
+
+  static final class LinkedValue {
+
+    private String label;
+    private LinkedValue next;
+
+    LinkedValue() {
+      super();
+    }
+  }
+}
@@ -16,22 +16,41 @@
 package lab.mage.command.integration;
 
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.codec.GsonCommandCodec;
 import lab.mage.command.config.EnableCommandProcessing;
+import lab.mage.command.domain.CommandBatchResult;
 import lab.mage.command.domain.CommandCallback;
 import lab.mage.command.domain.CommandProcessingException;
 import lab.mage.command.gateway.CommandGateway;
 import lab.mage.command.integration.domain.CreateJournalEntryCommand;
 import lab.mage.command.integration.domain.ErroneousJournalCommand;
+import lab.mage.command.integration.domain.JournalCommandInterceptor;
+import lab.mage.command.integration.domain.TransientJournalCommand;
 import lab.mage.command.integration.repository.JournalEntry;
 import lab.mage.command.integration.repository.JournalEntryKey;
 import lab.mage.command.integration.util.Fixtures;
+import lab.mage.command.internal.CommandSourceFactory;
+import lab.mage.command.journal.CassandraCommandJournal;
+import lab.mage.command.journal.CommandJournal;
+import lab.mage.command.metrics.CommandMetrics;
+import lab.mage.command.metrics.CommandTypeMetrics;
+import lab.mage.command.replay.CommandRecovery;
+import lab.mage.command.replay.CommandReplayer;
+import lab.mage.command.repository.CommandIdentity;
+import lab.mage.command.repository.CommandIdentityRepository;
+import lab.mage.command.repository.CommandPending;
+import lab.mage.command.repository.CommandReplayCheckpoint;
 import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
 import lab.mage.command.util.CommandConstants;
 import org.cassandraunit.utils.EmbeddedCassandraServerHelper;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -45,11 +64,27 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.data.cassandra.core.CassandraAdminOperations;
 import org.springframework.data.cassandra.core.CassandraOperations;
 import org.springframework.data.cassandra.repository.config.EnableCassandraRepositories;
+import org.springframework.mock.env.MockEnvironment;
 import org.springframework.stereotype.Component;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(
@@ -94,6 +129,30 @@ public class CommandGatewayIntegrationTest {
   @Autowired
   private CommandGateway commandGateway;
 
+  @Autowired
+  private CommandCodecs commandCodecs;
+
+  @Autowired
+  private CommandMetrics commandMetrics;
+
+  @Autowired
+  private CommandReplayer commandReplayer;
+
+  @Autowired(required = false)
+  private CommandRecovery commandRecovery;
+
+  @Autowired
+  private CommandJournal commandJournal;
+
+  @Autowired
+  private CommandIdentityRepository commandIdentityRepository;
+
+  @Autowired
+  private CommandSourceFactory commandSourceFactory;
+
+  @Autowired
+  private JournalCommandInterceptor journalCommandInterceptor;
+
   public CommandGatewayIntegrationTest() {
     super();
   }
@@ -123,6 +182,12 @@ public class CommandGatewayIntegrationTest {
   public void setupTest() throws Exception {
     this.cassandraAdminOperations.createTable(true, CqlIdentifier.cqlId(CommandConstants.COMMAND_SOURCE_TABLE_NAME),
         CommandSource.class, new HashMap<>());
+    this.cassandraAdminOperations.createTable(true, CqlIdentifier.cqlId(CommandConstants.COMMAND_IDENTITY_TABLE_NAME),
+        CommandIdentity.class, new HashMap<>());
+    this.cassandraAdminOperations.createTable(true, CqlIdentifier.cqlId(CommandConstants.COMMAND_PENDING_TABLE_NAME),
+        CommandPending.class, new HashMap<>());
+    this.cassandraAdminOperations.createTable(true, CqlIdentifier.cqlId(CommandConstants.COMMAND_REPLAY_CHECKPOINT_TABLE_NAME),
+        CommandReplayCheckpoint.class, new HashMap<>());
     this.cassandraAdminOperations.createTable(true, CqlIdentifier.cqlId(CommandGatewayIntegrationTest.JOURNAL_ENTRY_TABLE_NAME),
         JournalEntry.class, new HashMap<>());
   }
@@ -130,6 +195,9 @@ public class CommandGatewayIntegrationTest {
   @After
   public void cleanUpTest() throws Exception {
     this.cassandraAdminOperations.dropTable(CqlIdentifier.cqlId(CommandConstants.COMMAND_SOURCE_TABLE_NAME));
+    this.cassandraAdminOperations.dropTable(CqlIdentifier.cqlId(CommandConstants.COMMAND_IDENTITY_TABLE_NAME));
+    this.cassandraAdminOperations.dropTable(CqlIdentifier.cqlId(CommandConstants.COMMAND_PENDING_TABLE_NAME));
+    this.cassandraAdminOperations.dropTable(CqlIdentifier.cqlId(CommandConstants.COMMAND_REPLAY_CHECKPOINT_TABLE_NAME));
     this.cassandraAdminOperations.dropTable(CqlIdentifier.cqlId(CommandGatewayIntegrationTest.JOURNAL_ENTRY_TABLE_NAME));
   }
 
@@ -143,6 +211,299 @@ public class CommandGatewayIntegrationTest {
     Assert.assertTrue(this.cassandraOperations.exists(JournalEntry.class, journalEntryKey));
   }
 
+  @Test
+  public void shouldAdmitCommandWithinTimeout() throws Exception {
+    final Optional<CommandCallback<JournalEntryKey>> callback = this.commandGateway
+        .tryProcess(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class,
+            1L, TimeUnit.SECONDS);
+    Assert.assertTrue(callback.isPresent());
+    Assert.assertTrue(this.cassandraOperations.exists(JournalEntry.class, callback.get().get()));
+  }
+
+  @Test
+  public void shouldReturnOriginalResultForDuplicateCommand() throws Exception {
+    final String commandId = UUID.randomUUID().toString();
+    final JournalEntryKey journalEntryKey = this.commandGateway
+        .process(new CreateJournalEntryCommand(commandId, Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class).get();
+    final JournalEntryKey duplicateJournalEntryKey = this.commandGateway
+        .process(new CreateJournalEntryCommand(commandId, Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class).get();
+    Assert.assertEquals(journalEntryKey, duplicateJournalEntryKey);
+    Assert.assertEquals(1L, this.cassandraOperations.count(JournalEntry.class));
+    Assert.assertEquals(1L, this.cassandraOperations.count(CommandSource.class));
+    final long deadline = System.currentTimeMillis() + 2000L;
+    while (this.cassandraOperations.selectOneById(CommandIdentity.class, commandId) == null
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    Assert.assertNotNull(this.cassandraOperations.selectOneById(CommandIdentity.class, commandId));
+  }
+
+  @Test
+  public void shouldReturnResultRecordedByAnotherNode() throws Exception {
+    final String commandId = UUID.randomUUID().toString();
+    final JournalEntryKey recordedJournalEntryKey = new JournalEntryKey();
+    recordedJournalEntryKey.setBucket("2016-03-01");
+    recordedJournalEntryKey.setCreatedOn(new Date(1456790400123L));
+    final CommandIdentity commandIdentity = new CommandIdentity();
+    commandIdentity.setCommandId(commandId);
+    commandIdentity.setCreatedOn(new Date());
+    commandIdentity.setResultType(JournalEntryKey.class.getName());
+    commandIdentity.setCodec(this.commandCodecs.getCommandCodec().getId());
+    commandIdentity.setPayload(this.commandCodecs.getCommandCodec().encode(recordedJournalEntryKey));
+    this.commandIdentityRepository.saveWithTtl(commandIdentity, 60).get();
+
+    final JournalEntryKey journalEntryKey = this.commandGateway
+        .process(new CreateJournalEntryCommand(commandId, Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class).get();
+    Assert.assertEquals(recordedJournalEntryKey, journalEntryKey);
+    Assert.assertEquals(0L, this.cassandraOperations.count(JournalEntry.class));
+    Assert.assertEquals(0L, this.cassandraOperations.count(CommandSource.class));
+  }
+
+  @Test
+  public void shouldMarkCommandSourceProcessed() throws Exception {
+    this.commandGateway.process(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class).get();
+    final CommandSource commandSource = this.awaitCommandSourceStatus();
+    Assert.assertNotNull(commandSource.getPayload());
+    Assert.assertNotNull(commandSource.getCommandSourceKey().getShard());
+    Assert.assertEquals(1, commandSource.getCommandSourceKey().getId().version());
+    Assert.assertTrue(commandSource.getProcessed());
+    Assert.assertNull(commandSource.getFailed());
+  }
+
+  @Test
+  public void shouldMarkCommandSourceFailed() throws Exception {
+    try {
+      this.commandGateway.process(new ErroneousJournalCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), Void.TYPE).get();
+      Assert.fail();
+    } catch (final CommandProcessingException ex) {
+      final CommandSource commandSource = this.awaitCommandSourceStatus();
+      Assert.assertNotNull(commandSource.getPayload());
+      Assert.assertTrue(commandSource.getFailed());
+      Assert.assertEquals("I'm broken!", commandSource.getFailureMessage());
+    }
+  }
+
+  @Test
+  public void shouldExpireCommandSourceStatusWithRow() throws Exception {
+    Assume.assumeTrue(this.commandJournal instanceof CassandraCommandJournal);
+    final MockEnvironment environment = new MockEnvironment();
+    environment.setProperty(CommandConstants.JOURNAL_RETENTION_PROCESSED_SECONDS_PROP, "3600");
+    environment.setProperty(CommandConstants.JOURNAL_RETENTION_FAILED_SECONDS_PROP, "7200");
+    final CassandraCommandJournal cassandraCommandJournal =
+        new CassandraCommandJournal(environment, this.logger, this.cassandraOperations.getSession());
+    cassandraCommandJournal.afterPropertiesSet();
+    try {
+      final CommandSource processed = this.commandSourceFactory.create(
+          new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), null);
+      final CommandSource failed = this.commandSourceFactory.create(
+          new ErroneousJournalCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), null);
+      cassandraCommandJournal.append(processed).get();
+      cassandraCommandJournal.append(failed).get();
+      cassandraCommandJournal.markProcessed(processed.getCommandSourceKey()).get();
+      cassandraCommandJournal.markFailed(failed, "I'm broken!").get();
+
+      // status cells expire together with the row, not after it
+      final Row processedRow = this.ttlsOf(processed);
+      Assert.assertTrue(processedRow.getInt("ttl_payload") <= 3600);
+      Assert.assertTrue(processedRow.getInt("ttl_payload") > 3590);
+      Assert.assertTrue(Math.abs(processedRow.getInt("ttl_payload") - processedRow.getInt("ttl_processed")) <= 2);
+
+      final Row failedRow = this.ttlsOf(failed);
+      Assert.assertTrue(failedRow.getInt("ttl_payload") > 3600);
+      Assert.assertTrue(failedRow.getInt("ttl_payload") <= 7200);
+      Assert.assertEquals(failedRow.getInt("ttl_payload"), failedRow.getInt("ttl_failure_message"));
+      Assert.assertEquals(failedRow.getInt("ttl_payload"), failedRow.getInt("ttl_failed"));
+    } finally {
+      cassandraCommandJournal.destroy();
+    }
+  }
+
+  @Test
+  public void shouldMarkCommandSourceProcessedForUnexpectedResultType() throws Exception {
+    try {
+      this.commandGateway.process(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), String.class).get();
+      Assert.fail();
+    } catch (final CommandProcessingException ex) {
+      Throwable cause = ex;
+      while (cause != null && !(cause instanceof ClassCastException)) {
+        cause = cause.getCause();
+      }
+      Assert.assertNotNull(cause);
+    }
+    // the handler ran, only the caller asked for the wrong type
+    final CommandSource commandSource = this.awaitCommandSourceStatus();
+    Assert.assertTrue(commandSource.getProcessed());
+    Assert.assertNull(commandSource.getFailed());
+    Assert.assertEquals(1L, this.cassandraOperations.count(JournalEntry.class));
+
+    final CommandBatchResult<String> batchResult = this.commandGateway
+        .processAll(Collections.singletonList(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY)), String.class)
+        .toCompletableFuture()
+        .get();
+    Assert.assertTrue(batchResult.getFailures().get(0) instanceof CommandProcessingException);
+    Assert.assertEquals(2L, this.cassandraOperations.count(JournalEntry.class));
+  }
+
+  @Test
+  public void shouldFailCommandWhenJournalFails() throws Exception {
+    Assume.assumeTrue(this.commandJournal instanceof CassandraCommandJournal);
+    this.cassandraAdminOperations.dropTable(CqlIdentifier.cqlId(CommandConstants.COMMAND_SOURCE_TABLE_NAME));
+    try {
+      this.commandGateway.processAsync(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class)
+          .toCompletableFuture()
+          .get();
+      Assert.fail();
+    } catch (final ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof CommandProcessingException);
+      Assert.assertEquals(0L, this.cassandraOperations.count(JournalEntry.class));
+    } finally {
+      this.cassandraAdminOperations.createTable(true, CqlIdentifier.cqlId(CommandConstants.COMMAND_SOURCE_TABLE_NAME),
+          CommandSource.class, new HashMap<>());
+    }
+  }
+
+  @Test
+  public void shouldSkipJournalForTransientCommand() throws Exception {
+    final String debtor = this.commandGateway
+        .process(new TransientJournalCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), String.class).get();
+    Assert.assertEquals(Fixtures.SAMPLE_JOURNAL_ENTRY.getDebtor(), debtor);
+    Assert.assertNull(this.cassandraOperations.selectOne(
+        "SELECT * FROM " + CommandConstants.COMMAND_SOURCE_TABLE_NAME, CommandSource.class));
+  }
+
+  @Test
+  public void shouldDecodeCommandSource() throws Exception {
+    this.commandGateway.process(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class).get();
+    final CommandSource commandSource = this.awaitCommandSourceStatus();
+    final CreateJournalEntryCommand command = (CreateJournalEntryCommand) this.commandCodecs.decode(commandSource);
+    Assert.assertEquals(Fixtures.SAMPLE_JOURNAL_ENTRY.getDebtor(), command.debtor());
+
+    final CommandSource legacyCommandSource = new CommandSource();
+    legacyCommandSource.setCommand(StandardCharsets.UTF_8.decode(
+        this.commandCodecs.find(GsonCommandCodec.ID).encode(command)).toString());
+    Assert.assertEquals(Fixtures.SAMPLE_JOURNAL_ENTRY.getDebtor(),
+        this.commandCodecs.decode(legacyCommandSource, CreateJournalEntryCommand.class).debtor());
+  }
+
+  @Test
+  public void shouldRecordCommandTypeMetrics() throws Exception {
+    final CommandTypeMetrics commandTypeMetrics = this.commandMetrics.of(CreateJournalEntryCommand.class);
+    final long succeeded = commandTypeMetrics.getSuccessCount();
+    this.commandGateway.process(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class).get();
+    Assert.assertEquals(succeeded + 1L, commandTypeMetrics.getSuccessCount());
+    Assert.assertTrue(commandTypeMetrics.getDispatchCount() >= commandTypeMetrics.getSuccessCount());
+    Assert.assertTrue(commandTypeMetrics.getJournalLatency().getCount() > 0L);
+    Assert.assertTrue(commandTypeMetrics.getHandlerLatency().getP99Nanos() > 0L);
+  }
+
+  @Test
+  public void shouldInterceptCommand() throws Exception {
+    final long intercepted = this.journalCommandInterceptor.intercepted();
+    this.commandGateway.process(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class).get();
+    Assert.assertEquals(intercepted + 1L, this.journalCommandInterceptor.intercepted());
+  }
+
+  @Test
+  public void shouldProcessAllCommands() throws Exception {
+    final List<Object> commands = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      commands.add(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY));
+    }
+    commands.add(new ErroneousJournalCommand(Fixtures.SAMPLE_JOURNAL_ENTRY));
+    final CommandBatchResult<Object> batchResult = this.commandGateway.processAll(commands)
+        .toCompletableFuture()
+        .get();
+    Assert.assertEquals(101, batchResult.size());
+    Assert.assertEquals(1, batchResult.getFailures().size());
+    Assert.assertTrue(batchResult.getFailures().get(100) instanceof CommandProcessingException);
+    Assert.assertEquals(101L, this.cassandraOperations.count(CommandSource.class));
+    Assert.assertTrue(batchResult.getResults().get(0) instanceof JournalEntryKey);
+  }
+
+  @Test
+  public void shouldReplayCommandsFromCheckpoint() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      this.commandGateway.process(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class).get();
+    }
+    try {
+      this.commandGateway.process(new ErroneousJournalCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), Void.TYPE).get();
+      Assert.fail();
+    } catch (final CommandProcessingException ex) {
+      final long deadline = System.currentTimeMillis() + 2000L;
+      while (this.cassandraOperations.select("SELECT * FROM " + CommandConstants.COMMAND_SOURCE_TABLE_NAME,
+          CommandSource.class).stream().noneMatch(commandSource -> Boolean.TRUE.equals(commandSource.getFailed()))
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10L);
+      }
+    }
+
+    final LocalDateTime now = LocalDateTime.now();
+    final long intercepted = this.journalCommandInterceptor.intercepted();
+    Assert.assertEquals(3L, this.commandReplayer.replay("rebuild", now.minusDays(1L), now.plusDays(1L)).get().longValue());
+    Assert.assertEquals(intercepted + 3L, this.journalCommandInterceptor.intercepted());
+    Assert.assertEquals(6L, this.cassandraOperations.count(JournalEntry.class));
+
+    this.commandGateway.process(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class).get();
+    Assert.assertEquals(1L, this.commandReplayer.replay("rebuild", now.minusDays(1L), now.plusDays(1L)).get().longValue());
+  }
+
+  @Test
+  public void shouldRecoverPendingCommand() throws Exception {
+    Assume.assumeNotNull(this.commandRecovery);
+    // journaled but never handled, as if the node died right after accepting the command
+    this.commandJournal.append(this.commandSourceFactory.create(
+        new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), null)).get();
+    Assert.assertEquals(1L, this.cassandraOperations.count(CommandPending.class));
+
+    Assert.assertEquals(1L, this.commandRecovery.recover());
+    final CommandSource commandSource = this.awaitCommandSourceStatus();
+    Assert.assertTrue(commandSource.getProcessed());
+    Assert.assertEquals(1L, this.cassandraOperations.count(JournalEntry.class));
+    final long deadline = System.currentTimeMillis() + 2000L;
+    while (this.cassandraOperations.count(CommandPending.class) > 0L && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    Assert.assertEquals(0L, this.cassandraOperations.count(CommandPending.class));
+    Assert.assertEquals(0L, this.commandRecovery.recover());
+  }
+
+  @Test
+  public void shouldRecoverPastFailingCommand() throws Exception {
+    Assume.assumeNotNull(this.commandRecovery);
+    this.commandJournal.append(this.commandSourceFactory.create(
+        new ErroneousJournalCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), null)).get();
+    this.commandJournal.append(this.commandSourceFactory.create(
+        new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), null)).get();
+
+    Assert.assertEquals(2L, this.commandRecovery.recover());
+    Assert.assertEquals(1L, this.cassandraOperations.count(JournalEntry.class));
+    final long deadline = System.currentTimeMillis() + 2000L;
+    while (this.cassandraOperations.count(CommandPending.class) > 0L && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    Assert.assertEquals(0L, this.cassandraOperations.count(CommandPending.class));
+  }
+
+  @Test
+  public void shouldArchiveBucket() throws Exception {
+    Assume.assumeTrue(this.commandJournal instanceof CassandraCommandJournal);
+    this.commandGateway.process(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class).get();
+    final CommandSource commandSource = this.awaitCommandSourceStatus();
+
+    final Path file = Files.createTempFile("command-journal", CommandConstants.JOURNAL_ARCHIVE_SUFFIX);
+    try {
+      Assert.assertEquals(1L, ((CassandraCommandJournal) this.commandJournal).archive(
+          commandSource.getCommandSourceKey().getSource(), commandSource.getCommandSourceKey().getBucket(),
+          Integer.valueOf(CommandConstants.JOURNAL_SHARDS_DEFAULT), file));
+      try (final DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+        in.readFully(new byte[in.readInt()]);
+        Assert.assertTrue(in.readInt() > 0);
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
   @Test
   public void shouldHandleCommandAsynchronously() throws Exception {
     this.commandGateway.process(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY));
@@ -151,6 +512,43 @@ public class CommandGatewayIntegrationTest {
     Assert.assertTrue(this.cassandraOperations.count(JournalEntry.class) == 1);
   }
 
+  @Test
+  public void shouldHandleCommandNonBlocking() throws Exception {
+    final Boolean exists = this.commandGateway
+        .processAsync(new CreateJournalEntryCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), JournalEntryKey.class)
+        .thenApply(journalEntryKey -> this.cassandraOperations.exists(JournalEntry.class, journalEntryKey))
+        .toCompletableFuture()
+        .get();
+    this.logger.debug("Non-blocking command processed!");
+    Assert.assertTrue(exists);
+  }
+
+  @Test
+  public void shouldFailInternalExceptionNonBlocking() throws Exception {
+    try {
+      this.commandGateway
+          .processAsync(new ErroneousJournalCommand(Fixtures.SAMPLE_JOURNAL_ENTRY), Void.TYPE)
+          .toCompletableFuture()
+          .get();
+      Assert.fail();
+    } catch (final ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof CommandProcessingException);
+    }
+  }
+
+  @Test
+  public void shouldFailUnknownCommandNonBlocking() throws Exception {
+    // failures reach the caller through the stage only, processAsync itself never throws
+    final CompletableFuture<Void> result =
+        this.commandGateway.processAsync("unknown command", Void.TYPE).toCompletableFuture();
+    try {
+      result.get();
+      Assert.fail();
+    } catch (final ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof CommandProcessingException);
+    }
+  }
+
   @Test(expected = CommandProcessingException.class)
   public void shouldFailUnknownCommand() throws Exception {
     final CommandCallback<Void> callback = this.commandGateway.process("unknown command", Void.TYPE);
@@ -158,6 +556,22 @@ public class CommandGatewayIntegrationTest {
     Assert.fail();
   }
 
+  @Test
+  public void shouldShareMetricsOfUnknownCommands() throws Exception {
+    final long dispatched = this.commandMetrics.unknown().getDispatchCount();
+    for (final Object command : new Object[]{"unknown command", 42, 42L}) {
+      try {
+        this.commandGateway.process(command, Void.TYPE).get();
+        Assert.fail();
+      } catch (final CommandProcessingException ex) {
+        // expected
+      }
+    }
+    Assert.assertEquals(dispatched + 3L, this.commandMetrics.unknown().getDispatchCount());
+    Assert.assertFalse(this.commandMetrics.snapshot().stream()
+        .anyMatch(commandTypeMetrics -> commandTypeMetrics.getCommandType().equals(Integer.class.getName())));
+  }
+
   @Test(expected = CommandProcessingException.class)
   public void shouldFailInternalException() throws Exception {
     final CommandCallback<Void> callback =
@@ -165,4 +579,28 @@ public class CommandGatewayIntegrationTest {
     callback.get();
     Assert.fail();
   }
+
+  private Row ttlsOf(final CommandSource commandSource) {
+    final CommandSourceKey commandSourceKey = commandSource.getCommandSourceKey();
+    return this.cassandraOperations.getSession().execute(
+        "SELECT ttl(payload) AS ttl_payload, ttl(processed) AS ttl_processed, ttl(failed) AS ttl_failed, "
+            + "ttl(failure_message) AS ttl_failure_message FROM " + CommandConstants.COMMAND_SOURCE_TABLE_NAME
+            + " WHERE source = ? AND bucket = ? AND shard = ? AND id = ?",
+        commandSourceKey.getSource(), commandSourceKey.getBucket(), commandSourceKey.getShard(),
+        commandSourceKey.getId()).one();
+  }
+
+  // status updates are written after the result has been handed out
+  private CommandSource awaitCommandSourceStatus() throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 2000L;
+    while (true) {
+      final CommandSource commandSource = this.cassandraOperations.selectOne(
+          "SELECT * FROM " + CommandConstants.COMMAND_SOURCE_TABLE_NAME, CommandSource.class);
+      if ((commandSource != null && (commandSource.getProcessed() != null || commandSource.getFailed() != null))
+          || System.currentTimeMillis() > deadline) {
+        return commandSource;
+      }
+      Thread.sleep(10L);
+    }
+  }
 }
@@ -15,18 +15,32 @@
  */
 package lab.mage.command.integration.domain;
 
+import lab.mage.command.annotation.CommandId;
+import lab.mage.command.annotation.RoutingKey;
 import lab.mage.command.integration.repository.JournalEntry;
 
 public final class CreateJournalEntryCommand {
 
+  @CommandId
+  private final String commandId;
   private final JournalEntry journalEntry;
 
   public CreateJournalEntryCommand(final JournalEntry journalEntry) {
+    this(null, journalEntry);
+  }
+
+  public CreateJournalEntryCommand(final String commandId, final JournalEntry journalEntry) {
     super();
+    this.commandId = commandId;
     this.journalEntry = journalEntry;
   }
 
   public JournalEntry journalEntry() {
     return this.journalEntry;
   }
+
+  @RoutingKey
+  public String debtor() {
+    return this.journalEntry.getDebtor();
+  }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.integration.domain;
+
+import lab.mage.command.interceptor.CommandInterceptor;
+import lab.mage.command.interceptor.CommandInvocation;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public final class JournalCommandInterceptor implements CommandInterceptor {
+
+  private final AtomicLong intercepted = new AtomicLong();
+
+  public JournalCommandInterceptor() {
+    super();
+  }
+
+  @Override
+  public boolean supports(final Class<?> commandClass) {
+    return CreateJournalEntryCommand.class.equals(commandClass);
+  }
+
+  @Override
+  public Object intercept(final Object command, final CommandInvocation invocation) throws Throwable {
+    this.intercepted.incrementAndGet();
+    return invocation.proceed(command);
+  }
+
+  public long intercepted() {
+    return this.intercepted.get();
+  }
+}
@@ -99,6 +99,11 @@ public final class JournalEntryAggregate {
     return journalEntryKey;
   }
 
+  @CommandHandler
+  public String validate(final TransientJournalCommand transientJournalCommand) {
+    return transientJournalCommand.journalEntry().getDebtor();
+  }
+
   @CommandHandler
   public void fail(final ErroneousJournalCommand erroneousJournalCommand) {
     throw new IllegalArgumentException("I'm broken!");
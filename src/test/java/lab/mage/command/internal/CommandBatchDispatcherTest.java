@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import com.google.gson.Gson;
+import lab.mage.command.annotation.Durability;
+import lab.mage.command.codec.CommandCodec;
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.codec.GsonCommandCodec;
+import lab.mage.command.internal.CommandBatchDispatcher.BatchedCommand;
+import lab.mage.command.journal.NoOpCommandJournal;
+import lab.mage.command.metrics.CommandMetrics;
+import lab.mage.command.util.CommandConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CommandBatchDispatcherTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CommandConstants.LOGGER_NAME);
+
+  private final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+  private final CommandExecutor commandExecutor = new CommandExecutor("batch-test-", 8, 8, 64,
+      CommandExecutor.RejectionPolicy.BLOCK, 1000L, 16);
+  private final CommandBatchDispatcher commandBatchDispatcher;
+  private final CommandDescriptor commandDescriptor;
+
+  public CommandBatchDispatcherTest() {
+    super();
+    final MockEnvironment environment = new MockEnvironment();
+    environment.setProperty(CommandConstants.JOURNAL_CODEC_PROP, GsonCommandCodec.ID);
+    environment.setProperty(CommandConstants.METRICS_JMX_ENABLED_PROP, "false");
+    final CommandCodecs commandCodecs =
+        new CommandCodecs(environment, Collections.<CommandCodec>singletonList(new GsonCommandCodec(new Gson())));
+    this.commandBatchDispatcher = new CommandBatchDispatcher(environment, CommandBatchDispatcherTest.LOGGER,
+        new NoOpCommandJournal(), new CommandSourceFactory(commandCodecs, new CommandSourceKeyGenerator(environment)),
+        this.commandExecutor,
+        new CommandDeduplicator(environment, CommandBatchDispatcherTest.LOGGER, commandCodecs, Optional.empty()));
+    this.commandDescriptor = new CommandDescriptor(SampleCommand.class, command -> {
+      this.handled.add(((SampleCommand) command).name);
+      return ((SampleCommand) command).name;
+    }, null, null, new CommandMetrics(environment, CommandBatchDispatcherTest.LOGGER, Optional.empty())
+        .of(SampleCommand.class), Durability.Level.NONE);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.commandExecutor.destroy();
+  }
+
+  @Test
+  public void shouldKeepKeyOrderBetweenSingleAndBatchedCommands() throws Exception {
+    // a single command for the key, accepted before the batch and still running
+    final CountDownLatch release = new CountDownLatch(1);
+    this.commandExecutor.execute("aggregate", () -> {
+      try {
+        release.await();
+      } catch (final InterruptedException iex) {
+        Thread.currentThread().interrupt();
+      }
+      this.handled.add("single-before");
+    });
+
+    final List<BatchedCommand> batchedCommands = Arrays.asList(
+        this.batched("batched-1", "aggregate"),
+        this.batched("other", "other-aggregate"),
+        this.batched("batched-2", "aggregate"),
+        this.batched("unkeyed", null));
+    this.commandBatchDispatcher.dispatch(batchedCommands, String.class);
+    final CompletableFuture<Void> after = new CompletableFuture<>();
+    this.commandExecutor.execute("aggregate", () -> {
+      this.handled.add("single-after");
+      after.complete(null);
+    });
+
+    Thread.sleep(50L);
+    Assert.assertFalse(this.handled.contains("batched-1"));
+    release.countDown();
+
+    for (final BatchedCommand batchedCommand : batchedCommands) {
+      batchedCommand.result().get(5L, TimeUnit.SECONDS);
+    }
+    after.get(5L, TimeUnit.SECONDS);
+    final List<String> aggregate = new ArrayList<>(this.handled);
+    aggregate.removeAll(Arrays.asList("other", "unkeyed"));
+    Assert.assertEquals(Arrays.asList("single-before", "batched-1", "batched-2", "single-after"), aggregate);
+  }
+
+  private BatchedCommand batched(final String name, final Object routingKey) {
+    return new BatchedCommand(this.commandDescriptor, new SampleCommand(name), routingKey, new CompletableFuture<>());
+  }
+
+  private static final class SampleCommand {
+
+    private final String name;
+
+    private SampleCommand(final String name) {
+      super();
+      this.name = name;
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import lab.mage.command.config.CommandJavaConfiguration;
+import lab.mage.command.util.CommandConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CommandExecutorTest {
+
+  private CommandExecutor commandExecutor;
+
+  @After
+  public void tearDown() throws Exception {
+    if (this.commandExecutor != null) {
+      this.commandExecutor.destroy();
+    }
+  }
+
+  @Test
+  public void shouldRunTasksOfKeyInOrderUnderConcurrency() throws Exception {
+    this.commandExecutor = new CommandExecutor("executor-test-", 4, 8, 64,
+        CommandExecutor.RejectionPolicy.BLOCK, 5000L, 16);
+    final int producers = 8;
+    final int keysPerProducer = 4;
+    final int tasksPerKey = 250;
+    final List<List<Integer>> executed = new ArrayList<>();
+    final List<AtomicInteger> running = new ArrayList<>();
+    for (int key = 0; key < producers * keysPerProducer; key++) {
+      executed.add(Collections.synchronizedList(new ArrayList<>()));
+      running.add(new AtomicInteger());
+    }
+    final AtomicInteger overlaps = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(producers * keysPerProducer * tasksPerKey);
+
+    // every key is fed by a single producer, so its submission order is well defined
+    final List<Thread> threads = new ArrayList<>();
+    for (int producer = 0; producer < producers; producer++) {
+      final int firstKey = producer * keysPerProducer;
+      threads.add(new Thread(() -> {
+        for (int sequence = 0; sequence < tasksPerKey; sequence++) {
+          for (int key = firstKey; key < firstKey + keysPerProducer; key++) {
+            final int currentKey = key;
+            final int currentSequence = sequence;
+            this.commandExecutor.execute("key-" + currentKey, () -> {
+              if (running.get(currentKey).incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+              }
+              if (ThreadLocalRandom.current().nextInt(16) == 0) {
+                Thread.yield();
+              }
+              executed.get(currentKey).add(currentSequence);
+              running.get(currentKey).decrementAndGet();
+              done.countDown();
+            });
+          }
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertTrue(done.await(10L, TimeUnit.SECONDS));
+    Assert.assertEquals(0, overlaps.get());
+    for (final List<Integer> sequences : executed) {
+      Assert.assertEquals(tasksPerKey, sequences.size());
+      for (int sequence = 0; sequence < tasksPerKey; sequence++) {
+        Assert.assertEquals(Integer.valueOf(sequence), sequences.get(sequence));
+      }
+    }
+    // the permit of the last task is released right after it counted down
+    final long deadline = System.currentTimeMillis() + 1000L;
+    while (this.commandExecutor.getInFlightCount() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1L);
+    }
+    Assert.assertEquals(0, this.commandExecutor.getInFlightCount());
+  }
+
+  @Test
+  public void shouldBlockKeyedTaskInsteadOfRunningOnCaller() throws Exception {
+    this.commandExecutor = new CommandExecutor("executor-test-", 1, 1, 1,
+        CommandExecutor.RejectionPolicy.CALLER_RUNS, 50L, 4);
+    final CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < 2; i++) {
+      this.commandExecutor.execute(() -> {
+        try {
+          release.await();
+        } catch (final InterruptedException iex) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+
+    final Thread caller = Thread.currentThread();
+    final List<Thread> ranOn = Collections.synchronizedList(new ArrayList<>());
+    this.commandExecutor.execute(() -> ranOn.add(Thread.currentThread()));
+    Assert.assertEquals(Collections.singletonList(caller), ranOn);
+
+    try {
+      this.commandExecutor.execute("key", () -> ranOn.add(Thread.currentThread()));
+      Assert.fail("Saturated executor should reject keyed task.");
+    } catch (final RejectedExecutionException rex) {
+      Assert.assertEquals(1L, this.commandExecutor.getRejectionCount());
+    }
+    Assert.assertEquals(1, ranOn.size());
+    release.countDown();
+  }
+
+  @Test
+  public void shouldFallBackToPlatformThreadsWithoutVirtualThreads() throws Exception {
+    final boolean virtualThreadsAvailable = this.isVirtualThreadsAvailable();
+    final ExecutorService virtualThreadExecutor = VirtualThreads.newThreadPerTaskExecutor("virtual-test-");
+    if (virtualThreadExecutor != null) {
+      virtualThreadExecutor.shutdown();
+    }
+    // a JDK 8 runtime lacks the API entirely
+    if (!virtualThreadsAvailable) {
+      Assert.assertNull(virtualThreadExecutor);
+    }
+
+    final MockEnvironment environment = new MockEnvironment();
+    environment.setProperty(CommandConstants.EXECUTOR_MODE_PROP, CommandExecutor.Mode.VIRTUAL.name());
+    environment.setProperty(CommandConstants.EXECUTOR_CORE_POOL_SIZE_PROP, "2");
+    environment.setProperty(CommandConstants.EXECUTOR_MAX_POOL_SIZE_PROP, "2");
+    environment.setProperty(CommandConstants.EXECUTOR_QUEUE_CAPACITY_PROP, "8");
+    final CommandJavaConfiguration commandJavaConfiguration = new CommandJavaConfiguration();
+    ReflectionTestUtils.setField(commandJavaConfiguration, "environment", environment);
+    this.commandExecutor = commandJavaConfiguration.commandExecutor();
+
+    final CompletableFuture<Thread> ranOn = new CompletableFuture<>();
+    this.commandExecutor.execute("key", () -> ranOn.complete(Thread.currentThread()));
+    final Thread thread = ranOn.get(5L, TimeUnit.SECONDS);
+    Assert.assertNotSame(Thread.currentThread(), thread);
+    if (virtualThreadExecutor == null) {
+      Assert.assertTrue(thread.getName().startsWith(CommandConstants.EXECUTOR_PREFIX));
+    }
+  }
+
+  private boolean isVirtualThreadsAvailable() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (final NoSuchMethodException nsmex) {
+      return false;
+    }
+  }
+}
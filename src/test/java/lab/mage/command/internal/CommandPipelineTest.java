@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import com.google.gson.Gson;
+import lab.mage.command.annotation.Durability;
+import lab.mage.command.codec.CommandCodec;
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.codec.GsonCommandCodec;
+import lab.mage.command.domain.CommandProcessingException;
+import lab.mage.command.journal.CommandJournal;
+import lab.mage.command.metrics.CommandMetrics;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CommandPipelineTest {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CommandConstants.LOGGER_NAME);
+
+  private final RecordingCommandJournal commandJournal = new RecordingCommandJournal();
+  private final CommandMetrics commandMetrics;
+  private CommandPipeline commandPipeline;
+
+  public CommandPipelineTest() {
+    super();
+    this.commandMetrics = new CommandMetrics(this.environment(4, 2), CommandPipelineTest.LOGGER, Optional.empty());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (this.commandPipeline != null) {
+      this.commandPipeline.destroy();
+    }
+  }
+
+  @Test
+  public void shouldCompleteInOrderAcrossRingWrapAround() throws Exception {
+    this.commandPipeline = this.pipeline(4, 2);
+    final CommandDescriptor commandDescriptor = this.descriptor(command -> ((SampleCommand) command).value);
+
+    final List<CompletableFuture<Void>> callbacks = new ArrayList<>();
+    final List<Integer> completions = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 50; i++) {
+      final CompletableFuture<Integer> result = new CompletableFuture<>();
+      callbacks.add(result.thenAccept(completions::add));
+      this.commandPipeline.publish(commandDescriptor, new SampleCommand(i), "sample", Integer.class, result, null);
+    }
+
+    CompletableFuture.allOf(callbacks.toArray(new CompletableFuture<?>[callbacks.size()])).get(5L, TimeUnit.SECONDS);
+    for (int i = 0; i < completions.size(); i++) {
+      Assert.assertEquals(Integer.valueOf(i), completions.get(i));
+    }
+    Assert.assertEquals(50, this.commandJournal.appended.size());
+    this.commandJournal.awaitProcessed(50);
+  }
+
+  @Test
+  public void shouldBlockAndRejectWhileRingIsFull() throws Exception {
+    this.commandPipeline = this.pipeline(2, 1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CommandDescriptor commandDescriptor = this.descriptor(command -> {
+      release.await();
+      return ((SampleCommand) command).value;
+    });
+
+    final CompletableFuture<Integer> first = new CompletableFuture<>();
+    final CompletableFuture<Integer> second = new CompletableFuture<>();
+    this.commandPipeline.publish(commandDescriptor, new SampleCommand(1), null, Integer.class, first, null);
+    this.commandPipeline.publish(commandDescriptor, new SampleCommand(2), null, Integer.class, second, null);
+
+    final CompletableFuture<Integer> third = new CompletableFuture<>();
+    Assert.assertFalse(this.commandPipeline.tryPublish(commandDescriptor, new SampleCommand(3), null, Integer.class,
+        third, null, 10L, TimeUnit.MILLISECONDS));
+    try {
+      this.commandPipeline.publish(commandDescriptor, new SampleCommand(3), null, Integer.class, third, null);
+      Assert.fail("Full ring should reject command.");
+    } catch (final RejectedExecutionException rex) {
+      // expected
+    }
+
+    release.countDown();
+    Assert.assertTrue(this.commandPipeline.tryPublish(commandDescriptor, new SampleCommand(3), null, Integer.class,
+        third, null, 5L, TimeUnit.SECONDS));
+    Assert.assertEquals(Integer.valueOf(1), first.get(5L, TimeUnit.SECONDS));
+    Assert.assertEquals(Integer.valueOf(2), second.get(5L, TimeUnit.SECONDS));
+    Assert.assertEquals(Integer.valueOf(3), third.get(5L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldPropagateHandlerFailureAndMarkFailed() throws Exception {
+    this.commandPipeline = this.pipeline(4, 2);
+    final CommandDescriptor commandDescriptor = this.descriptor(command -> {
+      throw new IllegalStateException("Broken " + ((SampleCommand) command).value);
+    });
+
+    final CompletableFuture<Integer> result = new CompletableFuture<>();
+    final CompletableFuture<Void> journaled = new CompletableFuture<>();
+    this.commandPipeline.publish(commandDescriptor, new SampleCommand(7), null, Integer.class, result, journaled);
+
+    try {
+      result.get(5L, TimeUnit.SECONDS);
+      Assert.fail("Handler failure should complete result exceptionally.");
+    } catch (final ExecutionException eex) {
+      Assert.assertTrue(eex.getCause() instanceof CommandProcessingException);
+      Assert.assertEquals("Broken 7", eex.getCause().getMessage());
+    }
+    Assert.assertTrue(journaled.isDone());
+    final CommandSourceKey commandSourceKey = this.commandJournal.appended.get(0).getCommandSourceKey();
+    Assert.assertEquals("Broken 7", this.commandJournal.awaitFailed(commandSourceKey));
+    Assert.assertTrue(this.commandJournal.processed.isEmpty());
+  }
+
+  @Test
+  public void shouldCompleteResultWhenStatusUpdateFails() throws Exception {
+    this.commandJournal.failStatus = true;
+    this.commandPipeline = this.pipeline(4, 2);
+    final CommandDescriptor commandDescriptor = this.descriptor(command -> ((SampleCommand) command).value);
+
+    final CompletableFuture<Integer> result = new CompletableFuture<>();
+    this.commandPipeline.publish(commandDescriptor, new SampleCommand(5), null, Integer.class, result, null);
+
+    Assert.assertEquals(Integer.valueOf(5), result.get(5L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldBackOffWhileIdle() throws Exception {
+    final MockEnvironment environment = this.environment(4, 2);
+    environment.setProperty(CommandConstants.PIPELINE_IDLE_MAX_PARK_MICROS_PROP, "10000");
+    this.commandPipeline = this.pipeline(environment);
+    final CommandDescriptor commandDescriptor = this.descriptor(command -> ((SampleCommand) command).value);
+    final CompletableFuture<Integer> first = new CompletableFuture<>();
+    this.commandPipeline.publish(commandDescriptor, new SampleCommand(1), null, Integer.class, first, null);
+    Assert.assertEquals(Integer.valueOf(1), first.get(5L, TimeUnit.SECONDS));
+
+    // four stage threads sitting idle for half a second burn next to no CPU, parking for a fixed 50us did ~90ms
+    Thread.sleep(100L);
+    final long busy = this.stageCpuNanos();
+    Thread.sleep(500L);
+    Assert.assertTrue(this.stageCpuNanos() - busy < TimeUnit.MILLISECONDS.toNanos(40L));
+
+    final CompletableFuture<Integer> second = new CompletableFuture<>();
+    this.commandPipeline.publish(commandDescriptor, new SampleCommand(2), null, Integer.class, second, null);
+    Assert.assertEquals(Integer.valueOf(2), second.get(5L, TimeUnit.SECONDS));
+  }
+
+  @SuppressWarnings("unchecked")
+  private long stageCpuNanos() {
+    final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    long cpuNanos = 0L;
+    for (final Thread stage : (List<Thread>) ReflectionTestUtils.getField(this.commandPipeline, "stages")) {
+      cpuNanos += threadMXBean.getThreadCpuTime(stage.getId());
+    }
+    return cpuNanos;
+  }
+
+  private CommandPipeline pipeline(final int ringSize, final int handlers) throws Exception {
+    return this.pipeline(this.environment(ringSize, handlers));
+  }
+
+  private CommandPipeline pipeline(final MockEnvironment environment) throws Exception {
+    final CommandCodecs commandCodecs =
+        new CommandCodecs(environment, Collections.<CommandCodec>singletonList(new GsonCommandCodec(new Gson())));
+    final CommandPipeline commandPipeline = new CommandPipeline(environment, CommandPipelineTest.LOGGER,
+        this.commandJournal,
+        new CommandSourceFactory(commandCodecs, new CommandSourceKeyGenerator(environment)),
+        new CommandDeduplicator(environment, CommandPipelineTest.LOGGER, commandCodecs, Optional.empty()));
+    commandPipeline.afterPropertiesSet();
+    return commandPipeline;
+  }
+
+  private MockEnvironment environment(final int ringSize, final int handlers) {
+    final MockEnvironment environment = new MockEnvironment();
+    environment.setProperty(CommandConstants.DISPATCH_ENGINE_PROP, CommandPipeline.Engine.PIPELINE.name());
+    environment.setProperty(CommandConstants.PIPELINE_RING_SIZE_PROP, String.valueOf(ringSize));
+    environment.setProperty(CommandConstants.PIPELINE_HANDLERS_PROP, String.valueOf(handlers));
+    environment.setProperty(CommandConstants.EXECUTOR_BLOCK_TIMEOUT_MILLIS_PROP, "100");
+    environment.setProperty(CommandConstants.JOURNAL_CODEC_PROP, GsonCommandCodec.ID);
+    environment.setProperty(CommandConstants.METRICS_JMX_ENABLED_PROP, "false");
+    return environment;
+  }
+
+  private CommandDescriptor descriptor(final CommandHandlerInvoker commandHandler) {
+    return new CommandDescriptor(SampleCommand.class, commandHandler, null, null,
+        this.commandMetrics.of(SampleCommand.class), Durability.Level.SYNC);
+  }
+
+  private static final class SampleCommand {
+
+    private final int value;
+
+    private SampleCommand(final int value) {
+      super();
+      this.value = value;
+    }
+  }
+
+  private static final class RecordingCommandJournal implements CommandJournal {
+
+    private final List<CommandSource> appended = Collections.synchronizedList(new ArrayList<>());
+    private final List<CommandSourceKey> processed = Collections.synchronizedList(new ArrayList<>());
+    private final ConcurrentHashMap<CommandSourceKey, String> failed = new ConcurrentHashMap<>();
+    private volatile boolean failStatus;
+
+    private RecordingCommandJournal() {
+      super();
+    }
+
+    @Override
+    public CompletableFuture<Void> append(final CommandSource commandSource) {
+      return this.appendAll(Collections.singletonList(commandSource));
+    }
+
+    @Override
+    public CompletableFuture<Void> appendAll(final List<CommandSource> commandSources) {
+      this.appended.addAll(commandSources);
+      return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> markProcessed(final CommandSourceKey commandSourceKey) {
+      return this.markProcessedAll(Collections.singletonList(commandSourceKey));
+    }
+
+    @Override
+    public CompletableFuture<Void> markProcessedAll(final List<CommandSourceKey> commandSourceKeys) {
+      if (this.failStatus) {
+        throw new IllegalStateException("Status unavailable!");
+      }
+      this.processed.addAll(commandSourceKeys);
+      return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> markFailed(final CommandSource commandSource, final String failureMessage) {
+      this.failed.put(commandSource.getCommandSourceKey(), failureMessage);
+      return CompletableFuture.completedFuture(null);
+    }
+
+    private void awaitProcessed(final int count) throws InterruptedException {
+      final long deadline = System.currentTimeMillis() + 5000L;
+      while (this.processed.size() < count && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10L);
+      }
+      Assert.assertEquals(count, this.processed.size());
+    }
+
+    private String awaitFailed(final CommandSourceKey commandSourceKey) throws InterruptedException {
+      final long deadline = System.currentTimeMillis() + 5000L;
+      while (!this.failed.containsKey(commandSourceKey) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10L);
+      }
+      return this.failed.get(commandSourceKey);
+    }
+  }
+}
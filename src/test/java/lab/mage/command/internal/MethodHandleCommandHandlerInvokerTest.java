@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MethodHandleCommandHandlerInvokerTest {
+
+  @Test
+  public void shouldBindPublicHandlerWithoutMethodHandle() throws Throwable {
+    final CommandHandlerInvoker commandHandlerInvoker = MethodHandleCommandHandlerInvoker.bind(
+        new PublicAggregate(), PublicAggregate.class.getMethod("handle", PublicCommand.class));
+
+    Assert.assertFalse(commandHandlerInvoker instanceof MethodHandleCommandHandlerInvoker);
+    Assert.assertEquals("handled", commandHandlerInvoker.invoke(new PublicCommand("handled")));
+  }
+
+  @Test
+  public void shouldReturnNullForVoidHandler() throws Throwable {
+    final PublicAggregate publicAggregate = new PublicAggregate();
+    final CommandHandlerInvoker commandHandlerInvoker = MethodHandleCommandHandlerInvoker.bind(
+        publicAggregate, PublicAggregate.class.getMethod("record", PublicCommand.class));
+
+    Assert.assertNull(commandHandlerInvoker.invoke(new PublicCommand("recorded")));
+    Assert.assertEquals("recorded", publicAggregate.recorded.get(0));
+  }
+
+  @Test
+  public void shouldBoxPrimitiveResult() throws Throwable {
+    final CommandHandlerInvoker commandHandlerInvoker = MethodHandleCommandHandlerInvoker.bind(
+        new PublicAggregate(), PublicAggregate.class.getMethod("count", PublicCommand.class));
+
+    Assert.assertEquals(5, commandHandlerInvoker.invoke(new PublicCommand("count")));
+  }
+
+  @Test(expected = IOException.class)
+  public void shouldPropagateCheckedException() throws Throwable {
+    final CommandHandlerInvoker commandHandlerInvoker = MethodHandleCommandHandlerInvoker.bind(
+        new PublicAggregate(), PublicAggregate.class.getMethod("fail", PublicCommand.class));
+
+    commandHandlerInvoker.invoke(new PublicCommand("fail"));
+  }
+
+  @Test
+  public void shouldFallBackToMethodHandleForNonPublicHandler() throws Throwable {
+    final CommandHandlerInvoker commandHandlerInvoker = MethodHandleCommandHandlerInvoker.bind(
+        new HiddenAggregate(), HiddenAggregate.class.getDeclaredMethod("handle", PublicCommand.class));
+
+    Assert.assertTrue(commandHandlerInvoker instanceof MethodHandleCommandHandlerInvoker);
+    Assert.assertEquals("hidden", commandHandlerInvoker.invoke(new PublicCommand("hidden")));
+  }
+
+  public static final class PublicCommand {
+
+    private final String value;
+
+    public PublicCommand(final String value) {
+      super();
+      this.value = value;
+    }
+  }
+
+  public static final class PublicAggregate {
+
+    private final List<String> recorded = new ArrayList<>();
+
+    public PublicAggregate() {
+      super();
+    }
+
+    public String handle(final PublicCommand publicCommand) {
+      return publicCommand.value;
+    }
+
+    public void record(final PublicCommand publicCommand) {
+      this.recorded.add(publicCommand.value);
+    }
+
+    public int count(final PublicCommand publicCommand) {
+      return publicCommand.value.length();
+    }
+
+    public String fail(final PublicCommand publicCommand) throws IOException {
+      throw new IOException(publicCommand.value);
+    }
+  }
+
+  static final class HiddenAggregate {
+
+    HiddenAggregate() {
+      super();
+    }
+
+    private String handle(final PublicCommand publicCommand) {
+      return publicCommand.value;
+    }
+  }
+}
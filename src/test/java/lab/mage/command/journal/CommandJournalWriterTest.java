@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import com.datastax.driver.core.utils.UUIDs;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class CommandJournalWriterTest {
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectWriteQueuedAfterFlusherLeft() throws Throwable {
+    final CommandJournalWriter commandJournalWriter = this.commandJournalWriter();
+    // the writer is stopped, and its flusher gone, between the running check and the enqueue
+    ReflectionTestUtils.setField(commandJournalWriter, "pendingCommandSources", new LinkedBlockingQueue<Object>() {
+      @Override
+      public boolean add(final Object pendingCommandSource) {
+        try {
+          commandJournalWriter.destroy();
+        } catch (final Exception ex) {
+          throw new IllegalStateException(ex);
+        }
+        return super.add(pendingCommandSource);
+      }
+    });
+    commandJournalWriter.afterPropertiesSet();
+
+    try {
+      commandJournalWriter.write(this.commandSource()).get(5L, TimeUnit.SECONDS);
+    } catch (final ExecutionException eex) {
+      throw eex.getCause();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectWriteAfterStop() throws Throwable {
+    final CommandJournalWriter commandJournalWriter = this.commandJournalWriter();
+    commandJournalWriter.afterPropertiesSet();
+    commandJournalWriter.destroy();
+
+    try {
+      commandJournalWriter.write(this.commandSource()).get(5L, TimeUnit.SECONDS);
+    } catch (final ExecutionException eex) {
+      throw eex.getCause();
+    }
+  }
+
+  private CommandJournalWriter commandJournalWriter() {
+    // without a session nothing can be flushed, the writes under test never reach the flusher anyway
+    return new CommandJournalWriter(new MockEnvironment(),
+        LoggerFactory.getLogger(CommandConstants.LOGGER_NAME), new CommandSourceStatements(null, "node", 60, 60));
+  }
+
+  private CommandSource commandSource() {
+    final CommandSourceKey commandSourceKey = new CommandSourceKey();
+    commandSourceKey.setSource("test");
+    commandSourceKey.setBucket("2016-01-01");
+    commandSourceKey.setShard(0);
+    commandSourceKey.setId(UUIDs.timeBased());
+
+    final CommandSource commandSource = new CommandSource();
+    commandSource.setCommandSourceKey(commandSourceKey);
+    commandSource.setCreatedOn(new Date(UUIDs.unixTimestamp(commandSourceKey.getId())));
+    commandSource.setCommandType(String.class.getName());
+    commandSource.setCodec("test");
+    commandSource.setPayload(ByteBuffer.wrap("command".getBytes(StandardCharsets.UTF_8)));
+    return commandSource;
+  }
+}
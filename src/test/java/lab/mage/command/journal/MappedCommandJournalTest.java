@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import com.datastax.driver.core.utils.UUIDs;
+import lab.mage.command.repository.CommandSource;
+import lab.mage.command.repository.CommandSourceKey;
+import lab.mage.command.util.CommandConstants;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class MappedCommandJournalTest {
+
+  @Rule
+  public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void shouldRestoreCommandsAndStatusesAfterCrash() throws Exception {
+    final MappedCommandJournal crashed = this.open(4096);
+    final CommandSource processed = this.commandSource("processed");
+    final CommandSource failed = this.commandSource("failed");
+    final CommandSource pending = this.commandSource("pending");
+    crashed.appendAll(Arrays.asList(processed, failed, pending)).join();
+    crashed.markProcessed(processed.getCommandSourceKey()).join();
+    crashed.markFailed(failed, "I'm broken!").join();
+
+    // no destroy, the process died
+    final MappedCommandJournal reopened = this.open(4096);
+    try {
+      final CommandSource appended = this.commandSource("appended");
+      reopened.append(appended).join();
+
+      final List<CommandSource> commandSources = this.read(reopened);
+      Assert.assertEquals(4, commandSources.size());
+      this.assertCommandSource(processed, commandSources.get(0));
+      Assert.assertTrue(commandSources.get(0).getProcessed());
+      this.assertCommandSource(failed, commandSources.get(1));
+      Assert.assertTrue(commandSources.get(1).getFailed());
+      Assert.assertEquals("I'm broken!", commandSources.get(1).getFailureMessage());
+      this.assertCommandSource(pending, commandSources.get(2));
+      Assert.assertNull(commandSources.get(2).getProcessed());
+      Assert.assertNull(commandSources.get(2).getFailed());
+      this.assertCommandSource(appended, commandSources.get(3));
+    } finally {
+      reopened.destroy();
+      crashed.destroy();
+    }
+  }
+
+  @Test
+  public void shouldReadCommandsAcrossSegments() throws Exception {
+    final MappedCommandJournal mappedCommandJournal = this.open(256);
+    try {
+      final List<CommandSource> expected = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        expected.add(this.commandSource("command-" + i));
+      }
+      mappedCommandJournal.appendAll(expected).join();
+
+      final List<CommandSource> commandSources = this.read(mappedCommandJournal);
+      Assert.assertEquals(expected.size(), commandSources.size());
+      for (int i = 0; i < expected.size(); i++) {
+        this.assertCommandSource(expected.get(i), commandSources.get(i));
+      }
+    } finally {
+      mappedCommandJournal.destroy();
+    }
+  }
+
+  @Test
+  public void shouldRejectAppendAfterDestroy() throws Exception {
+    final MappedCommandJournal mappedCommandJournal = this.open(4096);
+    mappedCommandJournal.destroy();
+    try {
+      mappedCommandJournal.append(this.commandSource("rejected")).get();
+      Assert.fail("Stopped journal should reject command.");
+    } catch (final ExecutionException eex) {
+      Assert.assertTrue(eex.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void shouldForwardStatusAfterForwardedCommand() throws Exception {
+    final SlowForwardJournal forwardJournal = new SlowForwardJournal();
+    final MappedCommandJournal mappedCommandJournal = this.open(4096, forwardJournal);
+    try {
+      final CommandSource commandSource = this.commandSource("forwarded");
+      mappedCommandJournal.append(commandSource).join();
+      mappedCommandJournal.markProcessed(commandSource.getCommandSourceKey()).join();
+
+      Assert.assertTrue(forwardJournal.appending.await(5L, TimeUnit.SECONDS));
+      Thread.sleep(50L);
+      Assert.assertTrue(forwardJournal.processed.isEmpty());
+
+      forwardJournal.appended.complete(null);
+      final long deadline = System.currentTimeMillis() + 5000L;
+      while (forwardJournal.processed.isEmpty() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10L);
+      }
+      Assert.assertEquals(Collections.singletonList(commandSource.getCommandSourceKey()), forwardJournal.processed);
+    } finally {
+      mappedCommandJournal.destroy();
+    }
+  }
+
+  private MappedCommandJournal open(final int segmentSize) throws Exception {
+    return this.open(segmentSize, null);
+  }
+
+  private MappedCommandJournal open(final int segmentSize, final CommandJournal forwardJournal) throws Exception {
+    final MockEnvironment environment = new MockEnvironment();
+    environment.setProperty(CommandConstants.JOURNAL_FILE_DIRECTORY_PROP,
+        this.temporaryFolder.getRoot().getAbsolutePath());
+    environment.setProperty(CommandConstants.JOURNAL_FILE_SEGMENT_SIZE_PROP, String.valueOf(segmentSize));
+    final MappedCommandJournal mappedCommandJournal =
+        new MappedCommandJournal(environment, LoggerFactory.getLogger(CommandConstants.LOGGER_NAME), forwardJournal);
+    mappedCommandJournal.afterPropertiesSet();
+    return mappedCommandJournal;
+  }
+
+  private List<CommandSource> read(final MappedCommandJournal mappedCommandJournal) throws Exception {
+    final List<CommandSource> commandSources = new ArrayList<>();
+    mappedCommandJournal.read(commandSources::add);
+    return commandSources;
+  }
+
+  private CommandSource commandSource(final String command) {
+    final CommandSourceKey commandSourceKey = new CommandSourceKey();
+    commandSourceKey.setSource("test");
+    commandSourceKey.setBucket("2016-01-01");
+    commandSourceKey.setShard(0);
+    commandSourceKey.setId(UUIDs.timeBased());
+
+    final CommandSource commandSource = new CommandSource();
+    commandSource.setCommandSourceKey(commandSourceKey);
+    commandSource.setCreatedOn(new Date(UUIDs.unixTimestamp(commandSourceKey.getId())));
+    commandSource.setCommandType(String.class.getName());
+    commandSource.setCodec("test");
+    commandSource.setPayload(ByteBuffer.wrap(command.getBytes(StandardCharsets.UTF_8)));
+    return commandSource;
+  }
+
+  private void assertCommandSource(final CommandSource expected, final CommandSource actual) {
+    Assert.assertEquals(expected.getCommandSourceKey().getId(), actual.getCommandSourceKey().getId());
+    Assert.assertEquals(expected.getCommandSourceKey().getBucket(), actual.getCommandSourceKey().getBucket());
+    Assert.assertEquals(expected.getCommandSourceKey().getShard(), actual.getCommandSourceKey().getShard());
+    Assert.assertEquals(expected.getCreatedOn(), actual.getCreatedOn());
+    Assert.assertEquals(expected.getCommandType(), actual.getCommandType());
+    Assert.assertEquals(expected.getPayload(), actual.getPayload());
+  }
+
+  private static final class SlowForwardJournal implements CommandJournal {
+
+    private final CountDownLatch appending = new CountDownLatch(1);
+    private final CompletableFuture<Void> appended = new CompletableFuture<>();
+    private final List<CommandSourceKey> processed = new CopyOnWriteArrayList<>();
+
+    private SlowForwardJournal() {
+      super();
+    }
+
+    @Override
+    public CompletableFuture<Void> append(final CommandSource commandSource) {
+      this.appending.countDown();
+      return this.appended;
+    }
+
+    @Override
+    public CompletableFuture<Void> appendAll(final List<CommandSource> commandSources) {
+      commandSources.forEach(this::append);
+      return this.appended;
+    }
+
+    @Override
+    public CompletableFuture<Void> markProcessed(final CommandSourceKey commandSourceKey) {
+      this.processed.add(commandSourceKey);
+      return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> markProcessedAll(final List<CommandSourceKey> commandSourceKeys) {
+      this.processed.addAll(commandSourceKeys);
+      return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> markFailed(final CommandSource commandSource, final String failureMessage) {
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.journal;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+public class MappedLogTest {
+
+  private static final String PREFIX = "test";
+  private static final int HEADER_SIZE = 8;
+  private static final int RECORD_SIZE = 20;
+
+  @Rule
+  public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void shouldRollOverToFreshSegment() throws Exception {
+    final Path directory = this.temporaryFolder.getRoot().toPath();
+    // two framed records fit into a segment, the third one rolls
+    final MappedLog mappedLog = new MappedLog(directory, MappedLogTest.PREFIX, 64);
+    mappedLog.open();
+
+    final List<CompletableFuture<Void>> acknowledgements = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      acknowledgements.add(mappedLog.append(this.record(i)));
+    }
+    mappedLog.sync();
+    acknowledgements.forEach(acknowledgement -> Assert.assertTrue(acknowledgement.isDone()));
+
+    Assert.assertEquals(3, this.segments(directory).size());
+    Assert.assertEquals(Arrays.asList("record-0", "record-1", "record-2", "record-3", "record-4"),
+        this.scan(mappedLog));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectRecordExceedingSegment() throws Exception {
+    final MappedLog mappedLog = new MappedLog(this.temporaryFolder.getRoot().toPath(), MappedLogTest.PREFIX, 16);
+    mappedLog.open();
+    mappedLog.append(this.record(0));
+  }
+
+  @Test
+  public void shouldSkipTornRecordAtTail() throws Exception {
+    final Path directory = this.temporaryFolder.getRoot().toPath();
+    final MappedLog mappedLog = new MappedLog(directory, MappedLogTest.PREFIX, 256);
+    mappedLog.open();
+    mappedLog.append(this.record(0));
+    mappedLog.append(this.record(1));
+    mappedLog.sync();
+
+    // header landed, only the first half of the record before the crash
+    final ByteBuffer record = ByteBuffer.wrap("record-2-never-ended".getBytes(StandardCharsets.UTF_8));
+    final ByteBuffer torn = ByteBuffer.allocate(MappedLogTest.HEADER_SIZE + MappedLogTest.RECORD_SIZE / 2);
+    torn.putInt(MappedLogTest.RECORD_SIZE);
+    torn.putInt(this.crcOf(record));
+    torn.put(record.array(), 0, MappedLogTest.RECORD_SIZE / 2);
+    torn.flip();
+    this.write(this.segments(directory).get(0), 2 * (MappedLogTest.HEADER_SIZE + MappedLogTest.RECORD_SIZE), torn);
+
+    Assert.assertEquals(Arrays.asList("record-0", "record-1"), this.scan(this.reopen(directory, 256)));
+  }
+
+  @Test
+  public void shouldStopAtHeaderExceedingSegment() throws Exception {
+    final Path directory = this.temporaryFolder.getRoot().toPath();
+    final MappedLog mappedLog = new MappedLog(directory, MappedLogTest.PREFIX, 256);
+    mappedLog.open();
+    mappedLog.append(this.record(0));
+    mappedLog.sync();
+
+    final ByteBuffer header = ByteBuffer.allocate(MappedLogTest.HEADER_SIZE);
+    header.putInt(1024);
+    header.putInt(0);
+    header.flip();
+    this.write(this.segments(directory).get(0), MappedLogTest.HEADER_SIZE + MappedLogTest.RECORD_SIZE, header);
+
+    Assert.assertEquals(Collections.singletonList("record-0"), this.scan(this.reopen(directory, 256)));
+  }
+
+  @Test
+  public void shouldSkipCorruptRecordAndKeepScanning() throws Exception {
+    final Path directory = this.temporaryFolder.getRoot().toPath();
+    final MappedLog mappedLog = new MappedLog(directory, MappedLogTest.PREFIX, 256);
+    mappedLog.open();
+    mappedLog.append(this.record(0));
+    mappedLog.append(this.record(1));
+    mappedLog.append(this.record(2));
+    mappedLog.sync();
+
+    final ByteBuffer garbage = ByteBuffer.wrap("garbage".getBytes(StandardCharsets.UTF_8));
+    this.write(this.segments(directory).get(0),
+        MappedLogTest.HEADER_SIZE + MappedLogTest.RECORD_SIZE + MappedLogTest.HEADER_SIZE, garbage);
+
+    Assert.assertEquals(Arrays.asList("record-0", "record-2"), this.scan(this.reopen(directory, 256)));
+  }
+
+  @Test
+  public void shouldAppendToFreshSegmentAfterReopen() throws Exception {
+    final Path directory = this.temporaryFolder.getRoot().toPath();
+    final MappedLog crashed = new MappedLog(directory, MappedLogTest.PREFIX, 256);
+    crashed.open();
+    crashed.append(this.record(0));
+    crashed.append(this.record(1));
+    crashed.sync();
+    // appended but never synced, may or may not have made it
+    crashed.append(this.record(2));
+
+    final MappedLog reopened = this.reopen(directory, 256);
+    reopened.append(this.record(3));
+    reopened.sync();
+
+    Assert.assertEquals(2, this.segments(directory).size());
+    Assert.assertEquals(Arrays.asList("record-0", "record-1", "record-2", "record-3"), this.scan(reopened));
+  }
+
+  private MappedLog reopen(final Path directory, final int segmentSize) throws IOException {
+    final MappedLog mappedLog = new MappedLog(directory, MappedLogTest.PREFIX, segmentSize);
+    mappedLog.open();
+    return mappedLog;
+  }
+
+  private ByteBuffer record(final int index) {
+    final byte[] record = new byte[MappedLogTest.RECORD_SIZE];
+    final byte[] text = ("record-" + index).getBytes(StandardCharsets.UTF_8);
+    System.arraycopy(text, 0, record, 0, text.length);
+    return ByteBuffer.wrap(record);
+  }
+
+  private int crcOf(final ByteBuffer record) {
+    final CRC32 crc32 = new CRC32();
+    crc32.update(record.array(), 0, record.remaining());
+    return (int) crc32.getValue();
+  }
+
+  private List<String> scan(final MappedLog mappedLog) throws IOException {
+    final List<String> records = new ArrayList<>();
+    mappedLog.scan(record -> records.add(new String(record.array(), StandardCharsets.UTF_8).trim()));
+    return records;
+  }
+
+  private List<Path> segments(final Path directory) throws IOException {
+    final List<Path> segments = new ArrayList<>();
+    try (final DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, MappedLogTest.PREFIX + "-*")) {
+      directoryStream.forEach(segments::add);
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private void write(final Path segment, final int position, final ByteBuffer bytes) throws IOException {
+    try (final FileChannel fileChannel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      fileChannel.write(bytes, position);
+    }
+  }
+}
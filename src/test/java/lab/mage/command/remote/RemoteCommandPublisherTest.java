@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016 Markus Geiss.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lab.mage.command.remote;
+
+import com.google.gson.Gson;
+import lab.mage.command.codec.CommandCodec;
+import lab.mage.command.codec.CommandCodecs;
+import lab.mage.command.codec.GsonCommandCodec;
+import lab.mage.command.util.CommandConstants;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.mock.env.MockEnvironment;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class RemoteCommandPublisherTest {
+
+  private static final int CONSUMERS = 3;
+
+  private final Gson gson = new Gson();
+  private final BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+  private final List<Connection> connections = new ArrayList<>();
+  private PooledConnectionFactory pooledConnectionFactory;
+  private JmsTemplate jmsTemplate;
+  private RemoteCommandPublisher remoteCommandPublisher;
+
+  @Before
+  public void setUp() throws Exception {
+    final String queue = "publisher-test-" + UUID.randomUUID();
+    this.pooledConnectionFactory = new PooledConnectionFactory();
+    this.pooledConnectionFactory.setConnectionFactory(
+        new ActiveMQConnectionFactory("vm://publisher-test?broker.persistent=false&broker.useJmx=false"));
+    this.jmsTemplate = new JmsTemplate(this.pooledConnectionFactory);
+    this.jmsTemplate.setDefaultDestination(new ActiveMQQueue(queue));
+
+    for (int i = 0; i < RemoteCommandPublisherTest.CONSUMERS; i++) {
+      final int consumer = i;
+      final Connection connection = this.pooledConnectionFactory.createConnection();
+      final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+      final MessageConsumer messageConsumer = session.createConsumer(new ActiveMQQueue(queue));
+      messageConsumer.setMessageListener(message -> this.received.add(this.receive(consumer, message)));
+      connection.start();
+      this.connections.add(connection);
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (this.remoteCommandPublisher != null) {
+      this.remoteCommandPublisher.destroy();
+    }
+    for (final Connection connection : this.connections) {
+      connection.close();
+    }
+    this.pooledConnectionFactory.stop();
+  }
+
+  @Test
+  public void shouldDeliverCommandsOfRoutingKeyToOneConsumerInOrder() throws Exception {
+    this.remoteCommandPublisher = this.publisher(0L);
+    final List<String> routingKeys = new ArrayList<>();
+    for (int key = 0; key < 8; key++) {
+      routingKeys.add("aggregate-" + key);
+    }
+
+    for (int sequence = 0; sequence < 25; sequence++) {
+      for (final String routingKey : routingKeys) {
+        this.remoteCommandPublisher.publish(new SampleCommand(routingKey, sequence), routingKey);
+      }
+    }
+
+    final Map<String, List<Received>> byGroup = new HashMap<>();
+    for (int i = 0; i < routingKeys.size() * 25; i++) {
+      final Received received = this.received.poll(5L, TimeUnit.SECONDS);
+      Assert.assertNotNull("Command not delivered.", received);
+      Assert.assertNotNull(received.command);
+      Assert.assertEquals(received.command.routingKey, received.groupId);
+      byGroup.computeIfAbsent(received.groupId, groupId -> new ArrayList<>()).add(received);
+    }
+    Assert.assertEquals(routingKeys.size(), byGroup.size());
+    byGroup.forEach((groupId, commands) -> {
+      for (int sequence = 0; sequence < commands.size(); sequence++) {
+        Assert.assertEquals(commands.get(0).consumer, commands.get(sequence).consumer);
+        Assert.assertEquals(sequence, commands.get(sequence).command.sequence);
+      }
+    });
+  }
+
+  @Test
+  public void shouldCloseIdleGroupWithoutChangingGroupId() throws Exception {
+    this.remoteCommandPublisher = this.publisher(100L);
+
+    this.remoteCommandPublisher.publish(new SampleCommand("aggregate", 0), "aggregate");
+    final Received command = this.received.poll(5L, TimeUnit.SECONDS);
+    Assert.assertNotNull(command);
+    Assert.assertEquals("aggregate", command.groupId);
+
+    final Received close = this.received.poll(5L, TimeUnit.SECONDS);
+    Assert.assertNotNull("Idle group not closed.", close);
+    Assert.assertNull(close.command);
+    Assert.assertEquals("aggregate", close.groupId);
+    Assert.assertEquals(-1, close.groupSeq);
+    // the close is delivered to the consumer owning the group
+    Assert.assertEquals(command.consumer, close.consumer);
+
+    this.remoteCommandPublisher.publish(new SampleCommand("aggregate", 1), "aggregate");
+    final Received next = this.received.poll(5L, TimeUnit.SECONDS);
+    Assert.assertNotNull(next);
+    Assert.assertEquals("aggregate", next.groupId);
+    Assert.assertEquals(1, next.command.sequence);
+    Assert.assertNull("Group closed once only.", this.received.poll(50L, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void shouldKeepBusyGroupOpen() throws Exception {
+    this.remoteCommandPublisher = this.publisher(200L);
+
+    final long deadline = System.currentTimeMillis() + 600L;
+    int sequence = 0;
+    while (System.currentTimeMillis() < deadline) {
+      this.remoteCommandPublisher.publish(new SampleCommand("aggregate", sequence++), "aggregate");
+      Thread.sleep(20L);
+    }
+
+    final List<Received> commands = new ArrayList<>();
+    Received received;
+    while ((received = this.received.poll(100L, TimeUnit.MILLISECONDS)) != null && received.command != null) {
+      commands.add(received);
+    }
+    Assert.assertEquals(sequence, commands.size());
+    Assert.assertEquals(1L, commands.stream().map(command -> command.consumer).distinct().count());
+  }
+
+  private RemoteCommandPublisher publisher(final long groupResetMillis) throws Exception {
+    final MockEnvironment environment = new MockEnvironment();
+    environment.setProperty(CommandConstants.DISPATCH_MODE_PROP, RemoteCommandPublisher.Mode.REMOTE.name());
+    environment.setProperty(CommandConstants.REMOTE_GROUP_RESET_MILLIS_PROP, String.valueOf(groupResetMillis));
+    environment.setProperty(CommandConstants.JOURNAL_CODEC_PROP, GsonCommandCodec.ID);
+    final CommandCodecs commandCodecs = new CommandCodecs(environment,
+        Collections.<CommandCodec>singletonList(new GsonCommandCodec(this.gson)));
+    final RemoteCommandPublisher remoteCommandPublisher = new RemoteCommandPublisher(environment,
+        LoggerFactory.getLogger(CommandConstants.LOGGER_NAME), this.jmsTemplate, commandCodecs);
+    remoteCommandPublisher.afterPropertiesSet();
+    return remoteCommandPublisher;
+  }
+
+  private Received receive(final int consumer, final Message message) {
+    try {
+      final SampleCommand command;
+      if (message instanceof BytesMessage) {
+        final byte[] payload = new byte[(int) ((BytesMessage) message).getBodyLength()];
+        ((BytesMessage) message).readBytes(payload);
+        command = this.gson.fromJson(new String(payload, StandardCharsets.UTF_8), SampleCommand.class);
+      } else {
+        command = null;
+      }
+      return new Received(consumer, message.getStringProperty(CommandConstants.REMOTE_GROUP_ID_HEADER),
+          message.getIntProperty(CommandConstants.REMOTE_GROUP_SEQ_HEADER), command);
+    } catch (final JMSException jmsex) {
+      throw new IllegalStateException(jmsex);
+    }
+  }
+
+  private static final class SampleCommand {
+
+    private String routingKey;
+    private int sequence;
+
+    private SampleCommand(final String routingKey, final int sequence) {
+      super();
+      this.routingKey = routingKey;
+      this.sequence = sequence;
+    }
+  }
+
+  private static final class Received {
+
+    private final int consumer;
+    private final String groupId;
+    private final int groupSeq;
+    private final SampleCommand command;
+
+    private Received(final int consumer, final String groupId, final int groupSeq, final SampleCommand command) {
+      super();
+      this.consumer = consumer;
+      this.groupId = groupId;
+      this.groupSeq = groupSeq;
+      this.command = command;
+    }
+  }
+}